@@ -0,0 +1,136 @@
+/*
+ * Checks that the filters of this library allocate nothing while filtering, once they are warmed
+ * up, when they are applied with computeOneStep(input, output) (see the TrustedFilter interface).
+ *
+ * The bytes allocated by the current thread are measured through the HotSpot-specific
+ * com.sun.management.ThreadMXBean interface, so this only works on HotSpot-based JVMs.
+ *
+ * Usage: java -cp bin/:audio.jar AllocationCheck [samples]
+ * where samples is the number of samples each filter is applied to (441000 by default). The exit
+ * code is the number of filters that allocated memory.
+ */
+
+import be.uliege.lemal.oop.filters.TrustedFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.AllPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CombFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.FDNReverb;
+import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
+import be.uliege.lemal.oop.filters.compositeFilters.LowPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.MultirateFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.compositeFilters.SwappableFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.AdditionFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.DummyFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MeanFilter;
+import be.uliege.lemal.oop.filters.metering.Meter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+public class AllocationCheck {
+	private static int failures = 0;
+	
+	public static void main(String[] args) {
+		try {
+			int samples = args.length > 0 ? Integer.parseInt(args[0]) : 441000;
+			
+			System.out.println("Filter             Allocated (bytes/sample)");
+			report("GainFilter", new GainFilter(0.5), samples);
+			report("AdditionFilter", new AdditionFilter(3), samples);
+			report("MeanFilter", new MeanFilter(3), samples);
+			report("DelayFilter", new DelayFilter(4410), samples);
+			report("DummyFilter", new DummyFilter(44100), samples);
+			report("EchoFilter", new EchoFilter(22050, 0.6), samples);
+			report("CombFilter", new CombFilter(4410, 0.4), samples);
+			report("AllPassFilter", new AllPassFilter(353, 0.3), samples);
+			report("LowPassFilter", new LowPassFilter(88, 0.7133), samples);
+			report("Reverb", new Reverb(), samples);
+			report("Reverb (compiled)", new Reverb().compile(), samples);
+			Reverb metered = new Reverb();
+			metered.meterOutput(0, new Meter(44100));
+			report("Reverb (metered)", metered, samples);
+			report("JCRev", new JCRev(), samples);
+			report("FDNReverb", new FDNReverb(), samples);
+			report("MultirateFilter", new MultirateFilter(new CombFilter(1102, 0.4), 1, 4),
+					samples);
+			reportSwaps(samples);
+			System.out.println(failures == 0 ? "No filter allocated memory." : failures +
+					" filter(s) allocated memory.");
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			failures++;
+		}
+		System.exit(failures);
+	}
+	
+	/**
+	 * Reports a swappable filter whose filter is replaced every 20 ms, alternately by a reverb
+	 * and a JC reverb, by another thread. Replacements are built there, so the thread that
+	 * filters should still allocate nothing.
+	 */
+	private static void reportSwaps(int samples) throws FilterException {
+		final SwappableFilter f = new SwappableFilter(new Reverb(), 256, 441);
+		Thread swapper = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for (int k = 0; !Thread.currentThread().isInterrupted(); k++) {
+						f.swap(k % 2 == 0 ? new JCRev() : new Reverb());
+						Thread.sleep(20);
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				catch (FilterException e) {
+					System.err.println("Error: " + e.getMessage());
+				}
+			}
+		});
+		swapper.setDaemon(true);
+		swapper.start();
+		try {
+			report("SwappableFilter", f, samples);
+		}
+		finally {
+			swapper.interrupt();
+		}
+	}
+	
+	/**
+	 * Applies f to white noise twice, the first time to warm it up, and prints how many bytes
+	 * were allocated per sample the second time.
+	 */
+	private static void report(String name, TrustedFilter f, int samples)
+			throws FilterException {
+		com.sun.management.ThreadMXBean bean =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		
+		double[] noise = new double[samples];
+		Random random = new Random(42);
+		for (int i = 0; i < samples; i++) {
+			noise[i] = random.nextDouble() * 2 - 1;
+		}
+		double[] input = new double[f.nbInputs()], output = new double[f.nbOutputs()];
+		
+		long allocated = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			long before = bean.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < samples; i++) {
+				for (int j = 0; j < input.length; j++) {
+					input[j] = noise[i];
+				}
+				f.computeOneStep(input, output);
+			}
+			allocated = bean.getThreadAllocatedBytes(thread) - before;
+		} // Only the second pass counts: input queues may grow while warming up.
+		
+		if (allocated > 0) failures++;
+		System.out.println(String.format("%-18s %21.3f", name, (double) allocated / samples));
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Applies a filter to several WAV files, and keeps the filtered files in the render-cache/
+ * directory (see RenderCache), so that filtering the same files with the same filter again only
+ * copies them.
+ *
+ * Usage: java -cp bin/:audio.jar BatchRender filter destination source.wav...
+ * where filter is echo, reverb, jcrev or a filter graph file (see FilterGraph), and destination
+ * is the directory the filtered files are written to, with the names of their sources.
+ * The outputs of the files that are filtered are measured while they are computed (see Meter),
+ * and their peak, RMS level, clipped samples and loudness are printed. Files copied from the
+ * cache get the readings stored along with them. Filters that cannot be described (see
+ * CompositeFilter.describe), e.g. graphs with fdn blocks, are applied without the cache.
+ */
+
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.graph.FilterGraph;
+import be.uliege.lemal.oop.filters.metering.Meter;
+import be.uliege.lemal.oop.filters.render.RenderCache;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+public class BatchRender {
+	private static final long CACHE_SIZE = 1L << 30;  // 1 GiB of filtered files at most.
+	
+	public static void main(String[] args) {
+		try {
+			if (args.length < 3) {
+				throw new IOException("Please provide a filter, a destination directory and " +
+						"source files as command line arguments.");
+			}
+			File destination = new File(args[1]);
+			if (!destination.isDirectory() && !destination.mkdirs()) {
+				throw new IOException("Could not create directory " + destination + ".");
+			}
+			
+			RenderCache cache = new RenderCache(new File("render-cache"), CACHE_SIZE);
+			for (int i = 2; i < args.length; i++) {
+				File source = new File(args[i]);
+				CompositeFilter f = filter(args[0]);
+				Meter[] meters = new Meter[f.nbOutputs()];
+				for (int o = 0; o < meters.length; o++) {
+					meters[o] = new Meter(sampleRate(source));
+					f.meterOutput(o, meters[o]);
+				}
+				long start = System.nanoTime();
+				boolean hit = cache.render(f, source, new File(destination, source.getName()));
+				System.out.println(String.format("%-40s %s in %.1f ms", source.getName(),
+						hit ? "copied" : "filtered", (System.nanoTime() - start) / 1e6));
+				for (Meter meter : meters) {
+					System.out.println("    " + meter);
+				} // Copied files were measured when they were filtered.
+			} // Each file is filtered by a new filter, with empty delay lines.
+			System.out.println(String.format("%d file(s) copied from the cache, %d filtered.",
+					cache.getHits(), cache.getMisses()));
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns a new filter named name.
+	 */
+	private static CompositeFilter filter(String name) throws FilterException, IOException {
+		if ("echo".equalsIgnoreCase(name)) return new EchoFilter(22050, 0.6);
+		if ("reverb".equalsIgnoreCase(name)) return new Reverb();
+		if ("jcrev".equalsIgnoreCase(name)) return new JCRev();
+		return FilterGraph.read(new File(name)).create();
+	}
+	
+	/**
+	 * Returns the sample rate of source, in Hz.
+	 */
+	private static int sampleRate(File source) throws IOException {
+		try {
+			return Math.round(AudioSystem.getAudioFileFormat(source).getFormat().getSampleRate());
+		}
+		catch (UnsupportedAudioFileException e) {
+			throw new IOException(source + " is not a supported audio file.");
+		}
+	}
+}
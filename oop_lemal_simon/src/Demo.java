@@ -7,11 +7,15 @@
  */
 
 import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.FDNReverb;
 import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
 import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.graph.FilterGraph;
+import be.uliege.lemal.oop.filters.graph.GraphCache;
 import be.uliege.montefiore.oop.audio.Filter;
 import be.uliege.montefiore.oop.audio.TestAudioFilter;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -27,8 +31,17 @@ public class Demo {
 				args = Arrays.copyOfRange(args, 1, args.length);
 				myFilter = new JCRev();
 			}
+			else if (args.length > 0 && "fdn".equalsIgnoreCase(args[0])) {
+				args = Arrays.copyOfRange(args, 1, args.length);
+				myFilter = new FDNReverb();
+			}
+			else if (args.length > 1 && "graph".equalsIgnoreCase(args[0])) {
+				FilterGraph graph = FilterGraph.read(new File(args[1]));
+				args = Arrays.copyOfRange(args, 2, args.length);
+				myFilter = new GraphCache(new File("graph-cache")).load(graph);
+			} // The filter described by a file (see FilterGraph), compiled once for all runs.
 			else myFilter = new EchoFilter(22050, 0.6);
-			// Chooses between echo, reverb and jcrev mode.
+			// Chooses between echo, reverb, jcrev, fdn and graph mode.
 			
 			if (args.length == 0) {
 				throw new IOException("Please provide a source file and a destination (optional) as command line arguments.");
@@ -0,0 +1,176 @@
+/*
+ * Renders a batch of jobs (noise filtered by the reverberator, the JC reverberator and the echo
+ * filter) on several worker processes (see RenderCoordinator and RenderWorker), and prints what
+ * each worker did.
+ *
+ * Usage: java -cp bin/:audio.jar DistributedRender worker [port [address]]
+ *            runs a worker, on the given port or on any free port, listening on the interface
+ *            of the given address (e.g. 0.0.0.0 for all of them) or on the loopback interface;
+ *        java -cp bin/:audio.jar DistributedRender host:port...
+ *            renders the batch on the given workers;
+ *        java -cp bin/:audio.jar DistributedRender local [workers] [kill]
+ *            starts workers (2 by default) as new processes on this machine and renders the
+ *            batch on them, over the loopback interface. With kill, the first worker is killed
+ *            while the batch is rendered, and its jobs are retried on the others.
+ * In both last cases, the outputs are compared to the ones of filters applied in this process.
+ */
+
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.distributed.RenderCoordinator;
+import be.uliege.lemal.oop.filters.distributed.RenderJob;
+import be.uliege.lemal.oop.filters.distributed.RenderWorker;
+import be.uliege.lemal.oop.filters.harness.Signals;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Vector;
+
+public class DistributedRender {
+	private static final int JOBS = 8;  // Jobs per filter.
+	private static final int LENGTH = 5 * Signals.SAMPLE_RATE, TAIL = Signals.SAMPLE_RATE;
+	
+	public static void main(String[] args) {
+		try {
+			if (args.length > 0 && "worker".equalsIgnoreCase(args[0])) {
+				int port = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+				RenderWorker worker = args.length > 2
+						? new RenderWorker(InetAddress.getByName(args[2]), port)
+						: new RenderWorker(port);
+				System.out.println("Render worker listening on port " + worker.getPort());
+				worker.serve();
+				return;
+			}
+			
+			Vector<Process> processes = new Vector<Process>();
+			Vector<InetSocketAddress> nodes = new Vector<InetSocketAddress>();
+			boolean kill = false;
+			try {
+				if (args.length == 0 || "local".equalsIgnoreCase(args[0])) {
+					int workers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+					kill = args.length > 2 && "kill".equalsIgnoreCase(args[2]);
+					for (int w = 0; w < workers; w++) {
+						Process process = start();
+						processes.add(process);
+						nodes.add(new InetSocketAddress("127.0.0.1", port(process)));
+					}
+				}
+				else {
+					for (String arg : args) {
+						int colon = arg.lastIndexOf(':');
+						if (colon < 0) {
+							throw new IOException("Expected host:port, got " + arg + ".");
+						}
+						nodes.add(new InetSocketAddress(arg.substring(0, colon),
+								Integer.parseInt(arg.substring(colon + 1))));
+					}
+				}
+				render(nodes, kill ? processes.get(0) : null);
+			}
+			finally {
+				for (Process process : processes) {
+					process.destroy();
+				}
+			}
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Renders the batch on nodes and checks its outputs. If victim is not null, it is killed
+	 * once the batch has started.
+	 */
+	private static void render(Vector<InetSocketAddress> nodes, final Process victim)
+			throws FilterException, IOException {
+		Vector<RenderJob> jobs = new Vector<RenderJob>();
+		for (int k = 0; k < JOBS; k++) {
+			double[][] input = new double[][]{Signals.generate("noise", LENGTH, k)};
+			jobs.add(new RenderJob("reverb-" + k, new Reverb(), input, TAIL));
+			jobs.add(new RenderJob("jcrev-" + k, new JCRev(), input, TAIL));
+			jobs.add(new RenderJob("echo-" + k, new EchoFilter(22050, 0.6), input, TAIL));
+		}
+		
+		if (victim != null) {
+			Thread killer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(500);
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					victim.destroy();
+					System.out.println("Killed the first worker.");
+				}
+			});
+			killer.setDaemon(true);
+			killer.start();
+		}
+		
+		long start = System.nanoTime();
+		Vector<RenderCoordinator.NodeReport> reports = new RenderCoordinator(nodes).render(jobs);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long samples = 0;
+		for (RenderCoordinator.NodeReport report : reports) {
+			System.out.println(report);
+		}
+		for (RenderJob job : jobs) {
+			samples += job.length();
+		}
+		System.out.println(String.format("%d job(s) rendered in %.2f s: %.2f Msamples/s in total.",
+				jobs.size(), seconds, samples / seconds / 1e6));
+		
+		int different = 0;
+		for (int k = 0; k < jobs.size(); k += 5) {
+			RenderJob job = jobs.get(k);
+			CompositeFilter f = job.getName().startsWith("reverb") ? new Reverb() :
+					job.getName().startsWith("jcrev") ? new JCRev() : new EchoFilter(22050, 0.6);
+			double[] input = Signals.generate("noise", LENGTH, k / 3);
+			double[] in = new double[1], out = new double[1];
+			for (int j = 0; j < LENGTH + TAIL; j++) {
+				in[0] = j < LENGTH ? input[j] : 0;
+				f.computeOneStep(in, out);
+				if (Math.abs(out[0] - job.getOutput()[0][j]) > 1e-9) {
+					different++;
+					System.out.println(job.getName() + " differs from the local output at sample "
+							+ j + ".");
+					break;
+				}
+			}
+		} // A few jobs are checked: remote filters are built from descriptions of local ones.
+		System.out.println(different == 0 ? "Checked outputs are equal to local ones." :
+				different + " output(s) differ.");
+	}
+	
+	/**
+	 * Starts a worker in a new process, with the class path of this one.
+	 */
+	private static Process start() throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator +
+				"java";
+		return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				"DistributedRender", "worker").redirectErrorStream(true).start();
+	}
+	
+	/**
+	 * Returns the port the worker run by process listens on, which it prints first.
+	 */
+	private static int port(Process process) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				process.getInputStream()));
+		String line = reader.readLine();
+		if (line == null || !line.startsWith("Render worker listening on port ")) {
+			throw new IOException("Render worker did not start: " + line);
+		}
+		return Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Checks that the optimised ways of applying filters give the same output as the reference
+ * (composite filters applied block by block, as built), and compares their throughputs.
+ *
+ * Every filter of the library and a set of random composite filters are applied to an impulse,
+ * white noise and a sine sweep, which are generated here, so no audio file is needed.
+ *
+ * Usage: java -cp bin/:audio.jar EquivalenceCheck [samples] [graphs]
+ * where samples is the length of the signals (44100 by default) and graphs the number of random
+ * filters (20 by default). The exit code is the number of failed comparisons.
+ *
+ * It also checks that the files graphs/reverb.graph and graphs/jcrev.graph describe the same
+ * filters as the classes Reverb and JCRev, and that every filter built from the description
+ * of a filter (see CompositeFilter.describe) is the same filter. It must thus be run from the
+ * directory that contains graphs/.
+ */
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.compositeFilters.AllPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CombFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
+import be.uliege.lemal.oop.filters.compositeFilters.LowPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.graph.FilterGraph;
+import be.uliege.lemal.oop.filters.harness.Engine;
+import be.uliege.lemal.oop.filters.harness.Harness;
+import be.uliege.lemal.oop.filters.harness.RandomGraphs;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.io.File;
+import java.io.IOException;
+
+public class EquivalenceCheck {
+	public static void main(String[] args) {
+		int failures = 1;
+		try {
+			int samples = args.length > 0 ? Integer.parseInt(args[0]) : 44100;
+			int graphs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+			Harness harness = new Harness(0, samples, System.out);
+			
+			harness.addEngine(new Engine() {
+				public String name() {
+					return "optimised";
+				}
+				
+				public Filter prepare(Filter f) throws FilterException {
+					if (f instanceof CompositeFilter) {
+						CompositeFilter c = (CompositeFilter) f;
+						c.check(true);
+						c.shareDelays();
+						c.packDelays();
+					}
+					return f;
+				}
+			}); // Pruned and folded, with shared delay lines packed in one arena.
+			harness.addEngine(new Engine() {
+				public String name() {
+					return "compiled";
+				}
+				
+				public Filter prepare(Filter f) throws FilterException {
+					return f instanceof CompositeFilter ? ((CompositeFilter) f).compile() : f;
+				}
+			}, 1e-9); // State-space form. Sums are reordered, so outputs differ by rounding errors.
+			
+			harness.compare("EchoFilter", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new EchoFilter(22050, 0.6);
+				}
+			});
+			harness.compare("CombFilter", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new CombFilter(4410, 0.4);
+				}
+			});
+			harness.compare("AllPassFilter", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new AllPassFilter(353, 0.3);
+				}
+			});
+			harness.compare("AllPassFilter (nested)", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new AllPassFilter(3837, 0.5, new AllPassFilter(2734, 0.25));
+				}
+			});
+			harness.compare("LowPassFilter", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new LowPassFilter(88, 0.7133);
+				}
+			});
+			harness.compare("Reverb", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new Reverb();
+				}
+			});
+			harness.compare("JCRev", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new JCRev();
+				}
+			});
+			
+			for (int i = 0; i < graphs; i++) {
+				harness.compare("Random graph " + i, new RandomGraphs(i, 4 + i % 12, 2));
+			}
+			
+			harness.compare("reverb.graph", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new Reverb();
+				}
+			}, read("graphs/reverb.graph"));
+			harness.compare("jcrev.graph", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new JCRev();
+				}
+			}, read("graphs/jcrev.graph"));
+			
+			FilterFactory[] described = {new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new AllPassFilter(3837, 0.5, new AllPassFilter(2734, 0.25));
+				}
+			}, new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new LowPassFilter(88, 0.7133);
+				}
+			}, new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new Reverb();
+				}
+			}, new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new JCRev();
+				}
+			}, new RandomGraphs(graphs, 12, 2)};
+			for (int i = 0; i < described.length; i++) {
+				CompositeFilter f = (CompositeFilter) described[i].create();
+				FilterGraph graph = new FilterGraph(f.describe());
+				harness.compare("Description " + i, described[i], graph);
+				if (!graph.create().describe().equals(f.describe())) {
+					harness.fail("Description " + i, "is not described again the same way");
+				}
+			} // Describing the filter built from a description gives the same description.
+			
+			failures = harness.failures();
+			System.out.println(failures == 0 ? "All outputs are equal." : failures + " comparison(s)" +
+					" failed.");
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+		System.exit(failures);
+	}
+	
+	/**
+	 * Returns the filter graph described in file.
+	 */
+	private static FilterGraph read(String file) throws FilterException {
+		try {
+			return FilterGraph.read(new File(file));
+		}
+		catch (IOException e) {
+			throw new FilterException("Could not read " + file + ": " + e.getMessage());
+		}
+	}
+}
@@ -83,6 +83,10 @@ public class ExceptionsHandlingExample {
 			
 			// audioFilter.connectBlockToOutput(dummy, 0, 0);
 			
+			// Uncomment this to remove the useless blocks (and their delay lines) instead of
+			// printing warnings.
+			// System.out.println(audioFilter.check(true));
+			
 			// Applies the filter
 			TestAudioFilter.applyFilter(audioFilter, "Debussy_Pagodes_1m.wav", "Filtered.wav");
 		}
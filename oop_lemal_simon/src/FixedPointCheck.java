@@ -0,0 +1,149 @@
+/*
+ * Compares the fixed-point forms of the linear filters of this library (see FixedPointFilter) to
+ * their compiled double form (see StateSpaceFilter).
+ *
+ * Signals are generated at -12 dBFS and quantised to 16-bit PCM, as if decoded from a WAV file.
+ * The double form is applied to these very samples. For each filter and signal, the error of the
+ * Q31 and Q15 forms is printed as a signal-to-error ratio (relative to the double output), with
+ * their largest error in 16-bit steps and the number of saturated values. The ratio of the double
+ * output merely rounded to 16 bits is printed too: no 16-bit output can do better. Then the cost
+ * per sample and the memory of the delay lines of each form are printed.
+ * Signals are generated here, no audio file is needed.
+ *
+ * Usage: java -cp bin/:audio.jar FixedPointCheck [seconds]
+ * where seconds is the length of the signals (10 by default).
+ */
+
+import be.uliege.lemal.oop.filters.compositeFilters.AllPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CombFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.FixedPointFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.compositeFilters.StateSpaceFilter;
+import be.uliege.lemal.oop.filters.harness.Signals;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+public class FixedPointCheck {
+	private static final double LEVEL = 0.25;  // -12 dBFS.
+	private static final int BLOCK = 1024;  // Frames per call to FixedPointFilter.process.
+	
+	public static void main(String[] args) {
+		try {
+			int length = (args.length > 0 ? Integer.parseInt(args[0]) : 10) * Signals.SAMPLE_RATE;
+			CompositeFilter[] filters = new CompositeFilter[]{new EchoFilter(22050, 0.6),
+					new CombFilter(4410, 0.4), new AllPassFilter(353, 0.3), new Reverb(),
+					new JCRev()};
+			String[] names = new String[]{"EchoFilter", "CombFilter", "AllPassFilter", "Reverb",
+					"JCRev"};
+			
+			System.out.println("Filter         Signal   Q31 (dB)  Q15 (dB)  16-bit (dB)  " +
+					"Max Q31/Q15 (steps)  Saturations");
+			for (int k = 0; k < filters.length; k++) {
+				for (String kind : Signals.KINDS) {
+					error(names[k], kind, filters[k], length);
+				}
+			}
+			
+			System.out.println();
+			System.out.println("Filter         Double (ns/sample)  Q31 (ns/sample)  " +
+					"Q15 (ns/sample)  State double/Q31/Q15 (kB)");
+			for (int k = 0; k < filters.length; k++) {
+				cost(names[k], filters[k], length);
+			}
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Prints the error of the fixed-point forms of f on a signal of the given kind.
+	 */
+	private static void error(String name, String kind, CompositeFilter f, int length)
+			throws FilterException {
+		short[] pcm = pcm(kind, length);
+		StateSpaceFilter reference = f.compile();
+		double[] in = new double[1], out = new double[1], expected = new double[length];
+		for (int j = 0; j < length; j++) {
+			in[0] = pcm[j] / 32768.0;
+			reference.computeOneStepTrusted(in, out);
+			expected[j] = out[0] * 32768;
+		} // The double output, in 16-bit steps.
+		
+		FixedPointFilter q31 = f.compileFixedPoint(31), q15 = f.compileFixedPoint(15);
+		short[] out31 = new short[length], out15 = new short[length];
+		q31.process(pcm, 0, out31, 0, length);
+		q15.process(pcm, 0, out15, 0, length);
+		
+		double power = 0, error31 = 0, error15 = 0, rounding = 0, max31 = 0, max15 = 0;
+		for (int j = 0; j < length; j++) {
+			double e31 = out31[j] - expected[j], e15 = out15[j] - expected[j];
+			double r = Math.max(-32768, Math.min(32767, Math.round(expected[j]))) - expected[j];
+			power += expected[j] * expected[j];
+			error31 += e31 * e31;
+			error15 += e15 * e15;
+			rounding += r * r;
+			max31 = Math.max(max31, Math.abs(e31));
+			max15 = Math.max(max15, Math.abs(e15));
+		}
+		System.out.println(String.format("%-14s %-7s %9.1f %9.1f %12.1f %10.1f / %-8.1f %6d / %d",
+				name, kind, ratio(power, error31), ratio(power, error15), ratio(power, rounding),
+				max31, max15, q31.getSaturations(), q15.getSaturations()));
+	}
+	
+	/**
+	 * Prints the cost per sample of each form of f on noise, and the memory of its delay lines.
+	 */
+	private static void cost(String name, CompositeFilter f, int length) throws FilterException {
+		short[] pcm = pcm("noise", length), output = new short[BLOCK];
+		StateSpaceFilter reference = f.compile();
+		FixedPointFilter q31 = f.compileFixedPoint(31), q15 = f.compileFixedPoint(15);
+		double[] nanos = new double[3];
+		double[] in = new double[1], out = new double[1];
+		
+		for (int pass = 0; pass < 2; pass++) {
+			long start = System.nanoTime();
+			for (int j = 0; j < length; j++) {
+				in[0] = pcm[j] / 32768.0;
+				reference.computeOneStepTrusted(in, out);
+				output[j % BLOCK] = (short) Math.max(-32768, Math.min(32767,
+						Math.round(out[0] * 32768)));
+			} // Decoding and encoding are part of the double path.
+			nanos[0] = (double) (System.nanoTime() - start) / length;
+			
+			FixedPointFilter[] forms = new FixedPointFilter[]{q31, q15};
+			for (int k = 0; k < forms.length; k++) {
+				start = System.nanoTime();
+				for (int j = 0; j + BLOCK <= length; j += BLOCK) {
+					forms[k].process(pcm, j, output, 0, BLOCK);
+				}
+				nanos[k + 1] = (double) (System.nanoTime() - start) / (length / BLOCK * BLOCK);
+			}
+		} // Only the second pass counts: the first one warms the JIT compiler up.
+		
+		System.out.println(String.format("%-14s %18.1f %16.1f %16.1f  %8.1f / %.1f / %.1f", name,
+				nanos[0], nanos[1], nanos[2], reference.stateSize() * 8 / 1024.0,
+				q31.stateBytes() / 1024.0, q15.stateBytes() / 1024.0));
+	}
+	
+	/**
+	 * Returns a signal of the given kind at LEVEL, as 16-bit PCM.
+	 */
+	private static short[] pcm(String kind, int length) throws FilterException {
+		double[] signal = Signals.generate(kind, length, 42);
+		short[] pcm = new short[length];
+		for (int j = 0; j < length; j++) {
+			pcm[j] = (short) Math.round(signal[j] * LEVEL * 32767);
+		}
+		return pcm;
+	}
+	
+	/**
+	 * Returns the ratio of power to error, in decibels.
+	 */
+	private static double ratio(double power, double error) {
+		return 10 * Math.log10(power / error);
+	}
+}
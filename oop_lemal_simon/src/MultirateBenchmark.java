@@ -0,0 +1,102 @@
+/*
+ * Compares a low-frequency stage applied at the full sample rate and at a fraction of it (see
+ * MultirateFilter).
+ *
+ * The stage is four parallel comb filters with long delays, averaged, as in the JC reverberator.
+ * At 1 / factor of the rate, its delays are shorter by factor, and it is applied factor times
+ * less often, but resamplers are added before and after it. For each factor, the cost per sample,
+ * the size of the state and the error on a low-frequency signal (sines below 400 Hz, relative
+ * to the output at the full rate, delayed by the latency of the resamplers) are printed.
+ * Signals are generated here, no audio file is needed.
+ *
+ * Usage: java -cp bin/:audio.jar MultirateBenchmark [seconds]
+ * where seconds is the length of the signals (10 by default).
+ */
+
+import be.uliege.lemal.oop.filters.TrustedFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CombFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.MultirateFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MeanFilter;
+import be.uliege.lemal.oop.filters.harness.Signals;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+public class MultirateBenchmark {
+	private static final int[] DELAYS = {4800, 5280, 5760, 6240};  // At the full rate.
+	private static final double DECAY = 0.8;
+	private static final int[] FACTORS = {1, 2, 4, 8};
+	
+	public static void main(String[] args) {
+		try {
+			int length = (args.length > 0 ? Integer.parseInt(args[0]) : 10) * Signals.SAMPLE_RATE;
+			double[] noise = Signals.generate("noise", length, 42), low = new double[length];
+			for (int j = 0; j < length; j++) {
+				double t = (double) j / Signals.SAMPLE_RATE;
+				low[j] = (Math.sin(2 * Math.PI * 55 * t) + Math.sin(2 * Math.PI * 130 * t)
+						+ Math.sin(2 * Math.PI * 370 * t)) / 3;
+			}
+			double[] reference = apply(stage(1), low);
+			
+			System.out.println("Rate      Cost (ns/sample)  State (samples)  Latency  " +
+					"Error (dB)");
+			for (int factor : FACTORS) {
+				TrustedFilter f = factor == 1 ? stage(1) : new MultirateFilter(stage(factor), 1,
+						factor);
+				apply(f, noise);  // Warm-up.
+				f.reset();
+				long start = System.nanoTime();
+				apply(f, noise);
+				double cost = (double) (System.nanoTime() - start) / length;
+				
+				f.reset();
+				double[] output = apply(f, low);
+				int latency = factor == 1 ? 0 : (int) Math.round(((MultirateFilter) f).latency());
+				double error = 0, power = 0;
+				for (int j = length / 2; j < length; j++) {
+					double e = output[j] - reference[j - latency];
+					error += e * e;
+					power += reference[j - latency] * reference[j - latency];
+				} // Measured once the combs have filled up.
+				long state = factor == 1 ? ((CompositeFilter) f).stateSize()
+						: ((MultirateFilter) f).stateSize();
+				System.out.println(String.format("1/%-7d %16.1f  %15d  %7d  %10s", factor, cost,
+						state, latency, factor == 1 ? "-" :
+						String.format("%.1f", 10 * Math.log10(error / power))));
+			}
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns the stage, with delays divided by factor.
+	 */
+	private static CompositeFilter stage(int factor) throws FilterException {
+		CompositeFilter stage = new CompositeFilter();
+		MeanFilter mean = new MeanFilter(DELAYS.length);
+		stage.addBlock(mean);
+		for (int k = 0; k < DELAYS.length; k++) {
+			CombFilter comb = new CombFilter(DELAYS[k] / factor, DECAY);
+			stage.addBlock(comb);
+			stage.connectInputToBlock(0, comb, 0);
+			stage.connectBlockToBlock(comb, 0, mean, k);
+		}
+		stage.connectBlockToOutput(mean, 0, 0);
+		stage.check(false);
+		return stage;
+	}
+	
+	/**
+	 * Applies f to signal.
+	 */
+	private static double[] apply(TrustedFilter f, double[] signal) throws FilterException {
+		double[] output = new double[signal.length], in = new double[1], out = new double[1];
+		for (int j = 0; j < signal.length; j++) {
+			in[0] = signal[j];
+			f.computeOneStepTrusted(in, out);
+			output[j] = out[0];
+		}
+		return output;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Applies grids of echo, comb, all-pass and reverberator parameters to a WAV file, in parallel
+ * (see SweepRenderer). The file is decoded once, and all variants read the same copy of it.
+ *
+ * Usage: java -cp bin/:audio.jar ParameterSweep source.wav destination [mapped]
+ * where destination is the directory the variants are written to, named after their parameters
+ * (e.g. echo-22050-0.6.wav), and mapped keeps the decoded source in a memory-mapped file rather
+ * than on the heap.
+ */
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.compositeFilters.AllPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CombFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.render.SweepRenderer;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+public class ParameterSweep {
+	private static final int[] ECHO_DELAYS = {4410, 11025, 22050}, COMB_DELAYS = {1116, 1422, 1617},
+			ALL_PASS_DELAYS = {225, 556, 1051};
+	private static final double[] DECAYS = {0.3, 0.5, 0.7}, FEEDBACKS = {0.05, 0.1, 0.2};
+	private static final int TAIL = 44100;  // One second of silence after the source.
+	
+	public static void main(String[] args) {
+		try {
+			if (args.length < 2) {
+				throw new IOException("Please provide a source file and a destination directory " +
+						"as command line arguments.");
+			}
+			File destination = new File(args[1]);
+			if (!destination.isDirectory() && !destination.mkdirs()) {
+				throw new IOException("Could not create directory " + destination + ".");
+			}
+			
+			long start = System.nanoTime();
+			SweepRenderer renderer = new SweepRenderer(new File(args[0]),
+					args.length > 2 && "mapped".equalsIgnoreCase(args[2]));
+			System.out.println(String.format("Decoded %d frame(s) of %d channel(s) in %.1f ms.",
+					renderer.length(), renderer.nbChannels(), (System.nanoTime() - start) / 1e6));
+			
+			HashMap<File, FilterFactory> variants = new HashMap<File, FilterFactory>();
+			for (final int delay : ECHO_DELAYS) {
+				for (final double decay : DECAYS) {
+					variants.put(new File(destination, "echo-" + delay + "-" + decay + ".wav"),
+							new FilterFactory() {
+								public Filter create() throws FilterException {
+									return new EchoFilter(delay, decay);
+								}
+							});
+				}
+			}
+			for (final int delay : COMB_DELAYS) {
+				for (final double decay : DECAYS) {
+					variants.put(new File(destination, "comb-" + delay + "-" + decay + ".wav"),
+							new FilterFactory() {
+								public Filter create() throws FilterException {
+									return new CombFilter(delay, decay);
+								}
+							});
+				}
+			}
+			for (final int delay : ALL_PASS_DELAYS) {
+				for (final double gain : DECAYS) {
+					variants.put(new File(destination, "allpass-" + delay + "-" + gain + ".wav"),
+							new FilterFactory() {
+								public Filter create() throws FilterException {
+									return new AllPassFilter(delay, gain);
+								}
+							});
+				}
+			}
+			for (final double feedback : FEEDBACKS) {
+				variants.put(new File(destination, "reverb-" + feedback + ".wav"),
+						new FilterFactory() {
+							public Filter create() throws FilterException {
+								Reverb reverb = new Reverb();
+								reverb.setTapGain(3, feedback);
+								return reverb;
+							}
+						});
+			} // The renderer resets filters, so that the feedback gain starts at its value.
+			
+			start = System.nanoTime();
+			renderer.render(variants, TAIL, Runtime.getRuntime().availableProcessors());
+			System.out.println(String.format("Rendered %d variant(s) in %.1f ms.", variants.size(),
+					(System.nanoTime() - start) / 1e6));
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Checks whether the reverberators can run live, without an audio device (see the
+ * RealTimeSimulator class).
+ *
+ * Each reverberator is applied, in real time, at 44.1, 48 and 96 kHz with buffers of 64, 256 and
+ * 1024 samples. For each configuration, the compute time of the callbacks (median, 99th and
+ * 99.9th percentiles, worst), their jitter, the deadlines they missed and the callbacks the
+ * garbage collector interrupted are printed, followed by the number of instances one core could
+ * run. That number is then checked by running as many instances at 48 kHz with buffers of 256
+ * samples.
+ *
+ * Usage: java -cp bin/:audio.jar RealTimeCheck [seconds]
+ * where seconds is the length of each simulation (2 by default).
+ */
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.harness.RealTimeSimulator;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+public class RealTimeCheck {
+	private static final int[] RATES = new int[]{44100, 48000, 96000};
+	private static final int[] BUFFERS = new int[]{64, 256, 1024};
+	
+	public static void main(String[] args) {
+		try {
+			double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+			
+			check("Reverb", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new Reverb();
+				}
+			}, seconds);
+			check("JCRev", new FilterFactory() {
+				public Filter create() throws FilterException {
+					return new JCRev();
+				}
+			}, seconds);
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Simulates every configuration for one instance of the filter, then checks the number of
+	 * instances one core could run at 48 kHz with buffers of 256 samples.
+	 */
+	private static void check(String name, FilterFactory factory, double seconds)
+			throws FilterException {
+		System.out.println(name);
+		for (int rate : RATES) {
+			for (int buffer : BUFFERS) {
+				RealTimeSimulator.Report report = new RealTimeSimulator(factory, rate, buffer)
+						.run(1, seconds);
+				System.out.println(String.format("  %5d Hz %4d samples  %s  (%d per core)", rate,
+						buffer, report, report.sustainable()));
+			}
+		}
+		
+		RealTimeSimulator simulator = new RealTimeSimulator(factory, 48000, 256);
+		int instances = Math.max(1, simulator.run(1, seconds).sustainable() * 8 / 10);
+		// 80% of the estimate, so that the check leaves some margin.
+		System.out.println(String.format("  48000 Hz  256 samples  %s", simulator.run(instances,
+				seconds)));
+		System.out.println();
+	}
+}
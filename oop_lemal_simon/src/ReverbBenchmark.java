@@ -0,0 +1,108 @@
+/*
+ * Compares the cost per sample and the memory of the reverberators of this library.
+ *
+ * The decay time of Reverb and JCRev is measured on their impulse responses, then an FDN
+ * reverberator with the same decay time is built, so that they are compared at comparable
+ * decay times. Then, the queues between the blocks of Reverb and JCRev are reported (see
+ * CompositeFilter.edgeReport), as they take memory besides the delay lines.
+ * Signals are generated here, no audio file is needed.
+ *
+ * Usage: java -cp bin/:audio.jar ReverbBenchmark [seconds]
+ * where seconds is the length of the noise each reverberator is applied to (10 by default).
+ */
+
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.FDNReverb;
+import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.util.Random;
+
+public class ReverbBenchmark {
+	private static final int RATE = FDNReverb.SAMPLE_RATE;
+	
+	public static void main(String[] args) {
+		try {
+			double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 10;
+			
+			Reverb reverb = new Reverb();
+			JCRev jcrev = new JCRev();
+			double reverbTime = decayTime(reverb), jcrevTime = decayTime(jcrev);
+			FDNReverb fdn = new FDNReverb(8, reverbTime, 0.2);
+			FDNReverb fdn16 = new FDNReverb(16, reverbTime, 0.2);
+			
+			System.out.println("Filter       Decay (s)  Cost (ns/sample)  State (kB)");
+			report("Reverb", reverb, reverbTime, reverb.stateSize(), seconds);
+			report("JCRev", jcrev, jcrevTime, jcrev.stateSize(), seconds);
+			report("FDN (8)", fdn, decayTime(fdn), fdn.stateSize(), seconds);
+			report("FDN (16)", fdn16, decayTime(fdn16), fdn16.stateSize(), seconds);
+			
+			System.out.println();
+			queues("Reverb", reverb);
+			queues("JCRev", jcrev);
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns the time it takes for the impulse response of f to fall 60 dB below its peak
+	 * (at most 20 seconds). f is reset afterwards.
+	 */
+	private static double decayTime(Filter f) throws FilterException {
+		double peak = 0;
+		int last = 0;
+		double[] input = new double[]{1};
+		for (int i = 0; i < 20 * RATE; i++) {
+			double y = Math.abs(f.computeOneStep(input)[0]);
+			input[0] = 0;
+			peak = Math.max(peak, y);
+			if (y > peak * 1e-3) last = i;
+		}
+		f.reset();
+		return (double) last / RATE;
+	}
+	
+	/**
+	 * Applies f to white noise and prints its decay time, cost per sample and memory.
+	 */
+	private static void report(String name, Filter f, double decay, long state, double seconds)
+			throws FilterException {
+		Random random = new Random(42);
+		int length = (int) (seconds * RATE);
+		double[] input = new double[1];
+		
+		for (int i = 0; i < RATE; i++) {
+			input[0] = random.nextDouble() * 2 - 1;
+			f.computeOneStep(input);
+		} // Warm-up, so that the JIT compiler does its job before we measure.
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < length; i++) {
+			input[0] = random.nextDouble() * 2 - 1;
+			f.computeOneStep(input);
+		}
+		long elapsed = System.nanoTime() - start;
+		f.reset();
+		
+		System.out.println(String.format("%-12s %9.2f  %16.1f  %10.1f", name, decay,
+				(double) elapsed / length, state * 8 / 1024.0));
+	}
+	
+	/**
+	 * Applies f to one second of white noise and prints the state of its queues.
+	 */
+	private static void queues(String name, CompositeFilter f) throws FilterException {
+		Random random = new Random(42);
+		double[] input = new double[1];
+		for (int i = 0; i < RATE; i++) {
+			input[0] = random.nextDouble() * 2 - 1;
+			f.computeOneStep(input);
+		}
+		System.out.println(name + ": " + f.edgeReport());
+		f.reset();
+	}
+}
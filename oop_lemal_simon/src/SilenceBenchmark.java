@@ -0,0 +1,116 @@
+/*
+ * Measures the cost per sample of the filters of this library while their input is silent.
+ *
+ * Each filter is applied to one second of white noise, then to silence. Their feedback loops
+ * decay towards 0, and would spend most of the silence on subnormal numbers if they were not
+ * flushed (see the Denormals class). The cost of every second of silence is measured: it should
+ * stay steady. A bare recurrence, with and without flushing, shows what subnormal numbers cost on
+ * this processor. Composite filters become idle once their state is silent (see
+ * CompositeFilter.setSilenceThreshold): the cost of an idle filter falls to almost nothing.
+ * Signals are generated here, no audio file is needed.
+ *
+ * Usage: java -cp bin/:audio.jar SilenceBenchmark [seconds]
+ * where seconds is the length of the silence (60 by default).
+ */
+
+import be.uliege.lemal.oop.filters.Denormals;
+import be.uliege.lemal.oop.filters.compositeFilters.AllPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.FDNReverb;
+import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
+import be.uliege.lemal.oop.filters.compositeFilters.LowPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class SilenceBenchmark {
+	private static final int RATE = FDNReverb.SAMPLE_RATE;
+	
+	public static void main(String[] args) {
+		try {
+			int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+			
+			System.out.println("Filter                 Cost (ns/sample): first second  median  " +
+					"worst second");
+			report("Recurrence (raw)", new Recurrence(false), seconds);
+			report("Recurrence (flushed)", new Recurrence(true), seconds);
+			report("EchoFilter", new EchoFilter(4410, 0.6), seconds);
+			report("LowPassFilter", new LowPassFilter(88, 0.7133), seconds);
+			report("AllPassFilter", new AllPassFilter(353, 0.7), seconds);
+			report("Reverb", new Reverb(), seconds);
+			report("Reverb (compiled)", new Reverb().compile(), seconds);
+			Reverb idle = new Reverb();
+			idle.setSilenceThreshold(1e-6);
+			report("Reverb (idle, -120 dB)", idle, seconds);
+			report("JCRev", new JCRev(), seconds);
+			report("FDNReverb", new FDNReverb(), seconds);
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * The Recurrence class. It is the simplest feedback loop: y[n] = x[n] + 0.999 * y[n - 1].
+	 * Its state becomes subnormal after about 16 seconds of silence, unless it is flushed.
+	 */
+	private static class Recurrence implements Filter {
+		private final boolean flush;
+		private double state = 0;
+		
+		private Recurrence(boolean flush) {
+			this.flush = flush;
+		}
+		
+		public int nbInputs() {
+			return 1;
+		}
+		
+		public int nbOutputs() {
+			return 1;
+		}
+		
+		public double[] computeOneStep(double[] input) {
+			state = input[0] + 0.999 * state;
+			if (flush) state = Denormals.flush(state);
+			return new double[]{state};
+		}
+		
+		public void reset() {
+			state = 0;
+		}
+	}
+	
+	/**
+	 * Applies f to one second of white noise, then to silence, and prints the cost per sample of
+	 * the first second of silence, of the median one and of the most expensive one.
+	 */
+	private static void report(String name, Filter f, int seconds) throws FilterException {
+		Random random = new Random(42);
+		double[] input = new double[1];
+		for (int i = 0; i < RATE; i++) {
+			input[0] = random.nextDouble() * 2 - 1;
+			f.computeOneStep(input);
+		} // The noise also warms the JIT compiler up.
+		
+		input[0] = 0;
+		long[] costs = new long[seconds];
+		for (int s = 0; s < seconds; s++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < RATE; i++) {
+				f.computeOneStep(input);
+			}
+			costs[s] = System.nanoTime() - start;
+		} // Cost of each second of silence.
+		
+		long first = seconds > 0 ? costs[0] : 0;
+		Arrays.sort(costs);
+		long median = seconds > 0 ? costs[seconds / 2] : 0;
+		long worst = seconds > 0 ? costs[seconds - 1] : 0;
+		System.out.println(String.format("%-22s %29.1f  %6.1f  %12.1f", name, (double) first / RATE,
+				(double) median / RATE, (double) worst / RATE));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Checks that a FilterProcessor sends every chunk of a stream before completing it.
+ *
+ * For each trial, a publisher sends a few chunks, then completes right away, on its own thread,
+ * while the processor filters them on a pool of threads. The subscriber counts the chunks it
+ * receives once the stream is completed. Its exit code is the number of trials in which chunks
+ * were lost.
+ *
+ * Usage: java -cp bin/:audio.jar StreamingCheck [trials]
+ * where trials is the number of streams (10000 by default).
+ */
+
+import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
+import be.uliege.lemal.oop.filters.stream.Chunk;
+import be.uliege.lemal.oop.filters.stream.ChunkPool;
+import be.uliege.lemal.oop.filters.stream.FilterProcessor;
+import be.uliege.lemal.oop.filters.stream.Flow;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class StreamingCheck {
+	private static final int CHUNKS = 4;
+	private static final int CHUNK = 16;
+	
+	public static void main(String[] args) {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		int failures = 0;
+		try {
+			int trials = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+			for (int t = 0; t < trials; t++) {
+				FilterProcessor processor = new FilterProcessor(new GainFilter(0.5), executor,
+						CHUNK);
+				Counter counter = new Counter();
+				new BurstPublisher().subscribe(processor);
+				processor.subscribe(counter);
+				counter.finished.await();
+				if (counter.received != CHUNKS) {
+					failures++;
+					System.out.println(String.format("Trial %d: %d chunk(s) received out of %d.",
+							t, counter.received, CHUNKS));
+				}
+			}
+			System.out.println(failures == 0 ? "All chunks were received."
+					: String.format("%d trial(s) out of %d lost chunks.", failures, trials));
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			failures++;
+		}
+		finally {
+			executor.shutdown();
+		}
+		System.exit(failures);
+	}
+	
+	/**
+	 * The BurstPublisher class. Once chunks are requested, it sends CHUNKS of them and completes,
+	 * on a thread of its own, without waiting.
+	 */
+	private static class BurstPublisher implements Flow.Publisher<Chunk> {
+		private final ChunkPool pool = new ChunkPool(1, CHUNK);
+		private boolean started = false;
+		
+		public void subscribe(final Flow.Subscriber<? super Chunk> subscriber) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+					synchronized (BurstPublisher.this) {
+						if (started) return;
+						started = true;
+					} // The subscriber requests more than CHUNKS at once.
+					new Thread(new Runnable() {
+						public void run() {
+							for (int k = 0; k < CHUNKS; k++) {
+								Chunk chunk = pool.acquire();
+								chunk.setLength(CHUNK);
+								subscriber.onNext(chunk);
+							}
+							subscriber.onComplete();
+						}
+					}).start();
+				}
+				
+				public void cancel() {
+				}
+			});
+		}
+	}
+	
+	/**
+	 * The Counter class. It requests every chunk and counts those it receives.
+	 */
+	private static class Counter implements Flow.Subscriber<Chunk> {
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private volatile int received = 0;
+		
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+		
+		public void onNext(Chunk chunk) {
+			received++;
+			chunk.release();
+		}
+		
+		public void onError(Throwable throwable) {
+			System.err.println("Error: " + throwable.getMessage());
+			finished.countDown();
+		}
+		
+		public void onComplete() {
+			finished.countDown();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Applies the reverberator to a stream of chunks of white noise (see FilterProcessor), read by a
+ * slow subscriber.
+ *
+ * The subscriber requests one chunk at a time and takes 2 ms to handle each. The demand goes up
+ * to the noise publisher, which only generates requested chunks: the number of chunks generated
+ * but not handled yet stays bounded, and so does the number of chunks the pools allocate.
+ *
+ * Usage: java -cp bin/:audio.jar StreamingExample [chunks]
+ * where chunks is the number of chunks of 1024 samples (200 by default).
+ */
+
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.stream.Chunk;
+import be.uliege.lemal.oop.filters.stream.ChunkPool;
+import be.uliege.lemal.oop.filters.stream.FilterProcessor;
+import be.uliege.lemal.oop.filters.stream.Flow;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class StreamingExample {
+	private static final int CHUNK = 1024;
+	
+	public static void main(String[] args) {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+			NoisePublisher noise = new NoisePublisher(chunks);
+			FilterProcessor reverb = new FilterProcessor(new Reverb(), executor, CHUNK);
+			SlowSubscriber slow = new SlowSubscriber(noise);
+			noise.subscribe(reverb);
+			reverb.subscribe(slow);
+			slow.finished.await();
+			
+			System.out.println(String.format("%d chunks handled, at most %d generated but not " +
+					"handled yet.", slow.handled, slow.ahead));
+			System.out.println(String.format("Chunks allocated: %d for the noise, %d for the " +
+					"reverberator.", noise.pool.allocated(), reverb.getPool().allocated()));
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * The NoisePublisher class. It generates chunks of white noise when they are requested.
+	 */
+	private static class NoisePublisher implements Flow.Publisher<Chunk> {
+		private final ChunkPool pool = new ChunkPool(1, CHUNK);
+		private final Random random = new Random(42);
+		private final int total;
+		private int generated = 0;
+		private long demand = 0;
+		private boolean emitting = false, cancelled = false, completed = false;
+		
+		private NoisePublisher(int total) {
+			this.total = total;
+		}
+		
+		public void subscribe(final Flow.Subscriber<? super Chunk> subscriber) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+					synchronized (NoisePublisher.this) {
+						demand += n;
+						if (emitting) return;
+						emitting = true;
+					} // Requests made while emitting are served by the loop below.
+					emit(subscriber);
+				}
+				
+				public synchronized void cancel() {
+					cancelled = true;
+				}
+			});
+		}
+		
+		private void emit(Flow.Subscriber<? super Chunk> subscriber) {
+			while (true) {
+				synchronized (this) {
+					if (cancelled || completed || demand == 0 && generated < total) {
+						emitting = false;
+						return;
+					}
+					if (generated == total) {
+						emitting = false;
+						completed = true;
+						break;
+					}
+					demand--;
+					generated++;
+				}
+				Chunk chunk = pool.acquire();
+				double[] samples = chunk.getChannel(0);
+				for (int j = 0; j < CHUNK; j++) {
+					samples[j] = random.nextDouble() * 2 - 1;
+				}
+				chunk.setLength(CHUNK);
+				subscriber.onNext(chunk);
+			}
+			subscriber.onComplete();
+		}
+		
+		private synchronized int generated() {
+			return generated;
+		}
+	}
+	
+	/**
+	 * The SlowSubscriber class. It requests chunks one at a time, and takes 2 ms to handle each.
+	 */
+	private static class SlowSubscriber implements Flow.Subscriber<Chunk> {
+		private final NoisePublisher noise;
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private Flow.Subscription subscription;
+		private int handled = 0, ahead = 0;
+		
+		private SlowSubscriber(NoisePublisher noise) {
+			this.noise = noise;
+		}
+		
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+		
+		public void onNext(Chunk chunk) {
+			ahead = Math.max(ahead, noise.generated() - handled);
+			try {
+				Thread.sleep(2);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			handled++;
+			chunk.release();
+			subscription.request(1);
+		}
+		
+		public void onError(Throwable throwable) {
+			System.err.println("Error: " + throwable.getMessage());
+			finished.countDown();
+		}
+		
+		public void onComplete() {
+			finished.countDown();
+		}
+	}
+}
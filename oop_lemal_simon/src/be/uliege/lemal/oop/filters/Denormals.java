@@ -0,0 +1,25 @@
+package be.uliege.lemal.oop.filters;
+
+/**
+ * The Denormals class. Once their input is silent, feedback loops decay geometrically until their
+ * samples become subnormal numbers (smaller than Double.MIN_NORMAL), on which most processors
+ * compute many times slower. Java has no flush-to-zero mode, so feedback loops flush their samples
+ * themselves, well before they become subnormal: multiplying a flushed sample by a gain cannot
+ * produce a subnormal number.
+ */
+public class Denormals {
+	public static final double THRESHOLD = 1e-30;  // About -600 dB, far below any audible level.
+	
+	private Denormals() {
+	} // This class only has static methods.
+	
+	/**
+	 * Returns x, or 0 if x is smaller than THRESHOLD in absolute value.
+	 *
+	 * @param	x		A sample.
+	 * @return	double	The flushed sample.
+	 */
+	public static double flush(double x) {
+		return Math.abs(x) < THRESHOLD ? 0 : x;
+	}
+}
@@ -0,0 +1,18 @@
+package be.uliege.lemal.oop.filters;
+
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The FilterFactory interface. Some tools need several identical filters (e.g. one per engine
+ * or one per thread), so filters are described by a factory rather than given as objects.
+ */
+public interface FilterFactory {
+	/**
+	 * Returns a new filter, identical to the ones previously returned.
+	 *
+	 * @return	Filter			The new filter.
+	 * @throws	FilterException	Thrown if the filter cannot be created.
+	 */
+	Filter create() throws FilterException;
+}
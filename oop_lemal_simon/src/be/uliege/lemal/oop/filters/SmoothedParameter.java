@@ -0,0 +1,99 @@
+package be.uliege.lemal.oop.filters;
+
+/**
+ * The SmoothedParameter class. It holds a numeric parameter of a filter (a gain, a decay, ...)
+ * that can be changed by a control thread while another thread is filtering.
+ * The new value is not applied at once: it is reached by linear interpolation over a ramp of
+ * several samples, so that changing a parameter does not produce an audible click.
+ */
+public class SmoothedParameter {
+	public static final int DEFAULT_RAMP = 441;  // 10 ms at 44.1 kHz.
+	
+	private volatile double target;
+	// The only field shared between threads. Writing a volatile double is atomic, so the
+	// control thread never has to lock anything.
+	private final int ramp;
+	private double current, step, end;
+	private int remaining = 0;
+	// These are only accessed by the thread that filters.
+	
+	/**
+	 * @param	value	The initial value of the parameter.
+	 * @param	ramp	The number of samples over which a change is interpolated.
+	 * 					If nonpositive, changes are applied at once.
+	 */
+	public SmoothedParameter(double value, int ramp) {
+		this.ramp = Math.max(ramp, 1);
+		target = current = value;
+		step = 0;
+	}
+	
+	/**
+	 * Creates a new parameter whose changes are interpolated over DEFAULT_RAMP samples.
+	 *
+	 * @param	value	The initial value of the parameter.
+	 */
+	public SmoothedParameter(double value) {
+		this(value, DEFAULT_RAMP);
+	}
+	
+	/**
+	 * Asks the parameter to move to a new value. This method can be called from any thread.
+	 *
+	 * @param	value	The value the parameter must reach.
+	 */
+	public void set(double value) {
+		target = value;
+	}
+	
+	/**
+	 * Returns target.
+	 *
+	 * @return	double	The value the parameter is moving to (or is equal to).
+	 */
+	public double get() {
+		return target;
+	}
+	
+	/**
+	 * Returns the value of the parameter for the next sample.
+	 * It must only be called by the thread that filters. The target is only read once per ramp,
+	 * so a new value is picked up at the beginning of the next chunk of ramp samples.
+	 *
+	 * @return	double	The current value of the parameter.
+	 */
+	public double next() {
+		if (remaining == 0) {
+			double t = target;
+			if (t == current) return current;  // Nothing to interpolate.
+			
+			end = t;
+			step = (t - current) / ramp;
+			remaining = ramp;
+		}
+		
+		if (--remaining == 0) current = end;
+		// On the last step we land exactly on the value, to avoid accumulating rounding errors.
+		else current += step;
+		return current;
+	}
+	
+	/**
+	 * Returns whether the parameter is neither moving nor about to move. It must only be called by
+	 * the thread that filters.
+	 *
+	 * @return	boolean	True if the parameter is equal to its target.
+	 */
+	public boolean isSteady() {
+		return remaining == 0 && target == current;
+	}
+	
+	/**
+	 * Jumps to the target value at once, without interpolating.
+	 * It must only be called by the thread that filters (e.g. when the filter is reset).
+	 */
+	public void jump() {
+		current = target;
+		remaining = 0;
+	}
+}
@@ -0,0 +1,66 @@
+package be.uliege.lemal.oop.filters;
+
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The TrustedFilter interface. It is implemented by the filters of this library so that composite
+ * filters, once checked, can apply them without validating every single step.
+ */
+public interface TrustedFilter extends Filter {
+	/**
+	 * Applies the filter to input and returns the output, without any validation.
+	 * The caller must guarantee input is not null and its length is nbInputs().
+	 * Composite filters only call this method on blocks of a filter that passed check().
+	 *
+	 * Elementary filters never throw. Composite filters only throw if one of their blocks is not
+	 * a TrustedFilter and throws an exception.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @return	double[]		The output the filter returned.
+	 * @throws	FilterException	Thrown by composite filters (see above).
+	 */
+	double[] computeOneStepTrusted(double[] input) throws FilterException;
+	
+	/**
+	 * Same as computeOneStepTrusted(input), but writes the output in output instead of returning
+	 * a new array. Composite filters apply their blocks this way, with arrays allocated once, so
+	 * that filtering does not allocate anything.
+	 * The caller must also guarantee output is not null, is not input and its length is
+	 * nbOutputs(). By default, this calls computeOneStepTrusted(input) and copies its output.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @param	output			Where the output of the filter is written.
+	 * @throws	FilterException	Thrown by composite filters (see above).
+	 */
+	default void computeOneStepTrusted(double[] input, double[] output) throws FilterException {
+		double[] result = computeOneStepTrusted(input);
+		System.arraycopy(result, 0, output, 0, result.length);
+	}
+	
+	/**
+	 * Same as computeOneStep(input), but writes the output in output instead of returning a new
+	 * array. Calling this at every step with the same arrays filters without allocating anything.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @param	output			Where the output of the filter is written.
+	 * @throws	FilterException	Thrown if input or output is null or if their lengths do not
+	 * 							match the expected numbers of inputs and outputs, or if they are
+	 * 							the same array.
+	 */
+	default void computeOneStep(double[] input, double[] output) throws FilterException {
+		if (input == null || output == null) {
+			throw new FilterException("Provided null input or output array to filter.");
+		}
+		if (input.length != nbInputs() || output.length != nbOutputs()) {
+			throw new FilterException(String.format("Provided %d input(s) and %d output(s) to " +
+					"filter. It expects exactly %d input(s) and %d output(s).", input.length,
+					output.length, nbInputs(), nbOutputs()));
+		}
+		if (input == output) {
+			throw new FilterException("Provided the same array as input and output to filter.");
+		}
+		
+		computeOneStepTrusted(input, output);
+	}
+}
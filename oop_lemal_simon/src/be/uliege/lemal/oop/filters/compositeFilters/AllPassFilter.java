@@ -1,5 +1,6 @@
 package be.uliege.lemal.oop.filters.compositeFilters;
 
+import be.uliege.lemal.oop.filters.SmoothedParameter;
 import be.uliege.lemal.oop.filters.elementaryFilters.AdditionFilter;
 import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
 import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
@@ -11,6 +12,10 @@ import be.uliege.montefiore.oop.audio.FilterException;
  * it changes the phase relationship among various frequencies.
  */
 public class AllPassFilter extends CompositeFilter {
+	protected final GainFilter pos, neg;  // Kept so that the gain can be changed while filtering.
+	private final SmoothedParameter gain;  // Both gains are set from it, at the same step.
+	private double applied;  // The gain pos and neg were last set to.
+	
 	/**
 	 * @param	delay			The delay to provide to the nested delay filter.
 	 * @param	gain			The gain to provide to the nested gain filters.
@@ -28,8 +33,11 @@ public class AllPassFilter extends CompositeFilter {
 		
 		try {
 			Filter wait = new DelayFilter(delay);
-			Filter pos = new GainFilter(gain);
-			Filter neg = new GainFilter(-gain);
+			this.gain = new SmoothedParameter(gain);
+			applied = gain;
+			pos = new GainFilter(gain, 0);
+			neg = new GainFilter(-gain, 0);
+			// They follow the smoothed gain, so they apply their factors at once.
 			Filter add1 = new AdditionFilter();
 			Filter add2 = new AdditionFilter();
 			
@@ -81,4 +89,37 @@ public class AllPassFilter extends CompositeFilter {
 		connectBlockToBlock(add, 0, nested, 0);
 		connectBlockToBlock(nested, 0, wait, 0);
 	}
+	
+	/**
+	 * Changes the gain of the all-pass filter. The change is interpolated over a few samples and
+	 * can be made from another thread while the filter is being applied. Both gains of the filter
+	 * stay opposite while they change, so that it remains all-pass.
+	 *
+	 * @param	gain			The new gain.
+	 * @throws	FilterException	Thrown if gain is outside (0, 1).
+	 */
+	public void setGain(double gain) throws FilterException {
+		if (gain <= 0 || gain >= 1) {
+			throw new FilterException("Tried to set all-pass filter gain outside interval (0, 1)");
+		}
+		
+		this.gain.set(gain);
+	}
+	
+	@Override
+	protected void beforeStep() {
+		double g = gain.next();
+		if (g != applied) {
+			applied = g;
+			pos.setFactor(g);
+			neg.setFactor(-g);
+		}
+	}
+	
+	@Override
+	public void reset() {
+		gain.jump();
+		beforeStep();
+		super.reset();
+	}
 }
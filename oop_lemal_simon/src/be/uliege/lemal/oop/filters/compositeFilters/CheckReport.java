@@ -0,0 +1,113 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.montefiore.oop.audio.Filter;
+
+import java.util.Vector;
+
+/**
+ * The CheckReport class. It describes what was found (and possibly removed) while checking a
+ * composite filter, instead of printing warnings in System.err.
+ */
+public class CheckReport {
+	private final Vector<Filter> unreachable, pruned, folded;
+	private long releasedSamples = 0;
+	
+	public CheckReport() {
+		unreachable = new Vector<Filter>();
+		pruned = new Vector<Filter>();
+		folded = new Vector<Filter>();
+	}
+	
+	/**
+	 * Records a filter that is not connected to any output but was kept.
+	 *
+	 * @param	f	The filter.
+	 */
+	protected void addUnreachable(Filter f) {
+		unreachable.add(f);
+	}
+	
+	/**
+	 * Records a filter that was removed because it was not connected to any output.
+	 *
+	 * @param	f		The filter.
+	 * @param	samples	The number of samples of state (delay lines) the filter held.
+	 */
+	protected void addPruned(Filter f, long samples) {
+		pruned.add(f);
+		releasedSamples += samples;
+	}
+	
+	/**
+	 * Records a filter that was replaced by zeros because its inputs are always zero.
+	 *
+	 * @param	f	The filter.
+	 */
+	protected void addFolded(Filter f) {
+		folded.add(f);
+	}
+	
+	/**
+	 * Adds everything recorded in another report (e.g. a nested filter's) to this one.
+	 *
+	 * @param	other	The other report.
+	 */
+	protected void merge(CheckReport other) {
+		unreachable.addAll(other.unreachable);
+		pruned.addAll(other.pruned);
+		folded.addAll(other.folded);
+		releasedSamples += other.releasedSamples;
+	}
+	
+	/**
+	 * Returns unreachable.
+	 *
+	 * @return	Vector<Filter>	The filters that are not connected to any output and were kept.
+	 */
+	public Vector<Filter> getUnreachable() {
+		return new Vector<Filter>(unreachable);
+	}
+	
+	/**
+	 * Returns pruned.
+	 *
+	 * @return	Vector<Filter>	The filters that were removed from the composite filter.
+	 */
+	public Vector<Filter> getPruned() {
+		return new Vector<Filter>(pruned);
+	}
+	
+	/**
+	 * Returns folded.
+	 *
+	 * @return	Vector<Filter>	The filters that were replaced by zeros.
+	 */
+	public Vector<Filter> getFolded() {
+		return new Vector<Filter>(folded);
+	}
+	
+	/**
+	 * Returns releasedSamples.
+	 *
+	 * @return	long	The number of delay line samples that are no longer held by the filter.
+	 */
+	public long getReleasedSamples() {
+		return releasedSamples;
+	}
+	
+	/**
+	 * Returns whether the check found nothing to report.
+	 *
+	 * @return	boolean	True if no filter is unreachable, pruned or folded.
+	 */
+	public boolean isClean() {
+		return unreachable.isEmpty() && pruned.isEmpty() && folded.isEmpty();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d unreachable filter(s), %d pruned filter(s), %d folded filter(s)," +
+						" %d delay sample(s) released.", unreachable.size(), pruned.size(),
+				folded.size(), releasedSamples);
+	}
+}
@@ -11,6 +11,8 @@ import be.uliege.montefiore.oop.audio.FilterException;
  * It can be applied to an audio sequence to create an single echo.
  */
 public class CombFilter extends CompositeFilter {
+	protected final GainFilter gain;  // Kept so that the decay can be changed while filtering.
+	
 	/**
 	 * @param	delay			The number of samples between a sample and its echo.
 	 * @param	decay			The loss of intensity of the echo.
@@ -27,7 +29,7 @@ public class CombFilter extends CompositeFilter {
 		
 		try {
 			Filter wait = new DelayFilter(delay);
-			Filter gain = new GainFilter(1 - decay);
+			gain = new GainFilter(1 - decay);
 			Filter add = new AdditionFilter();
 			
 			addBlock(wait);
@@ -45,4 +47,19 @@ public class CombFilter extends CompositeFilter {
 			// In practice, no exception should be thrown here.
 		}
 	}
+	
+	/**
+	 * Changes the decay of the comb filter. The change is interpolated over a few samples and
+	 * can be made from another thread while the filter is being applied.
+	 *
+	 * @param	decay			The new loss of intensity of the echo.
+	 * @throws	FilterException	Thrown if decay is outside (0, 1).
+	 */
+	public void setDecay(double decay) throws FilterException {
+		if (decay <= 0 || decay >= 1) {
+			throw new FilterException("Tried to set comb filter decay outside interval (0, 1)");
+		}
+		
+		gain.setFactor(1 - decay);
+	}
 }
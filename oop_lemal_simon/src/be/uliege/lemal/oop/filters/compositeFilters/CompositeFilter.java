@@ -1,18 +1,29 @@
 package be.uliege.lemal.oop.filters.compositeFilters;
 
+import be.uliege.lemal.oop.filters.Denormals;
+import be.uliege.lemal.oop.filters.TrustedFilter;
 import be.uliege.lemal.oop.filters.compositeFilters.blocks.Block;
 import be.uliege.lemal.oop.filters.compositeFilters.blocks.Input;
 import be.uliege.lemal.oop.filters.compositeFilters.blocks.Output;
+import be.uliege.lemal.oop.filters.elementaryFilters.AdditionFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MeanFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MultiTapDelayFilter;
+import be.uliege.lemal.oop.filters.metering.Meter;
 import be.uliege.montefiore.oop.audio.Filter;
 import be.uliege.montefiore.oop.audio.FilterException;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Vector;
 
 /**
  * The CompositeFilter class.
  * It allows one to define complex filters composed of several elementary filters.
  */
-public class CompositeFilter implements Filter {
+public class CompositeFilter implements TrustedFilter {
 	protected final int nbInputs, nbOutputs;
 	protected final Vector<Block> blocks;
 	// This contains all filters that were added as blocks to the composite filter.
@@ -22,6 +33,16 @@ public class CompositeFilter implements Filter {
 	// filter to directly write the provided inputs in the corresponding block's inputs.
 	// In the same way, when a block produce an output, we want it to write it in the output queue.
 	protected boolean checked = false;  // This variable is used to check the filter is valid.
+	public static final int IDLE_CHECK = 1024;  // Silent steps between two checks of the state.
+	private double silence = Denormals.THRESHOLD;  // Below this, the state is considered empty.
+	private long idleCheck = IDLE_CHECK;
+	private long zeroRun = 0;  // Silent steps since the last check.
+	private boolean idle = false;  // Whether the input and the state are silent.
+	private final Vector<Meter> edgeMeters = new Vector<Meter>();
+	// The meters of blocks' outputs, which are given zeros while the filter is idle.
+	private final Meter[] outputMeters;  // outputMeters[o] measures output o, if not null.
+	public static final int EDGE_SLACK = 64;  // Samples the queues may hold beyond the delays.
+	private int edgeCapacity = 0;  // The capacity of the queues of edges, 0 if automatic.
 	
 	/**
 	 * @param	nbInputs		The number of inputs the composite filter expects.
@@ -50,6 +71,7 @@ public class CompositeFilter implements Filter {
 		for (int i = 0; i < nbOutputs; i++) {
 			outputs[i] = new Input();
 		} // Initialise all that has to be initialised.
+		outputMeters = new Meter[nbOutputs];
 	}
 	
 	/**
@@ -67,6 +89,7 @@ public class CompositeFilter implements Filter {
 		for (int i = 0; i < nbOutputs; i++) {
 			outputs[i] = new Input();
 		} // Initialise all that has to be initialised.
+		outputMeters = new Meter[nbOutputs];
 	}
 	
 	/**
@@ -82,13 +105,94 @@ public class CompositeFilter implements Filter {
 		return nbOutputs;
 	}
 	
+	/**
+	 * Called on the thread that filters before each step of this filter, before its blocks are
+	 * applied. Subclasses override it to set the parameters of several blocks at once, so that
+	 * no step applies some of them with new values and others with old ones. Does nothing by
+	 * default.
+	 */
+	protected void beforeStep() {
+	}
+	
 	/**
 	 * Resets all blocks composing this filter.
 	 */
 	public void reset() {
-		for (Block block : blocks) {
-			block.reset();
+		for (int k = 0; k < blocks.size(); k++) {
+			blocks.get(k).reset();
+		} // No iterator, since idle filters reset themselves while they are being applied.
+		idle = false;
+		zeroRun = 0;
+	}
+	
+	/**
+	 * Sets the level below which the state of the filter is considered empty. Once its input has
+	 * been silent for a while and no sample of its state (including samples waiting in blocks'
+	 * inputs and the state of nested filters) is above this level, the filter becomes idle: it is
+	 * reset, and outputs zeros without applying its blocks until its input is not silent anymore.
+	 * The default level, Denormals.THRESHOLD, only skips work whose result would have been
+	 * flushed anyway. A higher level (1e-6 is -120 dB) truncates tails that cannot be heard.
+	 *
+	 * @param	level			The level, 0 to never become idle.
+	 * @throws	FilterException	Thrown if level is negative or not a number.
+	 */
+	public void setSilenceThreshold(double level) throws FilterException {
+		if (!(level >= 0)) {
+			throw new FilterException("Tried to set negative silence threshold.");
 		}
+		silence = level;
+	}
+	
+	/**
+	 * Returns the level below which the state of the filter is considered empty.
+	 *
+	 * @return	double	The level.
+	 */
+	public double getSilenceThreshold() {
+		return silence;
+	}
+	
+	/**
+	 * Returns whether the filter is idle (see setSilenceThreshold).
+	 *
+	 * @return	boolean	True if the filter outputs zeros without applying its blocks.
+	 */
+	public boolean isIdle() {
+		return idle;
+	}
+	
+	/**
+	 * Returns the largest absolute value held by this filter: in delay lines, in blocks' inputs
+	 * and in nested filters. Blocks whose state is unknown (filters of other libraries, gains that
+	 * are changing) count as infinite, so that such a filter never becomes idle.
+	 *
+	 * @return	double	The peak of the state of the filter.
+	 */
+	public double statePeak() {
+		double peak = 0;
+		for (int k = 0; k < blocks.size(); k++) {
+			Block block = blocks.get(k);
+			if (block.checked()) {
+				peak = Math.max(peak, Math.max(block.inputPeak(), statePeak(block.getFilter())));
+			}
+		}
+		return peak;
+	}
+	
+	/**
+	 * Returns the largest absolute value held by f, or infinity if it cannot be known.
+	 *
+	 * @param	f		The filter.
+	 * @return	double	The peak of the state of f.
+	 */
+	private static double statePeak(Filter f) {
+		if (f instanceof DelayFilter) return ((DelayFilter) f).peak();
+		if (f instanceof AdditionFilter) return 0;
+		if (f instanceof GainFilter && ((GainFilter) f).isSteady()) return 0;
+		if (f instanceof CompositeFilter) return ((CompositeFilter) f).statePeak();
+		if (f instanceof StateSpaceFilter) return ((StateSpaceFilter) f).peak();
+		if (f instanceof FDNReverb) return ((FDNReverb) f).peak();
+		return Double.POSITIVE_INFINITY;
 	}
 	
 	/**
@@ -216,6 +320,176 @@ public class CompositeFilter implements Filter {
 		}
 		
 		b2.connectOutputToBlock(inputs[i1], i2);
+		checked = false;  // If an input is connected to a block, it has to be checked.
+	}
+	
+	/**
+	 * Attaches meter to output o of the composite filter: from then on, it measures every sample
+	 * this filter outputs there, as it is computed (see the Meter class). The meter previously
+	 * attached to that output, if any, is detached. Meters are not part of the description of the
+	 * filter, and are not carried over to its compiled form.
+	 *
+	 * @param	o				The number of the composite filter's output.
+	 * @param	meter			The meter, or null to detach the current one.
+	 * @throws	FilterException	Thrown if o is out of range.
+	 */
+	public void meterOutput(int o, Meter meter) throws FilterException {
+		if (o < 0 || o >= nbOutputs) {
+			throw new FilterException(String.format("Output number %d is out of range for " +
+					"composite filter. Must be between 0 and %d (excluded).", o, nbOutputs));
+		}
+		
+		outputMeters[o] = meter;
+	}
+	
+	/**
+	 * Returns the meter attached to output o of the composite filter (see meterOutput).
+	 *
+	 * @param	o				The number of the composite filter's output.
+	 * @return	Meter			The meter, or null if none is attached.
+	 * @throws	FilterException	Thrown if o is out of range.
+	 */
+	public Meter getOutputMeter(int o) throws FilterException {
+		if (o < 0 || o >= nbOutputs) {
+			throw new FilterException(String.format("Output number %d is out of range for " +
+					"composite filter. Must be between 0 and %d (excluded).", o, nbOutputs));
+		}
+		
+		return outputMeters[o];
+	}
+	
+	/**
+	 * Attaches meter to output o of a block, so that it measures the samples that flow on the
+	 * edges leaving it, like meterOutput does for the outputs of the composite filter. Blocks
+	 * that are not connected to any output are never applied, so their meters measure nothing.
+	 * While this filter is idle, the meters of its blocks are given zeros, but the ones inside
+	 * its nested filters are not, as these are not applied.
+	 *
+	 * @param	f				The filter whose output must be measured.
+	 * @param	o				The number of the filter's output.
+	 * @param	meter			The meter, or null to detach the current one.
+	 * @throws	FilterException	Thrown if f is null or was not previously added as a block or if
+	 * 							o is out of range.
+	 */
+	public void meterBlock(Filter f, int o, Meter meter) throws FilterException {
+		if (f == null) {
+			throw new FilterException("In composite filter, tried to meter null filter.");
+		}
+		
+		Block b = null;
+		for (Block block : blocks) {
+			if (block.getFilter() == f) {
+				b = block;
+			}
+		}
+		
+		if (b == null) {
+			throw new FilterException("Filter was not previously added to composite filter.");
+		}
+		
+		Output output = b.getOutput(o);
+		edgeMeters.remove(output.getMeter());
+		output.setMeter(meter);
+		if (meter != null) edgeMeters.add(meter);
+	}
+	
+	/**
+	 * Sets the capacity of the queues of all edges of this filter and of its nested filters: the
+	 * inputs of its blocks and its outputs.
+	 * Every step, each block that is connected to an output is applied once, but a delay filter
+	 * first outputs the samples it was created with, without reading its input: until then, the
+	 * blocks it reads from are applied later than the blocks they read from, and the queues in
+	 * between hold up to the length of the delay. Queues therefore never hold more samples than
+	 * the delay lines of the filter, plus EDGE_SLACK; this is the automatic capacity. The inputs
+	 * of blocks that are not connected to any output drop what they are given, as nothing reads
+	 * them. A queue that still reaches its capacity (e.g. because a filter of another library
+	 * does not output one sample per step) makes the filter throw an exception instead of
+	 * growing. See edgeReport for the depths reached.
+	 *
+	 * @param	capacity		The largest number of samples a queue may hold, 0 for the
+	 * 							automatic capacity.
+	 * @throws	FilterException	Thrown if capacity is negative.
+	 */
+	public void setEdgeCapacity(int capacity) throws FilterException {
+		if (capacity < 0) {
+			throw new FilterException("Tried to set negative edge capacity to composite filter.");
+		}
+		
+		for (Block block : blocks) {
+			if (block.getFilter() instanceof CompositeFilter) {
+				((CompositeFilter) block.getFilter()).setEdgeCapacity(capacity);
+			}
+		}
+		edgeCapacity = capacity;
+		applyEdgeCapacity();
+	}
+	
+	/**
+	 * Returns the capacity of the queues of the edges of this filter.
+	 *
+	 * @return	int	The capacity set by setEdgeCapacity, or the automatic one.
+	 */
+	public int getEdgeCapacity() {
+		return edgeCapacity > 0 ? edgeCapacity
+				: (int) Math.min(Integer.MAX_VALUE, stateSize() + EDGE_SLACK);
+	}
+	
+	/**
+	 * Sets the capacity of the queues of the edges of this filter (see setEdgeCapacity).
+	 *
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	private void applyEdgeCapacity() throws FilterException {
+		int capacity = getEdgeCapacity();
+		for (Block block : blocks) {
+			for (int i = 0; i < block.getFilter().nbInputs(); i++) {
+				block.getInput(i).setCapacity(capacity);
+			}
+		}
+		for (Input output : outputs) {
+			output.setCapacity(capacity);
+		}
+	}
+	
+	/**
+	 * Returns the state of the queues of the edges of this filter and of its nested filters, and
+	 * the memory they and the delay lines take.
+	 *
+	 * @return	EdgeReport		The report.
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	public EdgeReport edgeReport() throws FilterException {
+		EdgeReport report = new EdgeReport();
+		addEdges(report, "");
+		report.setDelayBytes(stateSize() * 8);
+		return report;
+	}
+	
+	/**
+	 * Records the edges of this filter, then those of each nested filter after its block, with
+	 * their names preceded by prefix.
+	 *
+	 * @param	report			The report.
+	 * @param	prefix			The path of this filter, e.g. b3/ for the filter of block 3.
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	private void addEdges(EdgeReport report, String prefix) throws FilterException {
+		for (int b = 0; b < blocks.size(); b++) {
+			Block block = blocks.get(b);
+			for (int i = 0; i < block.getFilter().nbInputs(); i++) {
+				Output from = block.readsFrom(i);
+				report.addEdge(String.format("%s%s -> b%d.%d", prefix,
+						from == null ? "none" : describe(from), b, i), block.getInput(i));
+			}
+			if (block.getFilter() instanceof CompositeFilter) {
+				((CompositeFilter) block.getFilter()).addEdges(report, prefix + "b" + b + "/");
+			}
+		}
+		for (int o = 0; o < nbOutputs; o++) {
+			Output from = outputs[o].connectedTo();
+			report.addEdge(String.format("%s%s -> out.%d", prefix,
+					from == null ? "none" : describe(from), o), outputs[o]);
+		}
 	}
 	
 	/**
@@ -230,26 +504,638 @@ public class CompositeFilter implements Filter {
 	public void check() throws FilterException {
 		if (!checked) {
 			// If the filter was not already checked,
+			for (int i = check(false).getUnreachable().size(); i > 0; i--) {
+				System.err.println("Warning: In composite filter, a filter is not connected " +
+						"to any outputs. You might want to remove it or connect it to " +
+						"something.");
+			} // Prints a warning for each filter that was not checked, including nested ones.
+		}
+	}
+	
+	/**
+	 * Checks the composite filter is valid, like check(), but reports the blocks that are not
+	 * connected to any output instead of printing warnings.
+	 * If prune is true, it also simplifies the filter (and its nested composite filters):
+	 * blocks whose inputs are always 0 (linear blocks that do not depend on any input of the
+	 * composite filter) are folded, i.e. replaced by zeros, and blocks that are not connected to
+	 * any output are removed, which releases their delay lines.
+	 * Folding assumes the delay lines hold only zeros, as is the case before the filter is first
+	 * applied or after it is reset.
+	 *
+	 * @param	prune			Whether or not the filter should be simplified.
+	 * @return	CheckReport		What was found (and removed) while checking.
+	 * @throws	FilterException	Thrown if the filter is not valid (see check()).
+	 */
+	public CheckReport check(boolean prune) throws FilterException {
+		if (!checked) traverse();
+		
+		CheckReport report = new CheckReport();
+		if (!prune) {
 			for (Block block : blocks) {
-				block.resetChecked();
-			} // Resets all checked variables to false.
+				if (!block.checked()) {
+					report.addUnreachable(block.getFilter());
+				}
+				else if (block.getFilter() instanceof CompositeFilter) {
+					report.merge(((CompositeFilter) block.getFilter()).check(false));
+				}
+			}
+			return report;
+		}
+		
+		for (Block block : blocks) {
+			if (block.checked() && block.getFilter() instanceof CompositeFilter) {
+				report.merge(((CompositeFilter) block.getFilter()).check(true));
+			}
+		} // Simplifies the nested filters first.
+		
+		Vector<Block> silent = new Vector<Block>();
+		for (Block block : blocks) {
+			if (block.checked() && !block.folded() && isLinear(block.getFilter())) {
+				silent.add(block);
+			}
+		} // At first, we assume every linear block always outputs 0.
+		
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			Iterator<Block> it = silent.iterator();
+			while (it.hasNext()) {
+				if (!it.next().readsOnlyFrom(silent)) {
+					it.remove();
+					changed = true;
+				}
+			}
+		} // Then we remove the ones that read from something that is not always 0.
+		
+		for (Block block : silent) {
+			block.fold();
+		}
+		traverse();  // Folded blocks do not read their inputs, so fewer blocks might be needed.
+		
+		Iterator<Block> it = blocks.iterator();
+		while (it.hasNext()) {
+			Block block = it.next();
+			if (!block.checked()) {
+				block.disconnect();
+				it.remove();
+				report.addPruned(block.getFilter(), stateSize(block.getFilter()));
+			}
+			else if (silent.contains(block)) {
+				report.addFolded(block.getFilter());
+			}
+		} // Finally we remove the blocks that are not connected to any output.
+		
+		return report;
+	}
+	
+	/**
+	 * Resets the checked variable of all blocks and checks them again from the outputs.
+	 * Blocks that are not connected to any output are left unchecked.
+	 *
+	 * @throws	FilterException	Thrown if the filter is not valid (see check()).
+	 */
+	private void traverse() throws FilterException {
+		for (Block block : blocks) {
+			block.resetChecked();
+		} // Resets all checked variables to false.
+		
+		Vector<Block> path = new Vector<Block>();  // New empty path.
+		for (Input output : outputs) {
+			output.check(path);
+		} // Checks each output.
+		
+		checked = true;
+		// If we reach this line with no exception being thrown, this filter is valid.
+		
+		for (Block block : blocks) {
+			block.setFlush(block.checked() && !block.folded()
+					&& block.getFilter() instanceof DelayFilter
+					&& reaches(block, block, new HashSet<Block>()));
+		} // Every feedback loop contains a delay. Flushing its output keeps the loop normal.
+		
+		for (Block block : blocks) {
+			for (int i = 0; i < block.getFilter().nbInputs(); i++) {
+				block.getInput(i).setDiscarding(!block.checked());
+			}
+		} // Blocks that are not connected to any output are never applied: nothing would read
+		// what is queued in their inputs.
+		applyEdgeCapacity();
+		
+		idle = false;
+		zeroRun = 0;
+		idleCheck = Math.max(IDLE_CHECK, stateSize() / 8);
+		// Checking the state costs one sample per sample of state, so it is done once in a while.
+	}
+	
+	/**
+	 * Returns whether target can be reached by going up from block, through the blocks it
+	 * reads from.
+	 *
+	 * @param	block	The block to start from.
+	 * @param	target	The block to reach.
+	 * @param	visited	The blocks that were already visited.
+	 * @return	boolean	True if target was reached.
+	 */
+	private static boolean reaches(Block block, Block target, HashSet<Block> visited) {
+		for (Block source : block.sources()) {
+			if (source == target) return true;
+			if (visited.add(source) && reaches(source, target, visited)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns whether f is one of the linear elementary filters, whose output is always 0 when
+	 * their inputs are.
+	 *
+	 * @param	f		The filter.
+	 * @return	boolean	True if f is a gain, addition, mean or delay filter.
+	 */
+	private static boolean isLinear(Filter f) {
+		return f instanceof GainFilter || f instanceof AdditionFilter || f instanceof DelayFilter;
+	}
+	
+	/**
+	 * Returns whether this filter contains a feedback loop, that is whether a block (through its
+	 * delays) reads from its own output, in this filter or in a nested one.
+	 * Blocks that are not connected to any output are ignored.
+	 *
+	 * @return	boolean			True if this filter contains a feedback loop.
+	 * @throws	FilterException	Thrown if the filter is not valid (see check()).
+	 */
+	public boolean hasFeedback() throws FilterException {
+		check(false);
+		
+		HashMap<Block, Boolean> visiting = new HashMap<Block, Boolean>();
+		// Blocks mapped to true are on the current path, blocks mapped to false are done.
+		for (Input output : outputs) {
+			if (output.source() != null && hasFeedback(output.source(), visiting)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns whether a loop can be found by going up from block.
+	 *
+	 * @param	block			The block to start from.
+	 * @param	visiting		The state of the blocks that were already visited.
+	 * @return	boolean			True if a loop was found.
+	 * @throws	FilterException	Thrown if a nested filter is not valid.
+	 */
+	private static boolean hasFeedback(Block block, HashMap<Block, Boolean> visiting)
+			throws FilterException {
+		Boolean state = visiting.get(block);
+		if (state != null) return state;  // On the path: we made a loop. Done: nothing new.
+		
+		if (!block.folded()) {
+			if (block.getFilter() instanceof CompositeFilter
+					&& ((CompositeFilter) block.getFilter()).hasFeedback()) return true;
+			if (block.getFilter() instanceof FDNReverb
+					|| block.getFilter() instanceof StateSpaceFilter) return true;
 			
-			Vector<Block> path = new Vector<Block>();  // New empty path.
-			for (Input output : outputs) {
-				output.check(path);
-			} // Checks each output.
+			visiting.put(block, true);
+			for (Block source : block.sources()) {
+				if (hasFeedback(source, visiting)) return true;
+			}
+		}
+		visiting.put(block, false);
+		return false;
+	}
+	
+	/**
+	 * Returns whether this filter is time-invariant, that is whether it only contains filters of
+	 * this library whose behaviour does not depend on the time (gains, additions, means, delays,
+	 * FDN reverberators, compiled filters and composite filters made of them). Applying such a
+	 * filter to a signal shifted in time gives the same output, shifted in time.
+	 *
+	 * @return	boolean	True if this filter is time-invariant.
+	 */
+	public boolean isTimeInvariant() {
+		for (Block block : blocks) {
+			Filter f = block.getFilter();
+			if (f instanceof CompositeFilter) {
+				if (!((CompositeFilter) f).isTimeInvariant()) return false;
+			}
+			else if (!(isLinear(f) || f instanceof FDNReverb || f instanceof StateSpaceFilter)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the memory of this filter: the number of past input samples its output depends on.
+	 * Applying the filter to that many samples before a given position is enough to bring it in
+	 * the exact state it would have reached by applying it from the start.
+	 * This is only bounded for filters without feedback, built from the filters of this library.
+	 *
+	 * @return	long			The memory, or -1 if it is not bounded or not known.
+	 * @throws	FilterException	Thrown if the filter is not valid (see check()).
+	 */
+	public long memory() throws FilterException {
+		if (hasFeedback()) return -1;
+		
+		HashMap<Block, Long> memory = new HashMap<Block, Long>();
+		long max = 0;
+		for (Input output : outputs) {
+			if (output.source() != null) {
+				long m = memory(output.source(), memory);
+				if (m < 0) return -1;
+				max = Math.max(max, m);
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * Returns the memory of the output of block (see memory()).
+	 *
+	 * @param	block			The block.
+	 * @param	memory			The memory of the blocks that were already visited.
+	 * @return	long			The memory, or -1 if it is not bounded or not known.
+	 * @throws	FilterException	Thrown if a nested filter is not valid.
+	 */
+	private static long memory(Block block, HashMap<Block, Long> memory) throws FilterException {
+		Long known = memory.get(block);
+		if (known != null) return known;
+		if (block.folded()) return 0;  // Always 0, whatever happened before.
+		
+		Filter f = block.getFilter();
+		long own;
+		if (f instanceof DelayFilter) own = ((DelayFilter) f).getDelay();
+		else if (f instanceof CompositeFilter) own = ((CompositeFilter) f).memory();
+		else if (f instanceof GainFilter || f instanceof AdditionFilter) own = 0;
+		else own = -1;  // A filter we know nothing about.
+		
+		long max = 0;
+		for (Block source : block.sources()) {
+			long m = memory(source, memory);
+			max = m < 0 || max < 0 ? -1 : Math.max(max, m);
+		}
+		long total = own < 0 || max < 0 ? -1 : own + max;
+		memory.put(block, total);
+		return total;
+	}
+	
+	/**
+	 * Returns the latency of this filter: the smallest number of steps it takes for an input
+	 * sample to reach an output, following the delays of the shortest path. Nested composite
+	 * filters count for their own latency, and filters that are not of this library for 0.
+	 *
+	 * @return	long			The latency, or -1 if no output depends on any input.
+	 * @throws	FilterException	Thrown if the filter is not valid (see check()).
+	 */
+	public long latency() throws FilterException {
+		check(false);
+		
+		HashMap<Output, Long> latency = new HashMap<Output, Long>();
+		for (Output input : inputs) {
+			latency.put(input, 0L);
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Block block : blocks) {
+				if (!block.checked() || block.folded()) continue;
+				
+				long in = Long.MAX_VALUE;
+				for (int i = 0; i < block.getFilter().nbInputs(); i++) {
+					Long l = latency.get(block.readsFrom(i));
+					if (l != null) in = Math.min(in, l);
+				}
+				if (in == Long.MAX_VALUE) continue;  // No input reached this block yet.
+				
+				for (int o = 0; o < block.getFilter().nbOutputs(); o++) {
+					long own = ownLatency(block.getFilter(), o);
+					Output output = block.getOutput(o);
+					Long known = latency.get(output);
+					if (own >= 0 && (known == null || in + own < known)) {
+						latency.put(output, in + own);
+						changed = true;
+					}
+				}
+			}
+		} // Relaxes every block until no latency gets shorter (shortest paths never loop).
+		
+		long min = -1;
+		for (Input output : outputs) {
+			Long l = latency.get(output.connectedTo());
+			if (l != null && (min < 0 || l < min)) min = l;
+		}
+		return min;
+	}
+	
+	/**
+	 * Returns the latency from the inputs of f to its output number o.
+	 *
+	 * @param	f				The filter.
+	 * @param	o				The number of the output.
+	 * @return	long			The latency, or -1 if the output does not depend on any input.
+	 * @throws	FilterException	Thrown if a nested filter is not valid.
+	 */
+	private static long ownLatency(Filter f, int o) throws FilterException {
+		if (f instanceof MultiTapDelayFilter) return ((MultiTapDelayFilter) f).getDelay(o);
+		if (f instanceof DelayFilter) return ((DelayFilter) f).getDelay();
+		if (f instanceof CompositeFilter) return ((CompositeFilter) f).latency();
+		if (f instanceof MultirateFilter) {
+			MultirateFilter multirate = (MultirateFilter) f;
+			long nested = ownLatency(multirate.getFilter(), o);
+			if (nested < 0) return -1;
+			return Math.round(multirate.latency()
+					+ (double) nested * multirate.getDown() / multirate.getUp());
+		} // A sample of the nested filter lasts down / up samples of the signal.
+		return 0;
+	}
+	
+	/**
+	 * Returns whether the tail of this filter is finite, that is whether its output is exactly 0
+	 * a bounded number of steps (its memory, see memory()) after its inputs fell silent.
+	 * Otherwise, it has feedback loops, and its tail decays geometrically (if the loops are
+	 * stable), or it contains filters that are not of this library.
+	 *
+	 * @return	boolean			True if the tail is finite.
+	 * @throws	FilterException	Thrown if the filter is not valid (see check()).
+	 */
+	public boolean hasFiniteTail() throws FilterException {
+		return memory() >= 0;
+	}
+	
+	/**
+	 * Returns the length of the tail of this filter: how many steps it must still be applied to
+	 * silence after the end of its input for its output to fall below threshold.
+	 * For finite tails, this is exactly the memory of the filter, after which the output is 0
+	 * (or -1 if it is longer than max).
+	 * Otherwise, the impulse response of the compiled filter (see compile()) is measured, until
+	 * it stays below threshold (see ImpulseResponse.length), for at most max samples. If it is
+	 * still above by then, the length is not known: flushing max samples would cut the tail.
+	 * This filter is not modified.
+	 *
+	 * @param	threshold		The threshold, in dB relative to the peak of the impulse response.
+	 * @param	max				The largest length returned.
+	 * @return	long			The length of the tail (at most max), or -1 if it is not known:
+	 * 							the tail is not finite and the filter cannot be compiled, or its
+	 * 							impulse response is longer than max.
+	 * @throws	FilterException	Thrown if the filter is not valid (see check()).
+	 */
+	public long tailLength(double threshold, int max) throws FilterException {
+		long memory = memory();
+		if (memory >= 0) return memory > max ? -1 : memory;
+		
+		StateSpaceFilter compiled;
+		try {
+			compiled = compile();
+		}
+		catch (FilterException e) {
+			return -1;
+		} // The filter is valid (memory() checked it), so it contains a filter we do not know.
+		return ImpulseResponse.length(compiled, threshold, max);
+	}
+	
+	/**
+	 * Merges the delay filters of this filter (and of its nested composite filters) that read
+	 * from the same output into multi-tap delay filters, so that they share one queue.
+	 * The delay filters that were merged are removed from the filter: they must not be used to
+	 * make connections afterwards. This should be done before applying the filter or after
+	 * resetting it, as the samples the merged delay filters held are not kept.
+	 *
+	 * @return	int				The number of delay filters that were removed.
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	public int shareDelays() throws FilterException {
+		int removed = 0;
+		for (Block block : new Vector<Block>(blocks)) {
+			if (block.getFilter() instanceof CompositeFilter) {
+				removed += ((CompositeFilter) block.getFilter()).shareDelays();
+			}
+		} // Merges the delays of nested filters first.
+		
+		Vector<Block> delays = new Vector<Block>();
+		for (Block block : blocks) {
+			if (block.getFilter().getClass() == DelayFilter.class && !block.folded()
+					&& block.readsFrom(0) != null) {
+				delays.add(block);
+			}
+		} // Only plain delay filters that are connected to something can be merged.
+		
+		while (!delays.isEmpty()) {
+			Output source = delays.get(0).readsFrom(0);
+			Vector<Block> group = new Vector<Block>();
+			Iterator<Block> it = delays.iterator();
+			while (it.hasNext()) {
+				Block block = it.next();
+				if (block.readsFrom(0) == source) {
+					group.add(block);
+					it.remove();
+				}
+			} // Finds all delays that read from the same output.
+			if (group.size() < 2) continue;
 			
-			checked = true;
-			// If we reach this line with no exception being thrown, this filter is valid.
+			int[] taps = new int[group.size()];
+			for (int i = 0; i < taps.length; i++) {
+				taps[i] = ((DelayFilter) group.get(i).getFilter()).getDelay();
+			}
+			addBlock(new MultiTapDelayFilter(taps));
+			Block shared = blocks.lastElement();
+			shared.connectOutputToBlock(source, 0);
 			
-			for (Block block : blocks) {
-				if (!block.checked()) {
-					System.err.println("Warning: In composite filter, a filter is not connected " +
-							"to any outputs. You might want to remove it or connect it to " +
-							"something.");
+			for (int i = 0; i < taps.length; i++) {
+				group.get(i).transferOutput(0, shared, i);
+				group.get(i).disconnect();
+				blocks.remove(group.get(i));
+			} // Each delay is replaced by one output of the multi-tap delay.
+			removed += taps.length - 1;
+		}
+		
+		checked = false;
+		return removed;
+	}
+	
+	/**
+	 * Returns the number of samples held by the delay lines of this filter, including nested ones.
+	 * This is the whole state of the filter, apart from samples waiting in blocks' inputs.
+	 *
+	 * @return	long	The number of samples.
+	 */
+	public long stateSize() {
+		return stateSize(this);
+	}
+	
+	/**
+	 * Moves the delay lines of this filter, including nested ones, to one contiguous array.
+	 * See the DelayArena class.
+	 *
+	 * @return	DelayArena		The arena the delay lines were moved to.
+	 * @throws	FilterException	Thrown if the delay lines do not fit in one array.
+	 */
+	public DelayArena packDelays() throws FilterException {
+		return new DelayArena(this);
+	}
+	
+	/**
+	 * Compiles this filter to its state-space form. See the StateSpaceFilter class.
+	 * The compiled filter is a new filter, with empty delay lines: this filter is not modified.
+	 *
+	 * @return	StateSpaceFilter	The compiled filter.
+	 * @throws	FilterException		Thrown if the filter is not valid (see check()) or if it
+	 * 								contains filters that are not gains, additions, means or delays.
+	 */
+	public StateSpaceFilter compile() throws FilterException {
+		return new StateSpaceFilter(this);
+	}
+	
+	/**
+	 * Compiles this filter to its state-space form computed in fixed point, on 16-bit PCM samples.
+	 * See the FixedPointFilter class.
+	 *
+	 * @param	bits				The precision of the delay lines: 31 for Q31, 15 for Q15.
+	 * @return	FixedPointFilter	The compiled filter.
+	 * @throws	FilterException		Thrown if the filter cannot be compiled (see compile()), if
+	 * 								bits is neither 15 nor 31 or if its coefficients are too large.
+	 */
+	public FixedPointFilter compileFixedPoint(int bits) throws FilterException {
+		return compile().toFixedPoint(bits);
+	}
+	
+	/**
+	 * Returns a description of this filter in the format of FilterGraph: its blocks, their
+	 * parameters and their connections, nested filters first. Two filters with the same
+	 * description compute the same output, and FilterGraph builds a new such filter from it.
+	 * Blocks are described with the current parameters of their filters, whatever subclass of
+	 * CompositeFilter (e.g. EchoFilter) built them. The silence threshold (see
+	 * setSilenceThreshold) is described too if it is not the default one, as it changes the
+	 * output.
+	 *
+	 * @return	String			The description.
+	 * @throws	FilterException	Thrown if a block is not a gain, an addition, a mean, a delay, a
+	 * 							composite filter made of them or a multirate filter nesting such
+	 * 							a composite filter, or if a gain is changing.
+	 */
+	public String describe() throws FilterException {
+		StringBuilder description = new StringBuilder();
+		describe(description, new int[]{0});
+		return description.toString();
+	}
+	
+	/**
+	 * Appends the description of this filter, and of its nested filters before it, to
+	 * description.
+	 *
+	 * @param	description		The description so far.
+	 * @param	nbGraphs		The number of graphs described so far, in an array so it can be
+	 * 							updated. Graphs are named after their number.
+	 * @return	String			The name of the graph of this filter.
+	 * @throws	FilterException	Thrown if a block cannot be described.
+	 */
+	private String describe(StringBuilder description, int[] nbGraphs) throws FilterException {
+		String[] types = new String[blocks.size()];
+		for (int b = 0; b < types.length; b++) {
+			Filter f = blocks.get(b).getFilter();
+			if (f instanceof CompositeFilter) {
+				types[b] = ((CompositeFilter) f).describe(description, nbGraphs);
+			}
+			else if (f instanceof MultirateFilter
+					&& ((MultirateFilter) f).getFilter() instanceof CompositeFilter) {
+				MultirateFilter m = (MultirateFilter) f;
+				types[b] = String.format("subrate %d %d %s", m.getUp(), m.getDown(),
+						((CompositeFilter) m.getFilter()).describe(description, nbGraphs));
+			}
+			else types[b] = describe(f);
+		} // Nested graphs must be described before the graph they are nested in.
+		
+		String name = "g" + nbGraphs[0]++;
+		description.append(String.format("graph %s %d %d\n", name, nbInputs, nbOutputs));
+		if (silence != Denormals.THRESHOLD) description.append("silence " + silence + "\n");
+		for (int b = 0; b < types.length; b++) {
+			description.append(String.format("block b%d %s\n", b, types[b]));
+		}
+		for (int b = 0; b < types.length; b++) {
+			Block block = blocks.get(b);
+			for (int i = 0; i < block.getFilter().nbInputs(); i++) {
+				Output from = block.readsFrom(i);
+				if (from != null) {
+					description.append(String.format("connect %s b%d.%d\n", describe(from), b, i));
 				}
-			} // Prints a warning for each filter that was not checked.
+			}
+		}
+		for (int o = 0; o < nbOutputs; o++) {
+			if (outputs[o].connectedTo() != null) {
+				description.append(String.format("connect %s out.%d\n",
+						describe(outputs[o].connectedTo()), o));
+			}
 		}
+		description.append("end\n");
+		return name;
+	}
+	
+	/**
+	 * Returns the description of an output of this filter or of one of its blocks.
+	 *
+	 * @param	output	The output.
+	 * @return	String	in.i or bn.o.
+	 */
+	private String describe(Output output) {
+		Block block = output.isPartOf();
+		if (block == null) {
+			for (int i = 0; i < nbInputs; i++) {
+				if (inputs[i] == output) return "in." + i;
+			}
+		}
+		return String.format("b%d.%d", blocks.indexOf(block), block.outputNumber(output));
+	}
+	
+	/**
+	 * Returns the type and the parameters of an elementary filter, as in FilterGraph.
+	 * Real numbers are written so that they are read back exactly.
+	 *
+	 * @param	f				The filter.
+	 * @return	String			The type and the parameters.
+	 * @throws	FilterException	Thrown if f cannot be described.
+	 */
+	private static String describe(Filter f) throws FilterException {
+		if (f instanceof MultiTapDelayFilter) {
+			StringBuilder taps = new StringBuilder("taps");
+			for (int t = 0; t < f.nbOutputs(); t++) {
+				taps.append(' ').append(((MultiTapDelayFilter) f).getDelay(t));
+			}
+			return taps.toString();
+		}
+		if (f instanceof DelayFilter) return "delay " + ((DelayFilter) f).getDelay();
+		if (f instanceof MeanFilter) return "mean " + f.nbInputs();
+		if (f instanceof AdditionFilter) return "add " + f.nbInputs();
+		if (f instanceof GainFilter) {
+			if (!((GainFilter) f).isSteady()) {
+				throw new FilterException("Cannot describe a gain filter whose factor is " +
+						"changing.");
+			}
+			return "gain " + ((GainFilter) f).getFactor();
+		}
+		throw new FilterException("Cannot describe filters of class " + f.getClass().getName() +
+				".");
+	}
+	
+	/**
+	 * Returns the number of samples held by the delay lines of f, including nested ones.
+	 *
+	 * @param	f		The filter.
+	 * @return	long	The number of samples.
+	 */
+	static long stateSize(Filter f) {
+		if (f instanceof DelayFilter) {
+			return ((DelayFilter) f).getCapacity();
+		}
+		if (f instanceof StateSpaceFilter) {
+			return ((StateSpaceFilter) f).stateSize();
+		}
+		if (f instanceof MultirateFilter) {
+			return ((MultirateFilter) f).stateSize();
+		}
+		long size = 0;
+		if (f instanceof CompositeFilter) {
+			for (Block block : ((CompositeFilter) f).blocks) {
+				size += stateSize(block.getFilter());
+			}
+		}
+		return size;
 	}
 	
 	/**
@@ -271,14 +1157,93 @@ public class CompositeFilter implements Filter {
 					" expects exactly %d input(s).", input.length, nbInputs));
 		}
 		
+		return computeOneStepTrusted(input);
+	}
+	
+	/**
+	 * Same as computeOneStep, without checking the filter or validating input.
+	 * This is how a checked composite filter applies its nested composite filters: they were
+	 * checked along with it, so they are not checked again at every step.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @return	double[]		The output the filter returned.
+	 * @throws	FilterException	Thrown if a block that is not a TrustedFilter throws an exception.
+	 */
+	public double[] computeOneStepTrusted(double[] input) throws FilterException {
+		double[] output = new double[nbOutputs];
+		computeOneStepTrusted(input, output);
+		return output;
+	}
+	
+	/**
+	 * Same as computeOneStep(input), writing the output in output (see TrustedFilter).
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @param	output			An array the output of the filter is written in.
+	 * @throws	FilterException	Thrown if the filter is not valid or if input or output does not
+	 * 							match the filter.
+	 */
+	public void computeOneStep(double[] input, double[] output) throws FilterException {
+		check();
+		TrustedFilter.super.computeOneStep(input, output);
+	}
+	
+	/**
+	 * Same as computeOneStepTrusted(input), writing the output in output.
+	 * Blocks apply their filters with arrays they allocated once, so this allocates nothing.
+	 * An idle filter (see setSilenceThreshold) writes zeros without applying its blocks.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @param	output			An array the output of the filter is written in.
+	 * @throws	FilterException	Thrown if a block that is not a TrustedFilter throws an exception.
+	 */
+	public void computeOneStepTrusted(double[] input, double[] output) throws FilterException {
+		beforeStep();
+		boolean silent = true;
+		for (int i = 0; i < nbInputs; i++) {
+			if (input[i] != 0) silent = false;
+		}
+		if (silent && idle) {
+			for (int i = 0; i < nbOutputs; i++) {
+				output[i] = 0;
+			}
+			for (int k = 0; k < edgeMeters.size(); k++) {
+				edgeMeters.get(k).add(0);
+			}
+			meterOutputs(output);
+			return;
+		} // An idle filter would output zeros, and stay in the same state.
+		if (!silent) {
+			idle = false;
+			zeroRun = 0;
+		}
+		
 		for (int i = 0; i < nbInputs; i++) {
 			inputs[i].put(input[i]);
 		} // Start by putting provided values in the corresponding inputs.
 		
-		double[] output = new double[nbOutputs];
 		for (int i = 0; i < nbOutputs; i++) {
 			output[i] = outputs[i].get();
-		} // Then gets a value from  each output and returns them.
-		return output;
+		} // Then gets a value from  each output and writes them.
+		meterOutputs(output);
+		
+		if (silent && ++zeroRun >= idleCheck) {
+			zeroRun = 0;
+			if (statePeak() < silence) {
+				reset();
+				idle = true;
+			}
+		} // Empties the state once it is silent, so that the next steps can be skipped.
+	}
+	
+	/**
+	 * Gives output to the meters of the outputs.
+	 *
+	 * @param	output	The output of the filter.
+	 */
+	private void meterOutputs(double[] output) {
+		for (int i = 0; i < nbOutputs; i++) {
+			if (outputMeters[i] != null) outputMeters[i].add(output[i]);
+		}
 	}
 }
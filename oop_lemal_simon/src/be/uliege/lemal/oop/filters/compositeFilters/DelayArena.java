@@ -0,0 +1,98 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.lemal.oop.filters.compositeFilters.blocks.Block;
+import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.util.Vector;
+
+/**
+ * The DelayArena class. It gathers the queues of all delay filters of a composite filter,
+ * including the ones of nested composite filters and of the filters of multirate blocks, in one
+ * contiguous array, so that they are not scattered across memory.
+ * Queues are placed one after the other, in the order their blocks were added (the queues of a
+ * nested filter where its block is). This is only about locality: Java does not say where an
+ * array starts, so nothing is aligned on cache lines.
+ */
+public class DelayArena {
+	private final double[] buffer;
+	private final int nbDelays;
+	
+	/**
+	 * Moves the queues of all delay filters of f to a new arena. Their contents are preserved.
+	 *
+	 * @param	f				The filter whose delay filters must be moved.
+	 * @throws	FilterException	Thrown if f is null or if the queues do not fit in one array.
+	 */
+	public DelayArena(Filter f) throws FilterException {
+		if (f == null) {
+			throw new FilterException("Tried to create delay arena from null filter.");
+		}
+		
+		Vector<DelayFilter> delays = new Vector<DelayFilter>();
+		collect(f, delays);
+		
+		long size = 0;
+		for (DelayFilter delay : delays) {
+			size += delay.getCapacity();
+		}
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new FilterException("Delay filters are too large to fit in one arena.");
+		} // Virtual machines cannot allocate arrays of nearly Integer.MAX_VALUE elements.
+		
+		buffer = new double[(int) size];
+		int offset = 0;
+		for (DelayFilter delay : delays) {
+			delay.relocate(buffer, offset);
+			offset += delay.getCapacity();
+		}
+		nbDelays = delays.size();
+	}
+	
+	/**
+	 * Adds all delay filters of f (f itself, or its blocks and their nested blocks, or the ones
+	 * of the filter of a multirate filter) to delays.
+	 *
+	 * @param	f		The filter to search.
+	 * @param	delays	The delay filters found so far.
+	 */
+	private static void collect(Filter f, Vector<DelayFilter> delays) {
+		if (f instanceof DelayFilter) {
+			if (!delays.contains(f)) delays.add((DelayFilter) f);
+		}
+		else if (f instanceof CompositeFilter) {
+			for (Block block : ((CompositeFilter) f).blocks) {
+				collect(block.getFilter(), delays);
+			}
+		}
+		else if (f instanceof MultirateFilter) collect(((MultirateFilter) f).getFilter(), delays);
+	}
+	
+	/**
+	 * Returns the number of delay filters in the arena.
+	 *
+	 * @return	int	The number of delay filters.
+	 */
+	public int nbDelays() {
+		return nbDelays;
+	}
+	
+	/**
+	 * Returns the size of the arena.
+	 *
+	 * @return	int	The number of samples of the arena.
+	 */
+	public int size() {
+		return buffer.length;
+	}
+	
+	/**
+	 * Returns the memory footprint of the arena.
+	 *
+	 * @return	long	The number of bytes used by the samples of the arena.
+	 */
+	public long bytes() {
+		return (long) buffer.length * Double.BYTES;
+	}
+}
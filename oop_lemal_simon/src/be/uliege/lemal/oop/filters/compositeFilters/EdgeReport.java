@@ -0,0 +1,134 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.lemal.oop.filters.compositeFilters.blocks.Input;
+
+import java.util.Vector;
+
+/**
+ * The EdgeReport class. It describes the queues of the edges of a composite filter (including
+ * nested ones) at the time it was made: their depth, their high water mark and their capacity,
+ * and the memory taken by the queues and by the delay lines of the filter.
+ */
+public class EdgeReport {
+	private final Vector<Edge> edges;
+	private long delayBytes = 0;
+	
+	/**
+	 * The Edge class. It holds the state of one queue.
+	 */
+	public static class Edge {
+		public final String name;  // Where it reads from and where it writes to, e.g. b0.0 -> b2.1.
+		public final int depth, highWater, capacity;
+		public final long dropped, bytes;
+		
+		private Edge(String name, Input input) {
+			this.name = name;
+			depth = input.size();
+			highWater = input.getHighWater();
+			capacity = input.getCapacity();
+			dropped = input.getDropped();
+			bytes = input.bytes();
+		}
+		
+		public String toString() {
+			return String.format("%-24s depth %4d  high water %4d / %d%s", name, depth, highWater,
+					capacity, dropped > 0 ? String.format("  %d dropped", dropped) : "");
+		}
+	}
+	
+	public EdgeReport() {
+		edges = new Vector<Edge>();
+	}
+	
+	/**
+	 * Records the queue of an edge.
+	 *
+	 * @param	name	The name of the edge.
+	 * @param	input	The input the edge writes to.
+	 */
+	protected void addEdge(String name, Input input) {
+		edges.add(new Edge(name, input));
+	}
+	
+	/**
+	 * Records the memory of the delay lines.
+	 *
+	 * @param	bytes	The number of bytes.
+	 */
+	protected void setDelayBytes(long bytes) {
+		delayBytes = bytes;
+	}
+	
+	/**
+	 * Returns edges.
+	 *
+	 * @return	Vector<Edge>	The edges, nested ones after the edge of their block.
+	 */
+	public Vector<Edge> getEdges() {
+		return new Vector<Edge>(edges);
+	}
+	
+	/**
+	 * Returns the largest high water mark of the edges.
+	 *
+	 * @return	int	The high water mark, 0 if there are no edges.
+	 */
+	public int getHighWater() {
+		int highWater = 0;
+		for (Edge edge : edges) {
+			highWater = Math.max(highWater, edge.highWater);
+		}
+		return highWater;
+	}
+	
+	/**
+	 * Returns the number of bytes taken by the queues.
+	 *
+	 * @return	long	The number of bytes.
+	 */
+	public long getQueueBytes() {
+		long bytes = 0;
+		for (Edge edge : edges) {
+			bytes += edge.bytes;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Returns the largest number of bytes the queues could take, if all were full.
+	 *
+	 * @return	long	The number of bytes.
+	 */
+	public long getMaxQueueBytes() {
+		long bytes = 0;
+		for (Edge edge : edges) {
+			bytes += Math.max(edge.bytes, Long.highestOneBit(edge.capacity * 2L - 1) * 8);
+		} // Queues grow by powers of two.
+		return bytes;
+	}
+	
+	/**
+	 * Returns delayBytes.
+	 *
+	 * @return	long	The number of bytes taken by the delay lines.
+	 */
+	public long getDelayBytes() {
+		return delayBytes;
+	}
+	
+	/**
+	 * Returns the memory of the filter's samples: queues and delay lines.
+	 *
+	 * @return	long	The number of bytes.
+	 */
+	public long getTotalBytes() {
+		return getQueueBytes() + delayBytes;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d edge(s), high water %d, %d byte(s) of queues (at most %d), %d " +
+				"byte(s) of delay lines.", edges.size(), getHighWater(), getQueueBytes(),
+				getMaxQueueBytes(), delayBytes);
+	}
+}
@@ -0,0 +1,224 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.lemal.oop.filters.Denormals;
+import be.uliege.lemal.oop.filters.TrustedFilter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The FDNReverb class. It implements a feedback delay network reverberator: several delay lines
+ * whose outputs are mixed by an orthogonal matrix and fed back into their inputs.
+ * Unlike the other reverberators of this package, it is not built from blocks. It computes one
+ * step directly, which makes it much cheaper than Reverb or JCRev for the same echo density.
+ * The feedback matrix is a Hadamard matrix when the number of delay lines is a power of two
+ * (applied in O(N log N)), and a Householder matrix otherwise (applied in O(N)).
+ * Each delay line has its own low-pass filter, so that high frequencies decay faster.
+ */
+public class FDNReverb implements TrustedFilter {
+	public static final int SAMPLE_RATE = 44100;
+	private static final int[] LENGTHS = new int[]{1433, 1601, 1867, 2053, 2251, 2399, 2617,
+			2801, 3011, 3217, 3407, 3571, 3719, 3907, 4133, 4349};
+	// Prime lengths, so that the echoes of the delay lines do not pile up.
+	
+	private final int n;
+	private final boolean hadamard;
+	private final int[] delay, mask, start;
+	// Delay line i delays by delay[i] samples.
+	// It occupies lines[start[i]] to lines[start[i] + mask[i]].
+	private final double[] lines;
+	private int position = 0;  // The number of steps computed so far, wrapped with the masks.
+	private final double[] gain, damping, lowPass, s;
+	// s holds the outputs of the delay lines during one step.
+	private final double outGain;
+	
+	/**
+	 * @param	nbLines			The number of delay lines, between 4 and 16.
+	 * @param	reverbTime		The time, in seconds, it takes for the reverberation to decay by
+	 * 							60 dB.
+	 * @param	damping			How much high frequencies are damped by each delay line, in [0, 1).
+	 * @throws	FilterException	Thrown if nbLines is out of range, if reverbTime is nonpositive or
+	 * 							if damping is outside [0, 1).
+	 */
+	public FDNReverb(int nbLines, double reverbTime, double damping) throws FilterException {
+		if (nbLines < 4 || nbLines > LENGTHS.length) {
+			throw new FilterException(String.format("Tried to create FDN reverberator with %d " +
+					"delay lines. Must be between 4 and %d.", nbLines, LENGTHS.length));
+		}
+		if (reverbTime <= 0) {
+			throw new FilterException("Tried to create FDN reverberator with nonpositive " +
+					"reverberation time.");
+		}
+		if (damping < 0 || damping >= 1) {
+			throw new FilterException("Tried to create FDN reverberator with damping outside " +
+					"interval [0, 1)");
+		}
+		
+		n = nbLines;
+		hadamard = Integer.bitCount(n) == 1;
+		delay = new int[n];
+		mask = new int[n];
+		start = new int[n];
+		gain = new double[n];
+		this.damping = new double[n];
+		lowPass = new double[n];
+		s = new double[n];
+		
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			delay[i] = LENGTHS[i * LENGTHS.length / n];  // Spreads the lengths.
+			mask[i] = (Integer.highestOneBit(delay[i]) << 1) - 1;
+			start[i] = size;
+			size += mask[i] + 1;
+			
+			gain[i] = Math.pow(10, -3.0 * delay[i] / (reverbTime * SAMPLE_RATE));
+			// After reverbTime seconds, a sample went through the line reverbTime * SAMPLE_RATE /
+			// delay[i] times, and lost 60 dB in total.
+			this.damping[i] = damping;
+		}
+		lines = new double[size];  // All delay lines share one array.
+		outGain = 1 / Math.sqrt(n);
+	}
+	
+	/**
+	 * Creates a new FDN reverberator with 8 delay lines, whose reverberation decays by 60 dB in
+	 * 2 seconds.
+	 *
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	public FDNReverb() throws FilterException {
+		this(8, 2, 0.2);
+	}
+	
+	/**
+	 * Returns the number of inputs/outputs expected by a FDN reverberator.
+	 *
+	 * @return	int	The expected number of inputs/outputs.
+	 */
+	public int nbInputs() {
+		return 1;
+	}
+	
+	public int nbOutputs() {
+		return 1;
+	}
+	
+	/**
+	 * Resets the FDN reverberator by clearing its delay lines and low-pass filters.
+	 */
+	public void reset() {
+		for (int i = 0; i < lines.length; i++) lines[i] = 0;
+		for (int i = 0; i < n; i++) lowPass[i] = 0;
+		position = 0;
+	}
+	
+	/**
+	 * Returns the largest absolute value held by the delay lines and low-pass filters.
+	 *
+	 * @return	double	The peak of the state of the filter.
+	 */
+	public double peak() {
+		double peak = 0;
+		for (double sample : lines) peak = Math.max(peak, Math.abs(sample));
+		for (int i = 0; i < n; i++) peak = Math.max(peak, Math.abs(lowPass[i]));
+		return peak;
+	}
+	
+	/**
+	 * Returns the number of samples held by the delay lines of this filter.
+	 *
+	 * @return	long	The number of samples.
+	 */
+	public long stateSize() {
+		return lines.length + n;
+	}
+	
+	/**
+	 * Applies the reverberator to one sample.
+	 *
+	 * @param	input			An array containing the sample.
+	 * @return	double[]		An array containing the reverberated sample.
+	 * @throws	FilterException	Thrown if input is null or if the length of input
+	 * 							does not match the expected number of inputs.
+	 */
+	public double[] computeOneStep(double[] input) throws FilterException {
+		if (input == null) {
+			throw new FilterException("Provided null input to FDN reverberator.");
+		}
+		if (input.length != nbInputs()) {
+			throw new FilterException(String.format("Provided %d inputs to FDN reverberator. It " +
+					"expects exactly one input.", input.length));
+		}
+		
+		return computeOneStepTrusted(input);
+	}
+	
+	/**
+	 * Same as computeOneStep, without validating input.
+	 *
+	 * @param	input		An array containing the sample.
+	 * @return	double[]	An array containing the reverberated sample.
+	 */
+	public double[] computeOneStepTrusted(double[] input) {
+		double[] output = new double[1];
+		computeOneStepTrusted(input, output);
+		return output;
+	}
+	
+	/**
+	 * Same as computeOneStepTrusted(input), writing the reverberated sample in output.
+	 *
+	 * @param	input	An array containing the sample.
+	 * @param	output	An array the reverberated sample is written in.
+	 */
+	public void computeOneStepTrusted(double[] input, double[] output) {
+		double out = 0;
+		for (int i = 0; i < n; i++) {
+			double read = lines[start[i] + ((position - delay[i]) & mask[i])];
+			lowPass[i] = Denormals.flush((1 - damping[i]) * read + damping[i] * lowPass[i]);
+			s[i] = gain[i] * lowPass[i];
+			out += s[i];
+		} // Reads, damps and attenuates the output of each delay line.
+		
+		if (hadamard) hadamard();
+		else householder();
+		
+		for (int i = 0; i < n; i++) {
+			lines[start[i] + (position & mask[i])] = Denormals.flush(input[0] + s[i]);
+		} // Writes the input and the mixed outputs in the delay lines.
+		// Both are flushed, so that the network never goes subnormal (see the Denormals class).
+		position++;
+		
+		output[0] = outGain * out;
+	}
+	
+	/**
+	 * Multiplies s by the normalised Hadamard matrix of size n (fast Walsh-Hadamard transform).
+	 */
+	private void hadamard() {
+		for (int h = 1; h < n; h <<= 1) {
+			for (int i = 0; i < n; i += h << 1) {
+				for (int j = i; j < i + h; j++) {
+					double a = s[j], b = s[j + h];
+					s[j] = a + b;
+					s[j + h] = a - b;
+				}
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			s[i] *= outGain;
+		} // 1 / sqrt(n) makes the matrix orthogonal.
+	}
+	
+	/**
+	 * Multiplies s by the Householder matrix I - 2/n * ones, which is orthogonal.
+	 */
+	private void householder() {
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += s[i];
+		}
+		sum *= 2.0 / n;
+		for (int i = 0; i < n; i++) {
+			s[i] -= sum;
+		}
+	}
+}
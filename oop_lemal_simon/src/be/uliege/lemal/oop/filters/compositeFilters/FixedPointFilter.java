@@ -0,0 +1,254 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The FixedPointFilter class. It is a state-space filter (see StateSpaceFilter) computed with
+ * integers only, on 16-bit PCM samples: inputs and outputs are Q15 numbers (shorts, full scale
+ * being 32768), as decoded from and encoded to WAV files, so that no sample is converted to a
+ * floating-point number.
+ * Delay lines hold either Q31 numbers (ints, 4 bytes per sample) or Q15 numbers (shorts, 2 bytes
+ * per sample, a quarter of the doubles of the other filters). Coefficients are Q4.27 numbers
+ * (between -16 and 16). Each row is accumulated exactly in a long, then rounded once to the
+ * precision of its destination. Values that do not fit are saturated to the largest value of
+ * their format instead of wrapping around, and counted (see getSaturations).
+ * Q15 delay lines round every sample of a feedback loop to 16 bits, so their error is much
+ * larger than that of Q31 ones (see FixedPointCheck).
+ */
+public class FixedPointFilter {
+	public static final int COEFFICIENT_BITS = 27;
+	private static final double MAX_ROW = 16;
+	// The sum of the absolute coefficients of a row, below which its accumulator cannot overflow:
+	// products are below 2^31 * 2^31 * 16 = 2^62 in total.
+	
+	private final int nbInputs, nbOutputs;
+	private final int[] lineOffset, lineMask, tapLine, tapDelay, rowStart, column;
+	private final int[] coefficient;
+	private final int[] wide;  // The delay lines in Q31, or null.
+	private final short[] narrow;  // The delay lines in Q15, or null.
+	private final int[] variables;  // The inputs and the taps, in Q31.
+	private int time = 0;
+	private long saturations = 0;
+	
+	/**
+	 * Creates a fixed-point filter from the compiled form of a state-space filter, with empty
+	 * delay lines (see StateSpaceFilter.toFixedPoint).
+	 *
+	 * @throws	FilterException	Thrown if bits is neither 15 nor 31, or if the coefficients of a
+	 * 							row are too large for its accumulator.
+	 */
+	FixedPointFilter(int nbInputs, int nbOutputs, int[] lineOffset, int[] lineMask,
+			int[] tapLine, int[] tapDelay, int[] rowStart, int[] column, double[] coefficient,
+			int size, int bits) throws FilterException {
+		if (bits != 15 && bits != 31) {
+			throw new FilterException("Fixed-point delay lines must hold Q15 or Q31 numbers.");
+		}
+		for (int r = 0; r + 1 < rowStart.length; r++) {
+			double sum = 0;
+			for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+				sum += Math.abs(coefficient[k]);
+			}
+			if (sum >= MAX_ROW) {
+				throw new FilterException(String.format("Cannot compute filter in fixed point: " +
+						"the coefficients of a row add up to %.2f, at least %.0f.", sum, MAX_ROW));
+			}
+		}
+		
+		this.nbInputs = nbInputs;
+		this.nbOutputs = nbOutputs;
+		this.lineOffset = lineOffset;
+		this.lineMask = lineMask;
+		this.tapLine = tapLine;
+		this.tapDelay = tapDelay;
+		this.rowStart = rowStart;
+		this.column = column;
+		this.coefficient = new int[coefficient.length];
+		for (int k = 0; k < coefficient.length; k++) {
+			this.coefficient[k] = (int) Math.round(Math.scalb(coefficient[k], COEFFICIENT_BITS));
+		}
+		wide = bits == 31 ? new int[size] : null;
+		narrow = bits == 15 ? new short[size] : null;
+		variables = new int[nbInputs + tapLine.length];
+	}
+	
+	public int nbInputs() {
+		return nbInputs;
+	}
+	
+	public int nbOutputs() {
+		return nbOutputs;
+	}
+	
+	/**
+	 * Returns the precision of the delay lines.
+	 *
+	 * @return	int	15 or 31, the number of fractional bits of their samples.
+	 */
+	public int getBits() {
+		return wide != null ? 31 : 15;
+	}
+	
+	/**
+	 * Returns the number of samples held by the delay lines of this filter.
+	 *
+	 * @return	long	The number of samples.
+	 */
+	public long stateSize() {
+		return wide != null ? wide.length : narrow.length;
+	}
+	
+	/**
+	 * Returns the number of bytes held by the delay lines of this filter.
+	 *
+	 * @return	long	The number of bytes, 4 or 2 per sample.
+	 */
+	public long stateBytes() {
+		return stateSize() * (wide != null ? 4 : 2);
+	}
+	
+	/**
+	 * Returns the number of values that were saturated since the filter was created or reset.
+	 *
+	 * @return	long	The number of saturated outputs and delay line samples.
+	 */
+	public long getSaturations() {
+		return saturations;
+	}
+	
+	/**
+	 * Empties the delay lines.
+	 */
+	public void reset() {
+		if (wide != null) {
+			for (int i = 0; i < wide.length; i++) {
+				wide[i] = 0;
+			}
+		}
+		else {
+			for (int i = 0; i < narrow.length; i++) {
+				narrow[i] = 0;
+			}
+		}
+		time = 0;
+		saturations = 0;
+	}
+	
+	/**
+	 * Applies the filter to one sample per input, and writes one sample per output.
+	 *
+	 * @param	input			The input samples, in Q15.
+	 * @param	output			An array the output samples are written in, in Q15.
+	 * @throws	FilterException	Thrown if input or output is null or does not match the filter.
+	 */
+	public void computeOneStep(short[] input, short[] output) throws FilterException {
+		if (input == null || output == null) {
+			throw new FilterException("Provided null input or output to fixed-point filter.");
+		}
+		if (input.length != nbInputs || output.length != nbOutputs) {
+			throw new FilterException(String.format("Provided %d input(s) and %d output(s) to " +
+					"fixed-point filter. It expects exactly %d input(s) and %d output(s).",
+					input.length, output.length, nbInputs, nbOutputs));
+		}
+		
+		process(input, 0, output, 0, 1);
+	}
+	
+	/**
+	 * Applies the filter to frames of interleaved samples: frame j of input holds one sample per
+	 * input, from input[inOffset + j * nbInputs()], and frame j of output one sample per output,
+	 * from output[outOffset + j * nbOutputs()]. This is the layout of 16-bit PCM audio.
+	 *
+	 * @param	input			The input samples, in Q15.
+	 * @param	inOffset		The index of the first input sample.
+	 * @param	output			An array the output samples are written in, in Q15.
+	 * @param	outOffset		The index the first output sample is written at.
+	 * @param	frames			The number of frames.
+	 * @throws	FilterException	Thrown if input or output is null or too short.
+	 */
+	public void process(short[] input, int inOffset, short[] output, int outOffset, int frames)
+			throws FilterException {
+		if (input == null || output == null) {
+			throw new FilterException("Provided null input or output to fixed-point filter.");
+		}
+		if (frames < 0 || inOffset < 0 || outOffset < 0
+				|| inOffset + (long) frames * nbInputs > input.length
+				|| outOffset + (long) frames * nbOutputs > output.length) {
+			throw new FilterException("Provided input or output too short to fixed-point filter.");
+		}
+		
+		for (int j = 0; j < frames; j++) {
+			for (int i = 0; i < nbInputs; i++) {
+				variables[i] = input[inOffset++] << 16;
+			}
+			step(output, outOffset);
+			outOffset += nbOutputs;
+		}
+	}
+	
+	/**
+	 * Applies the filter to the inputs in variables, and writes the outputs from output[offset].
+	 */
+	private void step(short[] output, int offset) {
+		for (int t = 0; t < tapLine.length; t++) {
+			int l = tapLine[t];
+			int index = lineOffset[l] + ((time - tapDelay[t]) & lineMask[l]);
+			variables[nbInputs + t] = wide != null ? wide[index] : narrow[index] << 16;
+		} // Reads the taps, written tapDelay[t] steps ago.
+		
+		for (int r = 0; r < nbOutputs; r++) {
+			output[offset + r] = toQ15(row(r));
+		}
+		for (int l = 0; l < lineOffset.length; l++) {
+			int index = lineOffset[l] + (time & lineMask[l]);
+			if (wide != null) wide[index] = toQ31(row(nbOutputs + l));
+			else narrow[index] = toQ15(row(nbOutputs + l));
+		} // Taps were read first, so writing the lines cannot overwrite a sample still needed.
+		time++;
+	}
+	
+	/**
+	 * Returns the value of row r for the current variables.
+	 *
+	 * @param	r		The row.
+	 * @return	long	The sparse dot product of the row and the variables, in Q31 (not
+	 * 					saturated yet).
+	 */
+	private long row(int r) {
+		long value = 0;
+		for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+			value += (long) coefficient[k] * variables[column[k]];
+		}
+		return (value + (1L << (COEFFICIENT_BITS - 1))) >> COEFFICIENT_BITS;
+	}
+	
+	/**
+	 * Returns value saturated to a Q31 number.
+	 */
+	private int toQ31(long value) {
+		if (value > Integer.MAX_VALUE) {
+			saturations++;
+			return Integer.MAX_VALUE;
+		}
+		if (value < Integer.MIN_VALUE) {
+			saturations++;
+			return Integer.MIN_VALUE;
+		}
+		return (int) value;
+	}
+	
+	/**
+	 * Returns value, a Q31 number, rounded and saturated to a Q15 number.
+	 */
+	private short toQ15(long value) {
+		value = (value + (1L << 15)) >> 16;
+		if (value > Short.MAX_VALUE) {
+			saturations++;
+			return Short.MAX_VALUE;
+		}
+		if (value < Short.MIN_VALUE) {
+			saturations++;
+			return Short.MIN_VALUE;
+		}
+		return (short) value;
+	}
+}
@@ -0,0 +1,64 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The ImpulseResponse class. It measures how long filters ring, by applying them to an impulse.
+ */
+public class ImpulseResponse {
+	public static final int MIN_QUIET = 4410;  // 0.1 second at 44.1 kHz.
+	
+	private ImpulseResponse() {
+	} // This class only has static methods.
+	
+	/**
+	 * Returns the number of samples after which the impulse response of f stays below threshold.
+	 * The response is considered over once it stayed below the threshold for as long as it lasted
+	 * so far, and at least as long as all delays of f together (an echo cannot come later than
+	 * that) or MIN_QUIET samples. At most max samples are measured: if the response is not over
+	 * by then, its length is not known. f is reset afterwards.
+	 * Only the first input is fed the impulse. The response is measured on all outputs.
+	 *
+	 * @param	f				The filter.
+	 * @param	threshold		The threshold, in dB relative to the peak of the response.
+	 * @param	max				The largest number of samples measured.
+	 * @return	int				The length of the impulse response, or -1 if it is not over
+	 * 							after max samples.
+	 * @throws	FilterException	Thrown if f throws an exception.
+	 */
+	public static int length(Filter f, double threshold, int max) throws FilterException {
+		double ratio = Math.pow(10, threshold / 20);
+		double[] in = new double[f.nbInputs()];
+		if (in.length > 0) in[0] = 1;
+		double peak = 0;
+		int last = 0;
+		long quiet = Math.max(MIN_QUIET, stateSize(f));
+		int j = 0;
+		for (; j < max && j < 2L * last + quiet; j++) {
+			for (double y : f.computeOneStep(in)) {
+				y = Math.abs(y);
+				peak = Math.max(peak, y);
+				if (y > ratio * peak) last = j + 1;
+			}
+			if (in.length > 0) in[0] = 0;
+		}
+		f.reset();
+		return j < 2L * last + quiet ? -1 : last;  // Stopped by max before the response was over.
+	}
+	
+	/**
+	 * Returns the number of samples held by the delay lines of f.
+	 *
+	 * @param	f		The filter.
+	 * @return	long	The number of samples.
+	 */
+	private static long stateSize(Filter f) {
+		if (f instanceof CompositeFilter) return ((CompositeFilter) f).stateSize();
+		if (f instanceof FDNReverb) return ((FDNReverb) f).stateSize();
+		if (f instanceof StateSpaceFilter) return ((StateSpaceFilter) f).stateSize();
+		if (f instanceof DelayFilter) return ((DelayFilter) f).getCapacity();
+		return 0;
+	}
+}
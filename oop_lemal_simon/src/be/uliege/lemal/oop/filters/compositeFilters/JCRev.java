@@ -1,6 +1,9 @@
 package be.uliege.lemal.oop.filters.compositeFilters;
 
+import be.uliege.lemal.oop.filters.elementaryFilters.AdditionFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
 import be.uliege.lemal.oop.filters.elementaryFilters.MeanFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MultiTapDelayFilter;
 import be.uliege.montefiore.oop.audio.Filter;
 import be.uliege.montefiore.oop.audio.FilterException;
 
@@ -10,6 +13,9 @@ import be.uliege.montefiore.oop.audio.FilterException;
  * https://ccrma.stanford.edu/~jos/pasp05/Schroeder_Reverberator_called_JCRev.html
  */
 public class JCRev extends CompositeFilter {
+	protected final GainFilter[] comb = new GainFilter[4];
+	// The gains of the comb filters. Kept so that their decays can be changed while filtering.
+	
 	/**
 	 * @throws	FilterException	In practice, this should never be thrown.
 	 * 							This constructor takes no input from the user.
@@ -30,17 +36,24 @@ public class JCRev extends CompositeFilter {
 			seq.connectBlockToOutput(all[2], 0, 0);
 			
 			// Block of parallel comb filters
+			// They are built as in CombFilter, except their delays all read the same input, so
+			// they share one multi-tap delay filter instead of keeping four copies of it.
 			CompositeFilter par = new CompositeFilter();
-			Filter comb;
 			Filter mean = new MeanFilter(4);
+			Filter wait = new MultiTapDelayFilter(new int[]{8467, 8819, 9521, 10233});
 			par.addBlock(mean);
-			int[] wait = new int[]{8467, 8819, 9521, 10233};
+			par.addBlock(wait);
+			par.connectInputToBlock(0, wait, 0);
 			double[] decay = new double[]{0.742, 0.733, 0.715, 0.697};
 			for (int i = 0; i < 4; i++) {
-				comb = new CombFilter(wait[i], decay[i]);
-				par.addBlock(comb);
-				par.connectInputToBlock(0, comb, 0);
-				par.connectBlockToBlock(comb, 0, mean, i);
+				Filter add = new AdditionFilter();
+				comb[i] = new GainFilter(1 - decay[i]);
+				par.addBlock(add);
+				par.addBlock(comb[i]);
+				par.connectInputToBlock(0, add, 0);
+				par.connectBlockToBlock(wait, i, comb[i], 0);
+				par.connectBlockToBlock(comb[i], 0, add, 1);
+				par.connectBlockToBlock(add, 0, mean, i);
 			}
 			par.connectBlockToOutput(mean, 0, 0);
 			
@@ -57,4 +70,24 @@ public class JCRev extends CompositeFilter {
 			// In practice, no exception should be thrown here.
 		}
 	}
+	
+	/**
+	 * Changes the decay of one of the four parallel comb filters. The change is interpolated over
+	 * a few samples and can be made from another thread while the filter is being applied.
+	 *
+	 * @param	i				The number of the comb filter, between 0 and 4 (excluded).
+	 * @param	decay			The new decay of the comb filter.
+	 * @throws	FilterException	Thrown if i is out of range or if decay is outside (0, 1).
+	 */
+	public void setCombDecay(int i, double decay) throws FilterException {
+		if (i < 0 || i >= comb.length) {
+			throw new FilterException(String.format("Comb filter number %d is out of range for " +
+					"JC reverberator. Must be between 0 and %d (excluded).", i, comb.length));
+		}
+		if (decay <= 0 || decay >= 1) {
+			throw new FilterException("Tried to set comb filter decay outside interval (0, 1)");
+		}
+		
+		comb[i].setFactor(1 - decay);
+	}
 }
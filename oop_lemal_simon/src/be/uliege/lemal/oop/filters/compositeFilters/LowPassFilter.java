@@ -1,5 +1,6 @@
 package be.uliege.lemal.oop.filters.compositeFilters;
 
+import be.uliege.lemal.oop.filters.SmoothedParameter;
 import be.uliege.lemal.oop.filters.elementaryFilters.AdditionFilter;
 import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
 import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
@@ -10,6 +11,11 @@ import be.uliege.montefiore.oop.audio.FilterException;
  * The LowPassFilter class. When applied to an audio sequence, it attenuates higher frequencies.
  */
 public class LowPassFilter extends CompositeFilter {
+	protected final GainFilter invert, mult;
+	// Kept so that the gain can be changed while filtering.
+	private final SmoothedParameter gain;  // Both gains are set from it, at the same step.
+	private double applied;  // The gain invert and mult were last set from.
+	
 	/**
 	 * @param	delay			The delay to provide to the nested delay filter.
 	 * @param	gain			The gain to provide to the nested gain filters.
@@ -25,10 +31,13 @@ public class LowPassFilter extends CompositeFilter {
 		}
 		
 		try {
-			Filter invert = new GainFilter(1 - gain);
+			this.gain = new SmoothedParameter(gain);
+			applied = gain;
+			invert = new GainFilter(1 - gain, 0);
 			Filter add = new AdditionFilter();
 			Filter wait = new DelayFilter(delay);
-			Filter mult = new GainFilter(gain);
+			mult = new GainFilter(gain, 0);
+			// They follow the smoothed gain, so they apply their factors at once.
 			
 			addBlock(invert);
 			addBlock(add);
@@ -48,4 +57,37 @@ public class LowPassFilter extends CompositeFilter {
 			// In practice, no exception should be thrown here.
 		}
 	}
+	
+	/**
+	 * Changes the gain of the low-pass filter. The change is interpolated over a few samples and
+	 * can be made from another thread while the filter is being applied. The gains of the filter
+	 * keep adding up to 1 while they change, so that its gain at low frequencies stays 1.
+	 *
+	 * @param	gain			The new gain.
+	 * @throws	FilterException	Thrown if gain is outside (0, 1).
+	 */
+	public void setGain(double gain) throws FilterException {
+		if (gain <= 0 || gain >= 1) {
+			throw new FilterException("Tried to set low-pass filter gain outside interval (0, 1)");
+		}
+		
+		this.gain.set(gain);
+	}
+	
+	@Override
+	protected void beforeStep() {
+		double g = gain.next();
+		if (g != applied) {
+			applied = g;
+			invert.setFactor(1 - g);
+			mult.setFactor(g);
+		}
+	}
+	
+	@Override
+	public void reset() {
+		gain.jump();
+		beforeStep();
+		super.reset();
+	}
 }
@@ -0,0 +1,223 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.lemal.oop.filters.TrustedFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The MultirateFilter class. It applies a filter at a fraction up / down of the sample rate, so
+ * that stages that only handle low frequencies (e.g. damped feedback) are applied fewer times per
+ * second, with delay lines shorter by the same factor: a delay of d samples in the nested filter
+ * lasts d * down / up samples of the signal.
+ * Each input is resampled to the lower rate by a polyphase decimator (see PolyphaseResampler),
+ * which removes the frequencies the lower rate cannot represent, and each output of the nested
+ * filter is resampled back by a polyphase interpolator. The outputs are delayed by latency()
+ * samples, and hold no frequency above CUTOFF times the Nyquist frequency of the lower rate.
+ * It can be added as a block to composite filters like any other filter.
+ */
+public class MultirateFilter implements TrustedFilter {
+	private final Filter filter;
+	private final int up, down;
+	private final PolyphaseResampler[] decimators, interpolators;
+	private final double[][] decimated;  // decimated[i] are the samples decimator i completed.
+	private final double[] low, lowOutput, interpolated;
+	private final double[][] queue;  // Interpolated samples not output yet, one ring per output.
+	private int first = 0, size = 0;
+	
+	/**
+	 * @param	filter			The nested filter, applied at up / down of the sample rate.
+	 * @param	up				The numerator of the fraction.
+	 * @param	down			The denominator of the fraction.
+	 * @throws	FilterException	Thrown if filter is null or not valid, if it has no input or no
+	 * 							output, or if up or down is nonpositive.
+	 */
+	public MultirateFilter(Filter filter, int up, int down) throws FilterException {
+		if (filter == null) {
+			throw new FilterException("Tried to create multirate filter with null filter.");
+		}
+		if (filter.nbInputs() == 0 || filter.nbOutputs() == 0) {
+			throw new FilterException("Tried to create multirate filter with filter without " +
+					"inputs or outputs.");
+		} // The decimators set the pace of the nested filter.
+		if (filter instanceof CompositeFilter) ((CompositeFilter) filter).check();
+		
+		this.filter = filter;
+		decimators = new PolyphaseResampler[filter.nbInputs()];
+		decimated = new double[decimators.length][];
+		for (int i = 0; i < decimators.length; i++) {
+			decimators[i] = new PolyphaseResampler(up, down);
+			decimated[i] = new double[decimators[i].maxOutputs()];
+		}
+		interpolators = new PolyphaseResampler[filter.nbOutputs()];
+		for (int o = 0; o < interpolators.length; o++) {
+			interpolators[o] = new PolyphaseResampler(down, up);
+		}
+		this.up = decimators[0].getUp();
+		this.down = decimators[0].getDown();
+		low = new double[decimators.length];
+		lowOutput = new double[interpolators.length];
+		interpolated = new double[interpolators[0].maxOutputs()];
+		queue = new double[interpolators.length][interpolated.length + 2];
+		// At most ceil(down / up) + 1 samples are waiting after a step (see computeOneStep).
+	}
+	
+	/**
+	 * Returns filter.
+	 *
+	 * @return	Filter	The nested filter.
+	 */
+	public Filter getFilter() {
+		return filter;
+	}
+	
+	/**
+	 * Returns the numerator of the fraction of the sample rate the nested filter is applied at.
+	 *
+	 * @return	int	The numerator, divided by the greatest common divisor.
+	 */
+	public int getUp() {
+		return up;
+	}
+	
+	/**
+	 * Returns the denominator of the fraction of the sample rate the nested filter is applied at.
+	 *
+	 * @return	int	The denominator, divided by the greatest common divisor.
+	 */
+	public int getDown() {
+		return down;
+	}
+	
+	/**
+	 * Returns the delay the resamplers add to the nested filter, in samples.
+	 *
+	 * @return	double	The delay.
+	 */
+	public double latency() {
+		return decimators[0].latency() * down / up + interpolators[0].latency();
+	}
+	
+	/**
+	 * Returns the number of samples held by the delay lines of the nested filter (see
+	 * CompositeFilter.stateSize) and by the resamplers. Delay lines are shorter by up / down than
+	 * they would be at the full rate.
+	 *
+	 * @return	long	The number of samples.
+	 */
+	public long stateSize() {
+		long size = CompositeFilter.stateSize(filter);
+		for (PolyphaseResampler decimator : decimators) {
+			size += decimator.stateSize();
+		}
+		for (PolyphaseResampler interpolator : interpolators) {
+			size += interpolator.stateSize();
+		}
+		return size;
+	}
+	
+	public int nbInputs() {
+		return filter.nbInputs();
+	}
+	
+	public int nbOutputs() {
+		return filter.nbOutputs();
+	}
+	
+	/**
+	 * Resets the nested filter and the resamplers.
+	 */
+	public void reset() {
+		filter.reset();
+		for (PolyphaseResampler decimator : decimators) {
+			decimator.reset();
+		}
+		for (PolyphaseResampler interpolator : interpolators) {
+			interpolator.reset();
+		}
+		first = 0;
+		size = 0;
+	}
+	
+	/**
+	 * Applies the filter to input and returns the output.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @return	double[]		The output the filter returned.
+	 * @throws	FilterException	Thrown if input is null or if the length of input does not match
+	 * 							the expected number of inputs, or if the nested filter throws an
+	 * 							exception.
+	 */
+	public double[] computeOneStep(double[] input) throws FilterException {
+		if (input == null) {
+			throw new FilterException("Provided null input to multirate filter.");
+		}
+		if (input.length != nbInputs()) {
+			throw new FilterException(String.format("Provided %d input(s) to multirate filter." +
+					" It expects exactly %d input(s).", input.length, nbInputs()));
+		}
+		
+		return computeOneStepTrusted(input);
+	}
+	
+	/**
+	 * Same as computeOneStep, without validating input.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @return	double[]		The output the filter returned.
+	 * @throws	FilterException	Thrown if the nested filter throws an exception.
+	 */
+	public double[] computeOneStepTrusted(double[] input) throws FilterException {
+		double[] output = new double[nbOutputs()];
+		computeOneStepTrusted(input, output);
+		return output;
+	}
+	
+	/**
+	 * Same as computeOneStepTrusted(input), writing the output in output.
+	 * Whenever the decimators complete a sample, the nested filter is applied to it and the
+	 * interpolators turn its output into about down / up samples, queued. Each step outputs the
+	 * first queued sample. After t steps, the interpolators have completed at least t samples
+	 * (and fewer than t + down / up + 1), so the queue is never empty when it is read.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @param	output			An array the output of the filter is written in.
+	 * @throws	FilterException	Thrown if the nested filter throws an exception.
+	 */
+	public void computeOneStepTrusted(double[] input, double[] output) throws FilterException {
+		int count = 0;
+		for (int i = 0; i < decimators.length; i++) {
+			count = decimators[i].push(input[i], decimated[i]);
+		} // All decimators complete the same number of samples (at most one, if up <= down).
+		for (int k = 0; k < count; k++) {
+			for (int i = 0; i < decimators.length; i++) {
+				low[i] = decimated[i][k];
+			}
+			lowStep();
+		}
+		
+		for (int o = 0; o < output.length; o++) {
+			output[o] = queue[o][first];
+		}
+		first = first == queue[0].length - 1 ? 0 : first + 1;
+		size--;
+	}
+	
+	/**
+	 * Applies the nested filter to low, and queues the interpolated outputs.
+	 */
+	private void lowStep() throws FilterException {
+		if (filter instanceof TrustedFilter) {
+			((TrustedFilter) filter).computeOneStepTrusted(low, lowOutput);
+		}
+		else System.arraycopy(filter.computeOneStep(low), 0, lowOutput, 0, lowOutput.length);
+		
+		int count = 0, capacity = queue[0].length;
+		for (int o = 0; o < interpolators.length; o++) {
+			count = interpolators[o].push(lowOutput[o], interpolated);
+			for (int k = 0; k < count; k++) {
+				queue[o][(first + size + k) % capacity] = interpolated[k];
+			}
+		} // All interpolators complete the same number of samples.
+		size += count;
+	}
+}
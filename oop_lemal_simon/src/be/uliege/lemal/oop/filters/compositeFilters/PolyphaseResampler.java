@@ -0,0 +1,149 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The PolyphaseResampler class. It changes the sample rate of a signal by a rational factor
+ * up / down: it behaves as if up - 1 zeros were inserted after each input sample, the result was
+ * low-pass filtered (below the lower of both Nyquist frequencies) and only one sample out of down
+ * was kept. The low-pass filter is a windowed sinc split into up phases, so that only the
+ * products that are kept are computed: each output sample costs one phase, tapsPerPhase
+ * multiply-adds. With up = 1 it is a decimator, with down = 1 an interpolator.
+ * Samples are pushed one by one, and the output samples they complete are returned right away.
+ * This allocates nothing.
+ */
+public class PolyphaseResampler {
+	public static final int TAPS = 16;  // Taps of the prototype filter per unit of max(up, down).
+	public static final double CUTOFF = 0.9;  // Cutoff, relative to the lower Nyquist frequency.
+	
+	private final int up, down, tapsPerPhase;
+	private final double[][] phases;  // phases[p][k] is tap p + k * up of the prototype filter.
+	private final double[] history;  // The last tapsPerPhase input samples, as a ring.
+	private int position = 0;  // Where the next input sample is written in history.
+	private int offset = 0;
+	// The upsampled index of the next output sample, minus the one of the next input sample.
+	
+	/**
+	 * @param	up				The upsampling factor.
+	 * @param	down			The downsampling factor.
+	 * @throws	FilterException	Thrown if up or down is nonpositive.
+	 */
+	public PolyphaseResampler(int up, int down) throws FilterException {
+		if (up <= 0 || down <= 0) {
+			throw new FilterException("Tried to create resampler with nonpositive factor.");
+		}
+		int gcd = gcd(up, down);
+		this.up = up / gcd;
+		this.down = down / gcd;
+		
+		int max = Math.max(this.up, this.down);
+		tapsPerPhase = (TAPS * max + this.up - 1) / this.up;
+		int length = tapsPerPhase * this.up;
+		double cutoff = CUTOFF / max, center = (length - 1) / 2.0;
+		// cutoff is relative to the Nyquist frequency of the upsampled signal.
+		phases = new double[this.up][tapsPerPhase];
+		for (int n = 0; n < length; n++) {
+			double x = cutoff * (n - center);
+			double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+			double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * (n + 0.5) / length)
+					+ 0.08 * Math.cos(4 * Math.PI * (n + 0.5) / length);  // Blackman.
+			phases[n % this.up][n / this.up] = this.up * cutoff * sinc * window;
+		} // The gain is up, since inserting zeros divides the level of the signal by up.
+		history = new double[tapsPerPhase];
+	}
+	
+	/**
+	 * Returns the upsampling factor, divided by the greatest common divisor of both factors.
+	 *
+	 * @return	int	The factor.
+	 */
+	public int getUp() {
+		return up;
+	}
+	
+	/**
+	 * Returns the downsampling factor, divided by the greatest common divisor of both factors.
+	 *
+	 * @return	int	The factor.
+	 */
+	public int getDown() {
+		return down;
+	}
+	
+	/**
+	 * Returns the largest number of output samples one input sample completes.
+	 *
+	 * @return	int	ceil(up / down).
+	 */
+	public int maxOutputs() {
+		return (up + down - 1) / down;
+	}
+	
+	/**
+	 * Returns the delay of the resampler, at the output rate. The prototype filter is
+	 * symmetric, so all frequencies are delayed by the same time.
+	 *
+	 * @return	double	The delay, in output samples.
+	 */
+	public double latency() {
+		return (tapsPerPhase * up - 1) / 2.0 / down;
+	}
+	
+	/**
+	 * Returns the number of input samples the resampler keeps.
+	 *
+	 * @return	int	The size of its state.
+	 */
+	public int stateSize() {
+		return history.length;
+	}
+	
+	/**
+	 * Pushes an input sample, and writes the output samples it completes in output.
+	 *
+	 * @param	sample	The input sample.
+	 * @param	output	An array of at least maxOutputs() samples.
+	 * @return	int		The number of output samples written.
+	 */
+	public int push(double sample, double[] output) {
+		history[position] = sample;
+		int count = 0;
+		while (offset < up) {
+			double[] taps = phases[offset];
+			double sum = 0;
+			int j = position;
+			for (int k = 0; k < tapsPerPhase; k++) {
+				sum += taps[k] * history[j];
+				j = j == 0 ? tapsPerPhase - 1 : j - 1;
+			} // Tap offset + k * up multiplies the input sample pushed k samples ago.
+			output[count++] = sum;
+			offset += down;
+		} // Output samples whose upsampled index is between this input sample and the next one.
+		offset -= up;
+		position = position == tapsPerPhase - 1 ? 0 : position + 1;
+		return count;
+	}
+	
+	/**
+	 * Forgets the input samples.
+	 */
+	public void reset() {
+		for (int k = 0; k < history.length; k++) {
+			history[k] = 0;
+		}
+		position = 0;
+		offset = 0;
+	}
+	
+	/**
+	 * Returns the greatest common divisor of a and b, both positive.
+	 */
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int r = a % b;
+			a = b;
+			b = r;
+		}
+		return a;
+	}
+}
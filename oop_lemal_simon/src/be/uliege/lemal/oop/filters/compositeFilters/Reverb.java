@@ -11,6 +11,10 @@ import be.uliege.montefiore.oop.audio.FilterException;
  * to simulate the reverberation of a large room.
  */
 public class Reverb extends CompositeFilter {
+	protected final GainFilter[] gain = new GainFilter[4];
+	// The gains of the three output taps and of the feedback loop.
+	// Kept so that they can be changed while filtering.
+	
 	/**
 	 * @throws	FilterException	In practice, this should never be thrown.
 	 * 							This constructor takes no input from the user.
@@ -82,7 +86,6 @@ public class Reverb extends CompositeFilter {
 			addBlock(low);
 			
 			double[] factor = new double[]{0.34, 0.14, 0.14, 0.1};
-			Filter[] gain = new Filter[4];
 			for (int i = 0; i < 4; i++) {
 				gain[i] = new GainFilter(factor[i]);
 				addBlock(gain[i]);
@@ -110,4 +113,30 @@ public class Reverb extends CompositeFilter {
 			// In practice, no exception should be thrown here.
 		}
 	}
+	
+	/**
+	 * Changes the gain of one of the taps of the reverberator. Taps 0, 1 and 2 are summed to make
+	 * the output, tap 3 is the gain of the feedback loop. The change is interpolated over a few
+	 * samples and can be made from another thread while the filter is being applied.
+	 * The rest of the loop (all-pass filters, delays and a low-pass filter) never amplifies any
+	 * frequency, so the loop is stable as long as the gain of tap 3 is in (-1, 1).
+	 *
+	 * @param	tap				The number of the tap, between 0 and 4 (excluded).
+	 * @param	factor			The new gain of the tap.
+	 * @throws	FilterException	Thrown if tap is out of range, or if it is tap 3 and factor is
+	 * 							outside (-1, 1).
+	 */
+	public void setTapGain(int tap, double factor) throws FilterException {
+		if (tap < 0 || tap >= gain.length) {
+			throw new FilterException(String.format("Tap number %d is out of range for " +
+					"reverberator. Must be between 0 and %d (excluded).", tap, gain.length));
+		}
+		
+		if (tap == 3 && !(factor > -1 && factor < 1)) {
+			throw new FilterException("Tried to set reverberator feedback gain outside interval " +
+					"(-1, 1)");
+		}
+		
+		gain[tap].setFactor(factor);
+	}
 }
@@ -0,0 +1,631 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.lemal.oop.filters.Denormals;
+import be.uliege.lemal.oop.filters.TrustedFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.blocks.Block;
+import be.uliege.lemal.oop.filters.compositeFilters.blocks.Input;
+import be.uliege.lemal.oop.filters.compositeFilters.blocks.Output;
+import be.uliege.lemal.oop.filters.elementaryFilters.AdditionFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MeanFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MultiTapDelayFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * The StateSpaceFilter class. It is a composite filter made only of gains, additions, means and
+ * delays (possibly nested), compiled to its state-space form.
+ * The only state of such a filter is the content of its delay lines. At every step, each output
+ * and each delay line's input is a linear combination of the inputs of the filter and of the
+ * samples the delay lines output (their taps). These combinations are computed once, when the
+ * filter is compiled, so that applying the filter does not go through blocks at all: it reads the
+ * taps, computes one sparse dot product per output and per delay line, and writes the delay lines.
+ * Gains are compiled with their current factors. Changing them afterwards has no effect on the
+ * compiled filter.
+ */
+public class StateSpaceFilter implements TrustedFilter {
+	private static final int MAGIC = 0x53534631;  // "SSF1", the version of the stored form.
+	private final int nbInputs, nbOutputs;
+	private final int[] lineOffset, lineMask;  // Where each delay line is in buffer.
+	private final int[] tapLine, tapDelay;  // The delay line each tap reads from, and how far back.
+	private final int[] rowStart, column;
+	private final double[] coefficient;
+	// Row r (outputs first, then delay lines' inputs) is the sum of coefficient[k] times variable
+	// column[k] for k from rowStart[r] to rowStart[r + 1] (excluded). Variables are the inputs of
+	// the filter, then the taps.
+	private final double[] buffer;  // All delay lines, one after the other.
+	private final double[] variables;
+	private int time = 0;  // The index of the current step, modulo the size of each delay line.
+	
+	/**
+	 * The Line class. It is a delay line found while compiling: a delay filter (or a multi-tap
+	 * one), with the variable of its first tap and its input's combination.
+	 */
+	private static class Line {
+		private final Block block;
+		private final int firstVariable;
+		private double[] input = null;
+		
+		private Line(Block block, int firstVariable) {
+			this.block = block;
+			this.firstVariable = firstVariable;
+		}
+	}
+	
+	/**
+	 * Compiles f. Its delay lines are not copied: the compiled filter starts with empty ones.
+	 *
+	 * @param	f				The filter to compile.
+	 * @throws	FilterException	Thrown if f is null or is not valid (see CompositeFilter.check) or
+	 * 							if it contains a filter that is not a gain, an addition, a mean,
+	 * 							a delay or a composite filter made of them.
+	 */
+	public StateSpaceFilter(CompositeFilter f) throws FilterException {
+		if (f == null) {
+			throw new FilterException("Tried to compile null filter.");
+		}
+		f.check(false);
+		
+		nbInputs = f.nbInputs();
+		nbOutputs = f.nbOutputs();
+		HashMap<Output, double[]> known = new HashMap<Output, double[]>();
+		for (int i = 0; i < nbInputs; i++) {
+			double[] unit = new double[i + 1];
+			unit[i] = 1;
+			known.put(f.inputs[i], unit);
+		} // Input i of f is variable i.
+		
+		HashMap<Block, Line> lines = new HashMap<Block, Line>();
+		Vector<Line> order = new Vector<Line>();
+		int[] nbVariables = new int[]{nbInputs};
+		
+		Vector<double[]> rows = new Vector<double[]>();
+		for (Input output : f.outputs) {
+			rows.add(combination(output.connectedTo(), known, lines, order, nbVariables));
+		}
+		for (int l = 0; l < order.size(); l++) {
+			Line line = order.get(l);
+			line.input = combination(line.block.readsFrom(0), known, lines, order, nbVariables);
+		} // Lines found while compiling the input of a line are appended to order, then compiled.
+		for (Line line : order) {
+			rows.add(line.input);
+		}
+		
+		lineOffset = new int[order.size()];
+		lineMask = new int[order.size()];
+		tapLine = new int[nbVariables[0] - nbInputs];
+		tapDelay = new int[tapLine.length];
+		long size = 0;
+		for (int l = 0; l < order.size(); l++) {
+			DelayFilter delay = (DelayFilter) order.get(l).block.getFilter();
+			int[] taps = taps(delay);
+			for (int t = 0; t < taps.length; t++) {
+				tapLine[order.get(l).firstVariable - nbInputs + t] = l;
+				tapDelay[order.get(l).firstVariable - nbInputs + t] = taps[t];
+			}
+			lineOffset[l] = (int) size;
+			lineMask[l] = delay.getCapacity() - 1;
+			size += delay.getCapacity();
+			if (size > Integer.MAX_VALUE) {
+				throw new FilterException("Delay lines are too large to compile filter.");
+			}
+		} // Each line keeps the capacity of its delay filter, a power of two larger than its taps.
+		buffer = new double[(int) size];
+		variables = new double[nbVariables[0]];
+		
+		rowStart = new int[rows.size() + 1];
+		int nbTerms = 0;
+		for (int r = 0; r < rows.size(); r++) {
+			for (double c : rows.get(r)) {
+				if (c != 0) nbTerms++;
+			}
+			rowStart[r + 1] = nbTerms;
+		}
+		column = new int[nbTerms];
+		coefficient = new double[nbTerms];
+		int k = 0;
+		for (double[] row : rows) {
+			for (int v = 0; v < row.length; v++) {
+				if (row[v] != 0) {
+					column[k] = v;
+					coefficient[k++] = row[v];
+				}
+			}
+		} // Only nonzero coefficients are kept.
+	}
+	
+	/**
+	 * Creates a new filter with the same compiled form as kernel, and empty delay lines.
+	 *
+	 * @param	kernel	The compiled filter to copy.
+	 */
+	private StateSpaceFilter(StateSpaceFilter kernel) {
+		nbInputs = kernel.nbInputs;
+		nbOutputs = kernel.nbOutputs;
+		lineOffset = kernel.lineOffset;
+		lineMask = kernel.lineMask;
+		tapLine = kernel.tapLine;
+		tapDelay = kernel.tapDelay;
+		rowStart = kernel.rowStart;
+		column = kernel.column;
+		coefficient = kernel.coefficient;
+		// These are never modified, so they are shared.
+		buffer = new double[kernel.buffer.length];
+		variables = new double[kernel.variables.length];
+	}
+	
+	/**
+	 * Creates a new filter from its compiled form, with empty delay lines (see read).
+	 */
+	private StateSpaceFilter(int nbInputs, int nbOutputs, int[] lineMask, int[] tapLine,
+			int[] tapDelay, int[] rowStart, int[] column, double[] coefficient) {
+		this.nbInputs = nbInputs;
+		this.nbOutputs = nbOutputs;
+		this.lineMask = lineMask;
+		this.tapLine = tapLine;
+		this.tapDelay = tapDelay;
+		this.rowStart = rowStart;
+		this.column = column;
+		this.coefficient = coefficient;
+		lineOffset = new int[lineMask.length];
+		int size = 0;
+		for (int l = 0; l < lineMask.length; l++) {
+			lineOffset[l] = size;
+			size += lineMask[l] + 1;
+		} // Lines are stored one after the other, as when compiling.
+		buffer = new double[size];
+		variables = new double[nbInputs + tapLine.length];
+	}
+	
+	/**
+	 * Writes the compiled form of this filter to out, so that it can be read back by another
+	 * process without compiling the composite filter again. The delay lines are not written.
+	 *
+	 * @param	out				The stream.
+	 * @throws	IOException		Thrown if out throws an exception.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(nbInputs);
+		out.writeInt(nbOutputs);
+		writeInts(out, lineMask);
+		writeInts(out, tapLine);
+		writeInts(out, tapDelay);
+		writeInts(out, rowStart);
+		writeInts(out, column);
+		out.writeInt(coefficient.length);
+		for (double c : coefficient) {
+			out.writeDouble(c);
+		}
+	}
+	
+	/**
+	 * Reads a compiled filter written by write. The filter starts with empty delay lines.
+	 *
+	 * @param	in					The stream.
+	 * @return	StateSpaceFilter	The filter.
+	 * @throws	IOException			Thrown if in throws an exception.
+	 * @throws	FilterException		Thrown if in does not hold a valid compiled filter.
+	 */
+	public static StateSpaceFilter read(DataInputStream in) throws IOException, FilterException {
+		if (in.readInt() != MAGIC) {
+			throw new FilterException("Stream does not hold a compiled filter of this version.");
+		}
+		int nbInputs = in.readInt(), nbOutputs = in.readInt();
+		int[] lineMask = readInts(in), tapLine = readInts(in), tapDelay = readInts(in);
+		int[] rowStart = readInts(in), column = readInts(in);
+		double[] coefficient = new double[length(in)];
+		for (int k = 0; k < coefficient.length; k++) {
+			coefficient[k] = in.readDouble();
+		}
+		
+		boolean valid = nbInputs >= 0 && nbOutputs >= 0 && tapDelay.length == tapLine.length
+				&& rowStart.length == nbOutputs + lineMask.length + 1 && rowStart[0] == 0
+				&& rowStart[rowStart.length - 1] == column.length
+				&& coefficient.length == column.length;
+		long size = 0;
+		for (int l = 0; valid && l < lineMask.length; l++) {
+			valid = lineMask[l] >= 0 && Integer.bitCount(lineMask[l] + 1) == 1;
+			size += lineMask[l] + 1L;
+		}
+		valid &= size <= Integer.MAX_VALUE;
+		for (int t = 0; valid && t < tapLine.length; t++) {
+			valid = tapLine[t] >= 0 && tapLine[t] < lineMask.length && tapDelay[t] >= 0
+					&& tapDelay[t] <= lineMask[tapLine[t]];
+		}
+		for (int r = 1; valid && r < rowStart.length; r++) {
+			valid = rowStart[r] >= rowStart[r - 1];
+		}
+		for (int k = 0; valid && k < column.length; k++) {
+			valid = column[k] >= 0 && column[k] < nbInputs + tapLine.length;
+		} // A corrupted stream must not make the filter read out of its arrays.
+		if (!valid) {
+			throw new FilterException("Stream holds an invalid compiled filter.");
+		}
+		
+		return new StateSpaceFilter(nbInputs, nbOutputs, lineMask, tapLine, tapDelay, rowStart,
+				column, coefficient);
+	}
+	
+	/**
+	 * Writes the length of array, then its elements, to out.
+	 */
+	private static void writeInts(DataOutputStream out, int[] array) throws IOException {
+		out.writeInt(array.length);
+		for (int x : array) {
+			out.writeInt(x);
+		}
+	}
+	
+	/**
+	 * Reads an array written by writeInts.
+	 */
+	private static int[] readInts(DataInputStream in) throws IOException, FilterException {
+		int[] array = new int[length(in)];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = in.readInt();
+		}
+		return array;
+	}
+	
+	/**
+	 * Reads the length of an array, and checks it is not negative.
+	 */
+	private static int length(DataInputStream in) throws IOException, FilterException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new FilterException("Stream holds an invalid compiled filter.");
+		}
+		return length;
+	}
+	
+	/**
+	 * Returns the linear combination of variables that output carries.
+	 *
+	 * @param	output			The output.
+	 * @param	known			The combinations of the outputs that were already compiled.
+	 * @param	lines			The delay lines found so far, by block.
+	 * @param	order			The same delay lines, in the order they were found.
+	 * @param	nbVariables		The number of variables so far, in an array so it can be updated.
+	 * @return	double[]		The coefficient of each variable (missing ones are 0).
+	 * @throws	FilterException	Thrown if a filter cannot be compiled.
+	 */
+	private static double[] combination(Output output, HashMap<Output, double[]> known,
+			HashMap<Block, Line> lines, Vector<Line> order, int[] nbVariables)
+			throws FilterException {
+		double[] result = known.get(output);
+		if (result != null) return result;
+		
+		Block block = output.isPartOf();
+		int nb = block.outputNumber(output);
+		Filter f = block.getFilter();
+		if (block.folded()) {
+			result = new double[0];
+		} // A folded block always outputs 0.
+		else if (f instanceof DelayFilter) {
+			Line line = lines.get(block);
+			if (line == null) {
+				line = new Line(block, nbVariables[0]);
+				nbVariables[0] += taps((DelayFilter) f).length;
+				lines.put(block, line);
+				order.add(line);
+			} // Its input is compiled later, as it may depend on this very output.
+			result = new double[line.firstVariable + nb + 1];
+			result[line.firstVariable + nb] = 1;
+		}
+		else if (f instanceof GainFilter) {
+			result = scaled(combination(block.readsFrom(0), known, lines, order, nbVariables),
+					((GainFilter) f).getFactor());
+		}
+		else if (f instanceof AdditionFilter) {
+			AdditionFilter addition = (AdditionFilter) f;
+			result = new double[0];
+			for (int i = 0; i < addition.nbInputs(); i++) {
+				result = sum(result, combination(block.readsFrom(i), known, lines, order,
+						nbVariables));
+			}
+			if (f instanceof MeanFilter) result = scaled(result, 1.0 / addition.nbInputs());
+		}
+		else if (f instanceof CompositeFilter) {
+			CompositeFilter nested = (CompositeFilter) f;
+			for (int i = 0; i < nested.nbInputs(); i++) {
+				if (!known.containsKey(nested.inputs[i])) {
+					known.put(nested.inputs[i], combination(block.readsFrom(i), known, lines,
+							order, nbVariables));
+				}
+			} // The inputs of the nested filter carry what its block reads.
+			result = combination(nested.outputs[nb].connectedTo(), known, lines, order,
+					nbVariables);
+		}
+		else {
+			throw new FilterException("Cannot compile filter: " + f.getClass().getSimpleName() +
+					" is not a gain, an addition, a mean, a delay or a composite filter.");
+		}
+		
+		known.put(output, result);
+		return result;
+	}
+	
+	/**
+	 * Returns the delays of delay, one per output.
+	 *
+	 * @param	delay			The delay filter.
+	 * @return	int[]			Its delays.
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	private static int[] taps(DelayFilter delay) throws FilterException {
+		if (delay instanceof MultiTapDelayFilter) {
+			MultiTapDelayFilter multi = (MultiTapDelayFilter) delay;
+			int[] taps = new int[multi.nbOutputs()];
+			for (int i = 0; i < taps.length; i++) {
+				taps[i] = multi.getDelay(i);
+			}
+			return taps;
+		}
+		return new int[]{delay.getDelay()};
+	}
+	
+	/**
+	 * Returns a + b.
+	 *
+	 * @param	a			A combination.
+	 * @param	b			Another combination.
+	 * @return	double[]	Their sum, as long as the longest one.
+	 */
+	private static double[] sum(double[] a, double[] b) {
+		double[] result = new double[Math.max(a.length, b.length)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (i < a.length ? a[i] : 0) + (i < b.length ? b[i] : 0);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns factor * a.
+	 *
+	 * @param	a			A combination.
+	 * @param	factor		The factor.
+	 * @return	double[]	The scaled combination.
+	 */
+	private static double[] scaled(double[] a, double factor) {
+		double[] result = new double[a.length];
+		for (int i = 0; i < a.length; i++) {
+			result[i] = a[i] * factor;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of inputs/outputs expected by this filter.
+	 *
+	 * @return	int	The expected number of inputs/outputs.
+	 */
+	public int nbInputs() {
+		return nbInputs;
+	}
+	
+	public int nbOutputs() {
+		return nbOutputs;
+	}
+	
+	/**
+	 * Returns the number of delay lines of the compiled filter.
+	 *
+	 * @return	int	The number of delay lines.
+	 */
+	public int nbLines() {
+		return lineOffset.length;
+	}
+	
+	/**
+	 * Returns the number of multiply-adds each step costs.
+	 *
+	 * @return	int	The number of nonzero coefficients.
+	 */
+	public int nbTerms() {
+		return coefficient.length;
+	}
+	
+	/**
+	 * Returns the number of samples held by the delay lines of this filter.
+	 *
+	 * @return	long	The number of samples.
+	 */
+	public long stateSize() {
+		return buffer.length;
+	}
+	
+	/**
+	 * Returns a new filter with the same compiled form as this one, and empty delay lines.
+	 * Copies are cheaper than compiling the composite filter again, and their states can be
+	 * combined with this filter's (see addState).
+	 *
+	 * @return	StateSpaceFilter	The copy.
+	 */
+	public StateSpaceFilter copy() {
+		return new StateSpaceFilter(this);
+	}
+	
+	/**
+	 * Returns a filter with the same compiled form as this one, computed in fixed point on 16-bit
+	 * PCM samples (see the FixedPointFilter class), with empty delay lines.
+	 *
+	 * @param	bits				The precision of its delay lines: 31 for Q31, 15 for Q15.
+	 * @return	FixedPointFilter	The fixed-point filter.
+	 * @throws	FilterException		Thrown if bits is neither 15 nor 31, or if the coefficients
+	 * 								of this filter are too large for fixed point.
+	 */
+	public FixedPointFilter toFixedPoint(int bits) throws FilterException {
+		return new FixedPointFilter(nbInputs, nbOutputs, lineOffset, lineMask, tapLine, tapDelay,
+				rowStart, column, coefficient, buffer.length, bits);
+	}
+	
+	/**
+	 * Makes this filter behave as if it had already been applied position times. Its delay lines
+	 * are not changed. Copies that start at different positions of a signal must be moved there
+	 * for their states to be combined.
+	 *
+	 * @param	position	The index of the next step.
+	 */
+	public void setPosition(long position) {
+		time = (int) position;  // Indices wrap modulo the size of each line, a power of two.
+	}
+	
+	/**
+	 * Copies the delay lines and the position of other, a copy of this filter, to this filter.
+	 *
+	 * @param	other			The filter whose state must be copied.
+	 * @throws	FilterException	Thrown if other is not a copy of this filter.
+	 */
+	public void setState(StateSpaceFilter other) throws FilterException {
+		checkCopy(other);
+		
+		System.arraycopy(other.buffer, 0, buffer, 0, buffer.length);
+		time = other.time;
+	}
+	
+	/**
+	 * Adds the delay lines of other, a copy of this filter at the same position, to those of this
+	 * filter. As the filter is linear, applying it from the sum of two states gives the sum of the
+	 * outputs it would give from each of them.
+	 *
+	 * @param	other			The filter whose state must be added.
+	 * @throws	FilterException	Thrown if other is not a copy of this filter or if it is not at
+	 * 							the same position.
+	 */
+	public void addState(StateSpaceFilter other) throws FilterException {
+		checkCopy(other);
+		if (other.time != time) {
+			throw new FilterException("Tried to add states of state-space filters at different " +
+					"positions.");
+		}
+		
+		for (int i = 0; i < buffer.length; i++) {
+			buffer[i] += other.buffer[i];
+		}
+	}
+	
+	/**
+	 * Checks other is a copy of this filter (or this filter itself).
+	 *
+	 * @param	other			The filter.
+	 * @throws	FilterException	Thrown if it is not.
+	 */
+	private void checkCopy(StateSpaceFilter other) throws FilterException {
+		if (other == null || other.coefficient != coefficient) {
+			throw new FilterException("Tried to combine states of different state-space filters.");
+		}
+	}
+	
+	/**
+	 * Returns whether the delay lines only contain zeros. From then on, the filter outputs 0 as
+	 * long as its inputs are 0.
+	 *
+	 * @return	boolean	True if the delay lines only contain zeros.
+	 */
+	public boolean isSilent() {
+		for (double sample : buffer) {
+			if (sample != 0) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the largest absolute value held by the delay lines.
+	 *
+	 * @return	double	The peak of the state of the filter.
+	 */
+	public double peak() {
+		double peak = 0;
+		for (double sample : buffer) {
+			peak = Math.max(peak, Math.abs(sample));
+		}
+		return peak;
+	}
+	
+	/**
+	 * Empties the delay lines.
+	 */
+	public void reset() {
+		for (int i = 0; i < buffer.length; i++) {
+			buffer[i] = 0;
+		}
+		time = 0;
+	}
+	
+	/**
+	 * Applies the filter to input and returns the output.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @return	double[]		The output the filter returned.
+	 * @throws	FilterException	Thrown if input is null or if the length of input does not match
+	 * 							the expected number of inputs.
+	 */
+	public double[] computeOneStep(double[] input) throws FilterException {
+		if (input == null) {
+			throw new FilterException("Provided null input to state-space filter.");
+		}
+		if (input.length != nbInputs) {
+			throw new FilterException(String.format("Provided %d input(s) to state-space filter." +
+					" It expects exactly %d input(s).", input.length, nbInputs));
+		}
+		
+		return computeOneStepTrusted(input);
+	}
+	
+	/**
+	 * Same as computeOneStep, without validating input.
+	 *
+	 * @param	input		The input the filter must be applied to.
+	 * @return	double[]	The output the filter returned.
+	 */
+	public double[] computeOneStepTrusted(double[] input) {
+		double[] output = new double[nbOutputs];
+		computeOneStepTrusted(input, output);
+		return output;
+	}
+	
+	/**
+	 * Same as computeOneStepTrusted(input), writing the output in output.
+	 *
+	 * @param	input	The input the filter must be applied to.
+	 * @param	output	An array the output of the filter is written in.
+	 */
+	public void computeOneStepTrusted(double[] input, double[] output) {
+		System.arraycopy(input, 0, variables, 0, nbInputs);
+		for (int t = 0; t < tapLine.length; t++) {
+			int l = tapLine[t];
+			variables[nbInputs + t] = buffer[lineOffset[l] + ((time - tapDelay[t]) & lineMask[l])];
+		} // Reads the taps, written tapDelay[t] steps ago.
+		
+		for (int r = 0; r < nbOutputs; r++) {
+			output[r] = row(r);
+		}
+		for (int l = 0; l < lineOffset.length; l++) {
+			buffer[lineOffset[l] + (time & lineMask[l])] = Denormals.flush(row(nbOutputs + l));
+		} // Taps were read first, so writing the lines cannot overwrite a sample still needed.
+		// Lines are flushed, like delay filters in feedback loops (see the Denormals class).
+		time++;
+	}
+	
+	/**
+	 * Returns the value of row r for the current variables.
+	 *
+	 * @param	r		The row.
+	 * @return	double	The sparse dot product of the row and the variables.
+	 */
+	private double row(int r) {
+		double value = 0;
+		for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+			value += coefficient[k] * variables[column[k]];
+		}
+		return value;
+	}
+}
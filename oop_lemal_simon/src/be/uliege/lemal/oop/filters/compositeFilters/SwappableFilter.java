@@ -0,0 +1,281 @@
+package be.uliege.lemal.oop.filters.compositeFilters;
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.TrustedFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The SwappableFilter class. It applies a filter that can be replaced by another one while it is
+ * being applied, without an audible cut. The replacement is prepared by the thread that asks for
+ * it: it is built, checked, warmed up and its tail measured there. The thread that filters then
+ * picks it up at the next chunk boundary (every chunk steps) and crossfades the input from the
+ * old filter to the new one over a few steps. The outputs of both filters are added: the old
+ * filter keeps being applied, to silence once the crossfade is over, so that its tail (e.g. the
+ * reverberation of what it was given) rings out instead of being cut. It is dropped once its
+ * tail has ended, and the next replacement can only be picked up then.
+ * Picking the replacement up is a single atomic exchange: the thread that filters never waits
+ * for the other one, and allocates nothing (as long as both filters are TrustedFilters).
+ */
+public class SwappableFilter implements TrustedFilter {
+	public static final int WARM_UP = 4096;
+	// Steps a replacement is applied to noise before it is used (plus the size of its state, for
+	// composite filters), so that its queues have grown.
+	public static final double TAIL = -120;
+	public static final int MAX_TAIL = 1 << 18;
+	// The tail of a filter ends when its impulse response stays below TAIL dB of its peak (see
+	// CompositeFilter.tailLength). Tails that are longer or not known (filters that are not
+	// composite filters, or cannot be compiled) last MAX_TAIL steps, about 6 s at 44.1 kHz, unless
+	// the filter becomes idle before.
+	
+	private final int nbInputs, nbOutputs, chunk, crossfade;
+	private final AtomicReference<Replacement> pending = new AtomicReference<Replacement>();
+	private Filter current, old = null;  // old is being faded out, or null.
+	private long tail, oldTail;  // The lengths of the tails of current and old.
+	private final double[] oldInput, newInput, oldOutput, newOutput;
+	private long position = 0;  // The number of steps since the filter was created or reset.
+	private long fade = 0;  // The number of steps since old was replaced.
+	
+	/**
+	 * A filter that is ready to be picked up, with the length of its tail.
+	 */
+	private static class Replacement {
+		private final Filter filter;
+		private final long tail;
+		
+		private Replacement(Filter filter, long tail) {
+			this.filter = filter;
+			this.tail = tail;
+		}
+	}
+	
+	/**
+	 * @param	initial			The filter applied until the first swap.
+	 * @param	chunk			Swaps only happen every chunk steps (e.g. the size of the buffers
+	 * 							the filter is applied to).
+	 * @param	crossfade		The number of steps of a crossfade, 0 to switch at once.
+	 * @throws	FilterException	Thrown if initial is null or not valid, if chunk is nonpositive
+	 * 							or if crossfade is negative.
+	 */
+	public SwappableFilter(Filter initial, int chunk, int crossfade) throws FilterException {
+		if (initial == null) {
+			throw new FilterException("Tried to create swappable filter with null filter.");
+		}
+		if (chunk <= 0 || crossfade < 0) {
+			throw new FilterException("Tried to create swappable filter with nonpositive chunk " +
+					"or negative crossfade.");
+		}
+		if (initial instanceof CompositeFilter) ((CompositeFilter) initial).check();
+		
+		nbInputs = initial.nbInputs();
+		nbOutputs = initial.nbOutputs();
+		this.chunk = chunk;
+		this.crossfade = crossfade;
+		current = initial;
+		tail = tail(initial);
+		oldInput = new double[nbInputs];
+		newInput = new double[nbInputs];
+		oldOutput = new double[nbOutputs];
+		newOutput = new double[nbOutputs];
+	}
+	
+	/**
+	 * Prepares replacement and makes it the next filter: the thread that filters picks it up at
+	 * the next chunk boundary (once the tail of the previous filter, if any, has ended). The
+	 * length of the tail of replacement is measured here. A replacement that was not
+	 * picked up yet is dropped. This method can safely be called from another thread while the
+	 * filter is being applied.
+	 *
+	 * @param	replacement		The new filter. It must not be applied by anything else.
+	 * @throws	FilterException	Thrown if replacement is null or not valid, or if its numbers of
+	 * 							inputs and outputs differ from the current filter's.
+	 */
+	public void swap(Filter replacement) throws FilterException {
+		if (replacement == null) {
+			throw new FilterException("Tried to swap in null filter.");
+		}
+		if (replacement.nbInputs() != nbInputs || replacement.nbOutputs() != nbOutputs) {
+			throw new FilterException(String.format("Tried to swap in filter with %d input(s) and" +
+					" %d output(s). Swappable filter has %d input(s) and %d output(s).",
+					replacement.nbInputs(), replacement.nbOutputs(), nbInputs, nbOutputs));
+		}
+		long steps = WARM_UP;
+		if (replacement instanceof CompositeFilter) {
+			((CompositeFilter) replacement).check();
+			steps += ((CompositeFilter) replacement).stateSize();
+		} // The queues of a composite filter fill up once its longest delay line has filled up.
+		
+		double[] input = new double[nbInputs], output = new double[nbOutputs];
+		Random random = new Random(42);
+		for (long i = 0; i < steps; i++) {
+			for (int j = 0; j < nbInputs; j++) {
+				input[j] = random.nextDouble() * 2 - 1;
+			}
+			apply(replacement, input, output);
+		} // Noise rather than silence, so that idle composite filters do not skip the warm-up.
+		replacement.reset();
+		// Queues and lazily allocated arrays grow here rather than on the thread that filters.
+		
+		pending.set(new Replacement(replacement, tail(replacement)));
+	}
+	
+	/**
+	 * Returns the length of the tail of f (see TAIL).
+	 *
+	 * @param	f				The filter, valid.
+	 * @return	long			The number of steps f must be applied to silence for its tail to
+	 * 							ring out.
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	private static long tail(Filter f) throws FilterException {
+		long length = f instanceof CompositeFilter
+				? ((CompositeFilter) f).tailLength(TAIL, MAX_TAIL) : -1;
+		return length < 0 ? MAX_TAIL : length;
+	}
+	
+	/**
+	 * Builds a filter with factory and swaps it in (see swap), on executor.
+	 *
+	 * @param	factory					Creates the new filter.
+	 * @param	executor				The executor the filter is built on.
+	 * @return	CompletableFuture<Void>	Completes once the filter is ready to be picked up, or
+	 * 									with the exception thrown while building it.
+	 */
+	public CompletableFuture<Void> swap(final FilterFactory factory, Executor executor) {
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					swap(factory.create());
+					result.complete(null);
+				}
+				catch (Exception e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Returns whether a replacement is waiting to be picked up.
+	 *
+	 * @return	boolean	True if a swap is pending.
+	 */
+	public boolean isPending() {
+		return pending.get() != null;
+	}
+	
+	public int nbInputs() {
+		return nbInputs;
+	}
+	
+	public int nbOutputs() {
+		return nbOutputs;
+	}
+	
+	/**
+	 * Resets the current filter and drops the old one, if any, even if its tail has not ended. A
+	 * pending replacement stays pending.
+	 */
+	public void reset() {
+		current.reset();
+		old = null;
+		position = 0;
+	}
+	
+	/**
+	 * Applies the filter to input and returns the output.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @return	double[]		The output the filter returned.
+	 * @throws	FilterException	Thrown if input is null or if the length of input does not match
+	 * 							the expected number of inputs, or if a filter that is not a
+	 * 							TrustedFilter throws an exception.
+	 */
+	public double[] computeOneStep(double[] input) throws FilterException {
+		if (input == null) {
+			throw new FilterException("Provided null input to swappable filter.");
+		}
+		if (input.length != nbInputs) {
+			throw new FilterException(String.format("Provided %d input(s) to swappable filter." +
+					" It expects exactly %d input(s).", input.length, nbInputs));
+		}
+		
+		return computeOneStepTrusted(input);
+	}
+	
+	/**
+	 * Same as computeOneStep, without validating input.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @return	double[]		The output the filter returned.
+	 * @throws	FilterException	Thrown if a filter that is not a TrustedFilter throws an exception.
+	 */
+	public double[] computeOneStepTrusted(double[] input) throws FilterException {
+		double[] output = new double[nbOutputs];
+		computeOneStepTrusted(input, output);
+		return output;
+	}
+	
+	/**
+	 * Same as computeOneStepTrusted(input), writing the output in output.
+	 *
+	 * @param	input			The input the filter must be applied to.
+	 * @param	output			An array the output of the filter is written in.
+	 * @throws	FilterException	Thrown if a filter that is not a TrustedFilter throws an exception.
+	 */
+	public void computeOneStepTrusted(double[] input, double[] output) throws FilterException {
+		if (old == null && position % chunk == 0) {
+			Replacement next = pending.getAndSet(null);
+			if (next != null) {
+				old = current;
+				oldTail = tail;
+				current = next.filter;
+				tail = next.tail;
+				fade = 0;
+			}
+		} // Only the thread that filters changes current, so filters are never applied twice.
+		position++;
+		
+		if (old == null) {
+			apply(current, input, output);
+			return;
+		}
+		double t = Math.min((fade + 1.0) / (crossfade + 1), 1);
+		for (int i = 0; i < nbInputs; i++) {
+			oldInput[i] = (1 - t) * input[i];
+			newInput[i] = t * input[i];
+		} // Linear crossfade: the weights of both inputs always add up to 1.
+		apply(old, oldInput, oldOutput);
+		apply(current, newInput, newOutput);
+		for (int o = 0; o < nbOutputs; o++) {
+			output[o] = oldOutput[o] + newOutput[o];
+		} // The tail of old is mixed in, not faded out.
+		
+		fade++;
+		if (fade >= crossfade + oldTail || fade >= crossfade && old instanceof CompositeFilter
+				&& ((CompositeFilter) old).isIdle()) {
+			old = null;
+		} // old was given silence for oldTail steps, or became idle once given only silence.
+	}
+	
+	/**
+	 * Applies f to input and writes its output in output, without allocating if f is a
+	 * TrustedFilter.
+	 *
+	 * @param	f				The filter.
+	 * @param	input			The input.
+	 * @param	output			Where the output is written.
+	 * @throws	FilterException	Thrown if f is not a TrustedFilter and throws an exception.
+	 */
+	private static void apply(Filter f, double[] input, double[] output) throws FilterException {
+		if (f instanceof TrustedFilter) ((TrustedFilter) f).computeOneStepTrusted(input, output);
+		else System.arraycopy(f.computeOneStep(input), 0, output, 0, output.length);
+	}
+}
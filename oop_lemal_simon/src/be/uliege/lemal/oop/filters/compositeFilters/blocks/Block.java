@@ -1,5 +1,7 @@
 package be.uliege.lemal.oop.filters.compositeFilters.blocks;
 
+import be.uliege.lemal.oop.filters.Denormals;
+import be.uliege.lemal.oop.filters.TrustedFilter;
 import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
 import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
 import be.uliege.montefiore.oop.audio.Filter;
@@ -14,7 +16,17 @@ public class Block {
 	private final Input[] inputs;
 	private final Output[] outputs;
 	private final Filter filter;
+	private final double[] in, out;
+	// The values read from inputs and the values filter outputs, allocated once for all steps.
+	private final TrustedFilter trusted;  // filter, if it can be applied without validation.
+	private final DelayFilter delay;  // filter, if it is a delay filter.
+	// Both are determined once, so that computing outputs does not have to test filter's class.
 	private boolean checked = false;
+	private boolean folded = false;
+	// A folded block is known to always output 0. It neither reads its inputs nor applies filter.
+	private boolean flush = false;
+	// A block that flushes its outputs replaces samples too small to be heard by 0 (see the
+	// Denormals class). Delay filters in feedback loops do, so that loops never go subnormal.
 	
 	/**
 	 * @param	filter			The filter this block must contain.
@@ -26,6 +38,8 @@ public class Block {
 		}
 		
 		this.filter = filter;
+		trusted = filter instanceof TrustedFilter ? (TrustedFilter) filter : null;
+		delay = filter instanceof DelayFilter ? (DelayFilter) filter : null;
 		
 		inputs = new Input[filter.nbInputs()];
 		for (int i = 0; i < filter.nbInputs(); i++) {
@@ -35,6 +49,8 @@ public class Block {
 		for (int i = 0; i < filter.nbOutputs(); i++) {
 			outputs[i] = new Output(this);
 		} // Initialises inputs and outputs.
+		in = new double[inputs.length];
+		out = new double[outputs.length];
 	}
 	
 	/**
@@ -98,6 +114,112 @@ public class Block {
 		}
 		
 		output.connect(inputs[inputNb]);
+		folded = false;  // What it reads now may not be 0: it must be checked again.
+	}
+	
+	/**
+	 * Returns the blocks this block reads from. Inputs that read from an input of the composite
+	 * filter (or are not connected) are ignored.
+	 *
+	 * @return	Vector<Block>	The blocks, once each.
+	 */
+	public Vector<Block> sources() {
+		Vector<Block> sources = new Vector<Block>();
+		for (Input input : inputs) {
+			Block source = input.source();
+			if (source != null && !sources.contains(source)) sources.add(source);
+		}
+		return sources;
+	}
+	
+	/**
+	 * Returns the output input number inputNb of this block reads from.
+	 *
+	 * @param	inputNb			The number of the input,
+	 * 							between 0 and the number of inputs of filter.
+	 * @return	Output			The output, or null if the input is not connected.
+	 * @throws	FilterException	Thrown if input number is out of range.
+	 */
+	public Output readsFrom(int inputNb) throws FilterException {
+		if (inputNb < 0 || inputNb >= filter.nbInputs()) {
+			throw new FilterException(String.format("In composite filter, input number %d is out " +
+							"of range for filter. Must be between 0 and %d (excluded).", inputNb,
+					filter.nbInputs()));
+		}
+		
+		return inputs[inputNb].connectedTo();
+	}
+	
+	/**
+	 * Returns output number outputNb of this block.
+	 *
+	 * @param	outputNb		The number of the output,
+	 * 							between 0 and the number of outputs of filter.
+	 * @return	Output			The output.
+	 * @throws	FilterException	Thrown if output number is out of range.
+	 */
+	public Output getOutput(int outputNb) throws FilterException {
+		if (outputNb < 0 || outputNb >= filter.nbOutputs()) {
+			throw new FilterException(String.format("In composite filter, output number %d is out" +
+							" of range for filter. Must be between 0 and %d (excluded).",
+					outputNb, filter.nbOutputs()));
+		}
+		
+		return outputs[outputNb];
+	}
+	
+	/**
+	 * Returns input number inputNb of this block.
+	 *
+	 * @param	inputNb			The number of the input,
+	 * 							between 0 and the number of inputs of filter.
+	 * @return	Input			The input.
+	 * @throws	FilterException	Thrown if input number is out of range.
+	 */
+	public Input getInput(int inputNb) throws FilterException {
+		if (inputNb < 0 || inputNb >= filter.nbInputs()) {
+			throw new FilterException(String.format("In composite filter, input number %d is out " +
+							"of range for filter. Must be between 0 and %d (excluded).", inputNb,
+					filter.nbInputs()));
+		}
+		
+		return inputs[inputNb];
+	}
+	
+	/**
+	 * Returns the number of output among the outputs of this block.
+	 *
+	 * @param	output	The output.
+	 * @return	int		Its number, or -1 if it is not an output of this block.
+	 */
+	public int outputNumber(Output output) {
+		for (int i = 0; i < outputs.length; i++) {
+			if (outputs[i] == output) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Connects every input output number outputNb of this block writes to to output number
+	 * otherNb of another block instead.
+	 *
+	 * @param	outputNb		The number of the output of this block.
+	 * @param	other			The other block.
+	 * @param	otherNb			The number of the output of the other block.
+	 * @throws	FilterException	Thrown if other is null or if an output number is out of range.
+	 */
+	public void transferOutput(int outputNb, Block other, int otherNb) throws FilterException {
+		if (other == null) {
+			throw new FilterException("In composite filter, tried to transfer output to null " +
+					"filter.");
+		}
+		if (outputNb < 0 || outputNb >= filter.nbOutputs()
+				|| otherNb < 0 || otherNb >= other.filter.nbOutputs()) {
+			throw new FilterException("In composite filter, tried to transfer output with output" +
+					" number out of range.");
+		}
+		
+		outputs[outputNb].transferTo(other.outputs[otherNb]);
 	}
 	
 	/**
@@ -127,6 +249,85 @@ public class Block {
 		connectTo.connectOutputToBlock(outputs[outputNb], inputNb);
 	}
 	
+	/**
+	 * Disconnects all inputs of this block from the outputs they read from and clears them.
+	 * Used when the block is removed from its composite filter, so that nothing writes in its
+	 * inputs anymore.
+	 */
+	public void disconnect() {
+		for (Input input : inputs) {
+			input.disconnect();
+			input.reset();
+		}
+	}
+	
+	/**
+	 * Folds this block: from now on it outputs 0 without reading its inputs, which are
+	 * disconnected. Connecting one of its inputs again unfolds it, and its other inputs then
+	 * have to be connected again too.
+	 */
+	public void fold() {
+		disconnect();
+		folded = true;
+	}
+	
+	/**
+	 * Returns folded.
+	 *
+	 * @return	boolean	Whether or not this block was folded.
+	 */
+	public boolean folded() {
+		return folded;
+	}
+	
+	/**
+	 * Sets whether the outputs of this block are flushed (see the Denormals class).
+	 *
+	 * @param	flush	True if they must be flushed.
+	 */
+	public void setFlush(boolean flush) {
+		this.flush = flush;
+	}
+	
+	/**
+	 * Returns flush.
+	 *
+	 * @return	boolean	Whether or not the outputs of this block are flushed.
+	 */
+	public boolean flushes() {
+		return flush;
+	}
+	
+	/**
+	 * Checks every input of this block reads from a folded block or from a block in candidates.
+	 * Inputs reading from an input of the composite filter make this method return false.
+	 *
+	 * @param	candidates	The blocks that are assumed to always output 0.
+	 * @return	boolean		True if all inputs of this block are always 0 under that assumption.
+	 */
+	public boolean readsOnlyFrom(Vector<Block> candidates) {
+		for (Input input : inputs) {
+			if (input.readsFromCompositeInput()) return false;
+			
+			Block source = input.source();
+			if (source == null || !(source.folded || candidates.contains(source))) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the largest absolute value waiting in the inputs of this block.
+	 *
+	 * @return	double	The peak of the queued values, 0 if there are none.
+	 */
+	public double inputPeak() {
+		double peak = 0;
+		for (Input input : inputs) {
+			peak = Math.max(peak, input.peak());
+		}
+		return peak;
+	}
+	
 	/**
 	 * Resets checked to false, so the composite filter can be checked again.
 	 */
@@ -159,6 +360,11 @@ public class Block {
 					" null path.");
 		}
 		
+		if (folded) {
+			checked = true;
+			return;
+		} // A folded block reads nothing, so it cannot be part of a loop.
+		
 		if (path.contains(this)) {
 			throw new FilterException("Composite filter contains a loop with no delay.");
 		} // If this block is already in path, we made a loop.
@@ -168,7 +374,8 @@ public class Block {
 		if (checked) return;  // If the block was already checked, there is nothing else to do.
 		
 		if (filter instanceof CompositeFilter) {
-			((CompositeFilter) filter).check();
+			((CompositeFilter) filter).check(false);
+			// Its unreachable blocks are reported by the composite filter this block is part of.
 		} // If filter is composite, we have to check it.
 		
 		checked = true;  // At this point, this filter is valid.
@@ -193,46 +400,49 @@ public class Block {
 	}
 	
 	/**
-	 * Checks all inputs are nonempty and applies filter, the puts values returned in outputs.
+	 * Gets a value from each input and writes it in in.
+	 *
+	 * @throws	FilterException	Thrown if computing outputs from previous blocks throws an exception.
+	 */
+	private void readInputs() throws FilterException {
+		for (int i = 0; i < inputs.length; i++) {
+			in[i] = inputs[i].get();
+		}
+	}
+	
+	/**
+	 * Gets a value from all inputs and applies filter, then puts values returned in outputs.
+	 * Filters of this library are applied through TrustedFilter, without validation, as this is
+	 * only called once the composite filter was checked. They read from in and write in out, so
+	 * that nothing is allocated. Other filters return a new array, which is copied to out.
 	 *
 	 * @throws FilterException Thrown if applying the filter throws an exception.
 	 *                         In practice, this should not happen
 	 *                         unless the user designs and uses incorrect filters.
 	 */
 	protected void computeOutput() throws FilterException {
-		double[] output = null;
-		boolean proceed = true;
-		
-		if (filter instanceof DelayFilter) {
-			// If this block contains a delay filter we check all its inputs.
-			for (Input input : inputs) {
-				if (input.size() == 0) {
-					proceed = false;
-				}
-			} // If they are all nonempty, we proceed in the normal way.
-			
-			// If at least one input is empty, we ask the filter to compute one step without input.
-			if (!proceed) {
-				try {
-					output = ((DelayFilter) filter).computeOneStep();
-				} catch (FilterException e) {
-					proceed = true;
-					// It might not work (if empty queue). In that case, we proceed normally.
-				}
+		if (folded) {
+			for (Output o : outputs) {
+				o.put(0);
 			}
-		}
+			return;
+		} // A folded block always outputs 0.
 		
-		// Normal way of proceeding. Used if this block is not a delay,
-		// if it is a delay and has inputs available or if it is a delay but its queue is empty.
-		if (proceed) {
-			double[] input = new double[filter.nbInputs()];
-			for (int i = 0; i < filter.nbInputs(); i++) {
-				input[i] = inputs[i].get();
-			} // Gets a value from each input.
-			
+		if (delay != null && inputs[0].size() == 0 && !delay.isEmpty()) {
+			delay.readTrusted(out);
+		} // If this block contains a delay filter that has no input yet, we read its queue.
+		// If its queue is empty, we proceed in the normal way.
+		else if (trusted != null) {
+			readInputs();
+			trusted.computeOneStepTrusted(in, out);
+			// The composite filter was checked, so input is well defined.
+		}
+		else {
+			readInputs();
 			try {
-				output = filter.computeOneStep(input);
-				// Applies the filter.
+				double[] output = filter.computeOneStep(in.clone());
+				// Applies the filter. It gets its own copy, in case it keeps it.
+				System.arraycopy(output, 0, out, 0, out.length);
 			}
 			catch (FilterException e) {
 				throw new FilterException("Unexpected error: An exception was thrown while " +
@@ -241,8 +451,14 @@ public class Block {
 			}
 		}
 		
-		for (int i = 0; i < filter.nbOutputs(); i++) {
-			outputs[i].put(output[i]);
+		if (flush) {
+			for (int i = 0; i < outputs.length; i++) {
+				out[i] = Denormals.flush(out[i]);
+			}
+		}
+		
+		for (int i = 0; i < outputs.length; i++) {
+			outputs[i].put(out[i]);
 		} // Puts the returned values in the corresponding outputs.
 	}
 }
@@ -1,6 +1,7 @@
 /*
- * This class and the Node class are inspired by those we designed in class during the fourth
- * exercises session on the fifth of March 2020.
+ * This class is inspired by the one we designed in class during the fourth exercises session on
+ * the fifth of March 2020. Its queue used to be a linked list of nodes. It is now an array used as
+ * a ring, so that queuing a value does not allocate anything.
  */
 
 package be.uliege.lemal.oop.filters.compositeFilters.blocks;
@@ -10,28 +11,50 @@ import be.uliege.montefiore.oop.audio.FilterException;
 import java.util.Vector;
 
 /**
- * The Input class. It consists of a queue (a simply linked list) and a pointer to an output,
- * to prevent multiple outputs to connect to the same input.
+ * The Input class. It consists of a queue (an array used as a ring, which grows when it is full)
+ * and a pointer to an output, to prevent multiple outputs to connect to the same input.
+ * The queue holds at most capacity values: going beyond throws an exception instead of growing
+ * the heap without bound. An input whose block is never applied (see setDiscarding) drops the
+ * values it is given instead of queuing them. Its depth, the largest depth it reached (its high
+ * water mark) and the values it dropped are counted.
  */
 public class Input {
-	private Node first = null, last = null;
-	private int size = 0;
+	private double[] queue = new double[2];  // Its length is a power of two.
+	private int first = 0, size = 0;
 	private Output readsFrom = null;
+	private int capacity = Integer.MAX_VALUE, highWater = 0;
+	private boolean discarding = false;
+	private long dropped = 0;
 	
 	/**
-	 * Adds a new value to the queue.
+	 * Adds a new value to the queue, or drops it if this input is discarding.
 	 *
-	 * @param	value	The value to be added.
+	 * @param	value			The value to be added.
+	 * @throws	FilterException	Thrown if the queue already holds capacity values.
 	 */
-	protected void put(double value) {
-		Node n = new Node(value);
-		if (size == 0) {
-			last = first = n;
-		} else {
-			last.setNext(n);
-			last = n;
+	protected void put(double value) throws FilterException {
+		if (discarding) {
+			dropped++;
+			return;
+		}
+		if (size == capacity) {
+			throw new FilterException(String.format("In composite filter, a queue between two " +
+					"blocks exceeded its capacity of %d samples. A block may be applied less " +
+					"often than the blocks it reads from (see CompositeFilter.edgeReport).",
+					capacity));
 		}
+		if (size == queue.length) {
+			double[] larger = new double[queue.length * 2];
+			for (int i = 0; i < size; i++) {
+				larger[i] = queue[(first + i) & (queue.length - 1)];
+			}
+			queue = larger;
+			first = 0;
+		} // If the queue is full, its values are moved to an array twice as long.
+		
+		queue[(first + size) & (queue.length - 1)] = value;
 		size++;
+		if (size > highWater) highWater = size;
 	}
 	
 	/**
@@ -52,28 +75,138 @@ public class Input {
 			readsFrom.isPartOf().computeOutput();
 		}
 		
-		double value = first.getValue();
-		first = first.getNext();
-		if (--size == 0) {
-			last = null;
-		}
+		double value = queue[first];
+		first = (first + 1) & (queue.length - 1);
+		size--;
 		return value;
 	}
 	
+	/**
+	 * Returns the block that writes in this input.
+	 *
+	 * @return	Block	The block, or null if this input reads from an input of the composite
+	 * 					filter or is not connected.
+	 */
+	public Block source() {
+		return readsFrom == null ? null : readsFrom.isPartOf();
+	}
+	
+	/**
+	 * Returns readsFrom.
+	 *
+	 * @return	Output	The output this input reads from, or null if it is not connected.
+	 */
+	public Output connectedTo() {
+		return readsFrom;
+	}
+	
+	/**
+	 * Returns whether this input reads directly from an input of the composite filter.
+	 *
+	 * @return	boolean	True if it does.
+	 */
+	protected boolean readsFromCompositeInput() {
+		return readsFrom != null && readsFrom.isPartOf() == null;
+	}
+	
 	/**
 	 * Returns size.
 	 *
 	 * @return	int	The size of the queue.
 	 */
-	protected int size() {
+	public int size() {
 		return size;
 	}
 	
+	/**
+	 * Returns highWater.
+	 *
+	 * @return	int	The largest size the queue reached.
+	 */
+	public int getHighWater() {
+		return highWater;
+	}
+	
+	/**
+	 * Returns capacity.
+	 *
+	 * @return	int	The largest number of values the queue may hold.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Sets the largest number of values the queue may hold. If it already holds more, the next
+	 * value put throws an exception.
+	 *
+	 * @param	capacity		The capacity.
+	 * @throws	FilterException	Thrown if capacity is not positive.
+	 */
+	public void setCapacity(int capacity) throws FilterException {
+		if (capacity <= 0) {
+			throw new FilterException("Tried to set nonpositive capacity to input queue.");
+		}
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Returns the number of bytes the queue takes.
+	 *
+	 * @return	long	The number of bytes of its array.
+	 */
+	public long bytes() {
+		return queue.length * 8L;
+	}
+	
+	/**
+	 * Returns dropped.
+	 *
+	 * @return	long	The number of values this input dropped while discarding.
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+	
+	/**
+	 * Returns discarding.
+	 *
+	 * @return	boolean	Whether this input drops the values it is given.
+	 */
+	public boolean isDiscarding() {
+		return discarding;
+	}
+	
+	/**
+	 * Sets whether this input drops the values it is given instead of queuing them. This is the
+	 * case of the inputs of blocks that are never applied, which nothing would ever read. The
+	 * queue is cleared when discarding starts.
+	 *
+	 * @param	discarding	True if values must be dropped.
+	 */
+	public void setDiscarding(boolean discarding) {
+		if (discarding && !this.discarding) reset();
+		this.discarding = discarding;
+	}
+	
+	/**
+	 * Returns the largest absolute value in the queue.
+	 *
+	 * @return	double	The peak of the queued values, 0 if there are none.
+	 */
+	protected double peak() {
+		double peak = 0;
+		for (int i = 0; i < size; i++) {
+			peak = Math.max(peak, Math.abs(queue[(first + i) & (queue.length - 1)]));
+		}
+		return peak;
+	}
+	
 	/**
 	 * Clears the queue.
 	 */
 	protected void reset() {
-		first = last = null;
+		first = 0;
 		size = 0;
 	}
 	
@@ -96,9 +229,10 @@ public class Input {
 	/**
 	 * Sends a message to the output that is currently connected to this input (if any)
 	 * and asks it to disconnect.
-	 * This method is called by the connect method if a new output wants to connect to this input.
+	 * This method is called by the connect method if a new output wants to connect to this input,
+	 * and by the block this input is part of when it is removed or folded.
 	 */
-	private void disconnect() {
+	protected void disconnect() {
 		if (readsFrom != null) {
 			readsFrom.disconnect(this);
 			readsFrom = null;
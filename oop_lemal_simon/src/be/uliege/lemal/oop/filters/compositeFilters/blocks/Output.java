@@ -1,5 +1,6 @@
 package be.uliege.lemal.oop.filters.compositeFilters.blocks;
 
+import be.uliege.lemal.oop.filters.metering.Meter;
 import be.uliege.montefiore.oop.audio.FilterException;
 
 import java.util.Vector;
@@ -12,6 +13,7 @@ import java.util.Vector;
 public class Output {
 	private final Vector<Input> writeTo;
 	private final Block partOf;
+	private Meter meter = null;  // Measures every value put, if not null.
 	
 	/**
 	 * @param	partOf	The block this output is part of.
@@ -24,12 +26,32 @@ public class Output {
 	/**
 	 * Puts value in every input in the list of inputs this output writes to.
 	 *
-	 * @param	value	The value that is to be put.
+	 * @param	value			The value that is to be put.
+	 * @throws	FilterException	Thrown if an input is full (see Input.getCapacity).
 	 */
-	public void put(double value) {
+	public void put(double value) throws FilterException {
 		for (Input input : writeTo) {
 			input.put(value);
 		}
+		if (meter != null) meter.add(value);
+	}
+	
+	/**
+	 * Returns meter.
+	 *
+	 * @return	Meter	The meter that measures the values this output puts, or null.
+	 */
+	public Meter getMeter() {
+		return meter;
+	}
+	
+	/**
+	 * Sets the meter that measures the values this output puts.
+	 *
+	 * @param	meter	The meter, or null for none.
+	 */
+	public void setMeter(Meter meter) {
+		this.meter = meter;
 	}
 	
 	/**
@@ -37,7 +59,7 @@ public class Output {
 	 *
 	 * @return	Block	The block this output is part of.
 	 */
-	protected Block isPartOf() {
+	public Block isPartOf() {
 		return partOf;
 	}
 	
@@ -57,6 +79,26 @@ public class Output {
 		writeTo.add(connectTo);
 	}
 	
+	/**
+	 * Connects every input this output writes to to another output instead, and moves its meter.
+	 *
+	 * @param	other			The output the inputs must be connected to.
+	 * @throws	FilterException	Thrown if other is null.
+	 */
+	protected void transferTo(Output other) throws FilterException {
+		if (other == null) {
+			throw new FilterException("Tried to transfer inputs to null output.");
+		}
+		
+		for (Input input : new Vector<Input>(writeTo)) {
+			other.connect(input);  // The input disconnects from this output.
+		}
+		if (meter != null) {
+			other.meter = meter;
+			meter = null;
+		} // The values other puts are the ones this output used to.
+	}
+	
 	/**
 	 * Removes input disconnectFrom from the list of inputs this output writes to.
 	 * This method is intended to be called by the input that wants to disconnect.
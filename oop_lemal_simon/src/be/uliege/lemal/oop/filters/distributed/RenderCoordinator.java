@@ -0,0 +1,362 @@
+package be.uliege.lemal.oop.filters.distributed;
+
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The RenderCoordinator class. It renders a batch of jobs on several worker processes (see
+ * RenderWorker), possibly on other machines. It opens one connection per core of each worker.
+ * Jobs are first dealt to the workers in turn, each worker having its own queue. A connection
+ * takes the next job from the front of its worker's queue and, once that queue is empty, steals
+ * one from the back of the longest queue of another worker, so that fast workers end up
+ * rendering more jobs than slow ones.
+ * A job whose worker fails (the connection breaks or times out, or the worker reports an error)
+ * is put back in front of the queues, and tried again, up to MAX_ATTEMPTS times. A worker whose
+ * connection broke gets no more jobs on that connection.
+ */
+public class RenderCoordinator {
+	public static final int MAX_ATTEMPTS = 3;
+	public static final int TIMEOUT = 600000;  // Milliseconds without an answer before giving up.
+	
+	private final Vector<InetSocketAddress> nodes;
+	
+	/**
+	 * The NodeReport class. It holds what one worker did during a batch.
+	 */
+	public static class NodeReport {
+		public final String node;
+		private int connections = 0, jobs = 0, failures = 0;
+		private long samples = 0, computeNanos = 0, first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+		// first and last are when the worker was given its first job and finished its last one.
+		
+		private NodeReport(String node) {
+			this.node = node;
+		}
+		
+		private synchronized void done(long samples, long computeNanos, long start, long end) {
+			jobs++;
+			this.samples += samples;
+			this.computeNanos += computeNanos;
+			first = Math.min(first, start);
+			last = Math.max(last, end);
+		}
+		
+		private synchronized void failed() {
+			failures++;
+		}
+		
+		/**
+		 * Returns the number of jobs the worker rendered.
+		 *
+		 * @return	int	The number of jobs.
+		 */
+		public synchronized int getJobs() {
+			return jobs;
+		}
+		
+		/**
+		 * Returns the number of jobs the worker failed to render (they were retried).
+		 *
+		 * @return	int	The number of failures.
+		 */
+		public synchronized int getFailures() {
+			return failures;
+		}
+		
+		/**
+		 * Returns the number of samples per second the worker rendered, from the time it was
+		 * given its first job to the time it finished its last one (transfers included).
+		 *
+		 * @return	double	The samples per second, 0 if the worker rendered nothing.
+		 */
+		public synchronized double samplesPerSecond() {
+			return jobs == 0 ? 0 : samples * 1e9 / Math.max(1, last - first);
+		}
+		
+		/**
+		 * Returns the number of samples per second the worker's filters computed, per connection.
+		 *
+		 * @return	double	The samples per second, 0 if the worker rendered nothing.
+		 */
+		public synchronized double computeSamplesPerSecond() {
+			return jobs == 0 ? 0 : samples * 1e9 / Math.max(1, computeNanos);
+		}
+		
+		public synchronized String toString() {
+			return String.format("%-24s %2d connection(s)  %4d job(s)  %2d failure(s)  " +
+					"%7.2f Msamples/s  (%6.2f Msamples/s per connection, transfers excluded)", node,
+					connections, jobs, failures, samplesPerSecond() / 1e6,
+					computeSamplesPerSecond() / 1e6);
+		}
+	}
+	
+	/**
+	 * @param	nodes			The addresses of the workers.
+	 * @throws	FilterException	Thrown if nodes is null, empty or contains null.
+	 */
+	public RenderCoordinator(Vector<InetSocketAddress> nodes) throws FilterException {
+		if (nodes == null || nodes.isEmpty() || nodes.contains(null)) {
+			throw new FilterException("Tried to create render coordinator without workers.");
+		}
+		this.nodes = new Vector<InetSocketAddress>(nodes);
+	}
+	
+	/**
+	 * Renders jobs on the workers, and returns once each job was rendered or failed MAX_ATTEMPTS
+	 * times. Outputs are stored in the jobs (see RenderJob.getOutput).
+	 *
+	 * @param	jobs			The jobs.
+	 * @return	Vector<NodeReport>	What each worker did, in the order of the nodes.
+	 * @throws	FilterException	Thrown if jobs is null or contains null, or if a job failed
+	 * 							MAX_ATTEMPTS times.
+	 * @throws	IOException		Thrown if no worker can be reached, or if all workers failed
+	 * 							before every job was rendered.
+	 */
+	public Vector<NodeReport> render(Vector<RenderJob> jobs) throws FilterException, IOException {
+		if (jobs == null || jobs.contains(null)) {
+			throw new FilterException("Provided null jobs to render coordinator.");
+		}
+		
+		final Vector<NodeReport> reports = new Vector<NodeReport>();
+		final Vector<ConcurrentLinkedDeque<RenderJob>> queues =
+				new Vector<ConcurrentLinkedDeque<RenderJob>>();
+		final ConcurrentLinkedDeque<RenderJob> retries = new ConcurrentLinkedDeque<RenderJob>();
+		for (InetSocketAddress node : nodes) {
+			reports.add(new NodeReport(node.getHostString() + ":" + node.getPort()));
+			queues.add(new ConcurrentLinkedDeque<RenderJob>());
+		}
+		for (int k = 0; k < jobs.size(); k++) {
+			queues.get(k % nodes.size()).add(jobs.get(k));
+		}
+		final AtomicInteger remaining = new AtomicInteger(jobs.size());
+		final Vector<RenderJob> failed = new Vector<RenderJob>();
+		
+		Vector<Thread> threads = new Vector<Thread>();
+		for (int n = 0; n < nodes.size(); n++) {
+			final int node = n;
+			Connection first;
+			try {
+				first = new Connection(nodes.get(n));
+			}
+			catch (IOException e) {
+				continue;
+			} // Its queue is stolen by the other workers.
+			
+			for (int c = 0; c < first.cores; c++) {
+				final Connection connection;
+				try {
+					connection = c == 0 ? first : new Connection(nodes.get(n));
+				}
+				catch (IOException e) {
+					break;
+				}
+				reports.get(n).connections++;
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						serve(connection, reports.get(node), queues.get(node), queues, retries,
+								remaining, failed);
+					}
+				});
+				thread.setDaemon(true);
+				threads.add(thread);
+			}
+		}
+		if (threads.isEmpty() && !jobs.isEmpty()) {
+			throw new IOException("Could not reach any render worker.");
+		}
+		
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FilterException("Distributed rendering was interrupted.");
+		}
+		
+		if (!failed.isEmpty()) {
+			throw new FilterException(String.format("%d job(s) failed %d times, including %s. " +
+					"Message reads:\n%s", failed.size(), MAX_ATTEMPTS, failed.get(0).getName(),
+					failed.get(0).getError()));
+		}
+		if (remaining.get() > 0) {
+			throw new IOException(String.format("All render workers failed, %d job(s) were not " +
+					"rendered.", remaining.get()));
+		}
+		return reports;
+	}
+	
+	/**
+	 * Sends jobs through connection until none is left or the connection breaks.
+	 *
+	 * @param	connection	The connection.
+	 * @param	report		The report of its worker.
+	 * @param	own			The queue of its worker.
+	 * @param	queues		The queues of all workers.
+	 * @param	retries		The jobs to try again, which come first.
+	 * @param	remaining	The number of jobs not rendered and not failed yet.
+	 * @param	failed		The jobs that failed MAX_ATTEMPTS times.
+	 */
+	private static void serve(Connection connection, NodeReport report,
+			ConcurrentLinkedDeque<RenderJob> own, Vector<ConcurrentLinkedDeque<RenderJob>> queues,
+			ConcurrentLinkedDeque<RenderJob> retries, AtomicInteger remaining,
+			Vector<RenderJob> failed) {
+		try {
+			while (remaining.get() > 0) {
+				RenderJob job = retries.pollFirst();
+				if (job == null) job = own.pollFirst();
+				if (job == null) job = steal(queues);
+				if (job == null) {
+					Thread.sleep(1);
+					continue;
+				} // Jobs in flight elsewhere may still fail and come back.
+				
+				int attempt = job.attempt();
+				long start = System.nanoTime();
+				try {
+					long nanos = connection.render(job, report.node);
+					report.done(job.length(), nanos, start, System.nanoTime());
+					remaining.decrementAndGet();
+				}
+				catch (FilterException e) {
+					report.failed();
+					job.failed(e.getMessage());
+					if (attempt < MAX_ATTEMPTS) retries.addFirst(job);
+					else {
+						failed.add(job);
+						remaining.decrementAndGet();
+					}
+				} // The worker reported an error: the job may succeed elsewhere.
+				catch (IOException e) {
+					report.failed();
+					job.failed("Connection to " + report.node + " failed: " + e.getMessage());
+					if (attempt < MAX_ATTEMPTS) retries.addFirst(job);
+					else {
+						failed.add(job);
+						remaining.decrementAndGet();
+					}
+					return;
+				} // The connection broke: other connections take the job over.
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			connection.close();
+		}
+	}
+	
+	/**
+	 * Takes a job from the back of the longest queue.
+	 *
+	 * @param	queues		The queues.
+	 * @return	RenderJob	The job, or null if all queues are empty.
+	 */
+	private static RenderJob steal(Vector<ConcurrentLinkedDeque<RenderJob>> queues) {
+		while (true) {
+			ConcurrentLinkedDeque<RenderJob> longest = null;
+			int size = 0;
+			for (ConcurrentLinkedDeque<RenderJob> queue : queues) {
+				int s = queue.size();
+				if (s > size) {
+					longest = queue;
+					size = s;
+				}
+			}
+			if (longest == null) return null;
+			RenderJob job = longest.pollLast();
+			if (job != null) return job;
+		} // The queue may have been emptied in the meantime, then another one is tried.
+	}
+	
+	/**
+	 * The Connection class. It is one connection to a worker.
+	 */
+	private static class Connection {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private final int cores;  // The number of cores of the worker.
+		
+		private Connection(InetSocketAddress address) throws IOException {
+			socket = new Socket();
+			try {
+				socket.connect(address, TIMEOUT);
+				socket.setSoTimeout(TIMEOUT);
+				socket.setTcpNoDelay(true);
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				out.writeInt(RenderWorker.MAGIC);
+				out.flush();
+				if (in.readInt() != RenderWorker.MAGIC) {
+					throw new IOException(address + " is not a render worker.");
+				}
+				cores = Math.max(1, in.readInt());
+			}
+			catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+		
+		/**
+		 * Sends job, waits for its output and stores it in job.
+		 *
+		 * @return	long			The time the worker took to filter, in nanoseconds.
+		 * @throws	FilterException	Thrown if the worker reported an error.
+		 * @throws	IOException		Thrown if the connection broke or timed out.
+		 */
+		private long render(RenderJob job, String node) throws FilterException, IOException {
+			out.writeInt(RenderWorker.JOB);
+			RenderWorker.writeString(out, job.getDescription());
+			out.writeInt(job.getTail());
+			RenderWorker.writeSignals(out, job.getInput());
+			out.flush();
+			
+			int answer = in.readInt();
+			if (answer == RenderWorker.FAILED) {
+				throw new FilterException(RenderWorker.readString(in));
+			}
+			if (answer != RenderWorker.DONE) {
+				throw new IOException("Render protocol error: unexpected answer " + answer + ".");
+			}
+			long nanos = in.readLong();
+			job.done(RenderWorker.readSignals(in), node);
+			return nanos;
+		}
+		
+		/**
+		 * Says goodbye to the worker and closes the connection.
+		 */
+		private void close() {
+			try {
+				out.writeInt(RenderWorker.BYE);
+				out.flush();
+			}
+			catch (IOException e) {
+				// The connection is broken anyway.
+			}
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				// Nothing else to do.
+			}
+		}
+	}
+}
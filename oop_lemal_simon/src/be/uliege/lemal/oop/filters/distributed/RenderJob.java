@@ -0,0 +1,158 @@
+package be.uliege.lemal.oop.filters.distributed;
+
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The RenderJob class. It is a signal to filter by a worker process (see RenderWorker). The
+ * filter is sent as its description (see CompositeFilter.describe), which the worker turns back
+ * into a filter, so any filter made of gains, additions, means and delays can be rendered
+ * remotely (e.g. Reverb, JCRev and EchoFilter).
+ */
+public class RenderJob {
+	private final String name, description;
+	private final double[][] input;
+	private final int tail;
+	private double[][] output = null;
+	private String node = null, error = null;
+	private int attempts = 0;
+	
+	/**
+	 * @param	name			The name of the job, for reports.
+	 * @param	filter			The filter, which must not have been applied yet.
+	 * @param	input			The input signals, one per input of the filter, of equal lengths.
+	 * @param	tail			The number of samples of silence filtered after input.
+	 * @throws	FilterException	Thrown if an argument is null, if filter cannot be described,
+	 * 							if input does not match it or if tail is negative.
+	 */
+	public RenderJob(String name, CompositeFilter filter, double[][] input, int tail)
+			throws FilterException {
+		if (name == null || filter == null || input == null) {
+			throw new FilterException("Tried to create render job with null argument.");
+		}
+		if (input.length != filter.nbInputs()) {
+			throw new FilterException(String.format("Provided %d input signal(s) to render job. " +
+					"Its filter has %d input(s).", input.length, filter.nbInputs()));
+		}
+		for (double[] channel : input) {
+			if (channel == null || channel.length != input[0].length) {
+				throw new FilterException("Provided input channels of different lengths to render" +
+						" job.");
+			}
+		}
+		if (tail < 0) {
+			throw new FilterException("Tried to create render job with negative tail.");
+		}
+		
+		this.name = name;
+		this.description = filter.describe();
+		this.input = input;
+		this.tail = tail;
+	}
+	
+	/**
+	 * Returns name.
+	 *
+	 * @return	String	The name of the job.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Returns description.
+	 *
+	 * @return	String	The description of the filter.
+	 */
+	String getDescription() {
+		return description;
+	}
+	
+	/**
+	 * Returns input.
+	 *
+	 * @return	double[][]	The input signals.
+	 */
+	double[][] getInput() {
+		return input;
+	}
+	
+	/**
+	 * Returns tail.
+	 *
+	 * @return	int	The number of samples of silence after the input.
+	 */
+	int getTail() {
+		return tail;
+	}
+	
+	/**
+	 * Returns the number of samples the filter is applied to, per input.
+	 *
+	 * @return	long	The length of the input plus the tail.
+	 */
+	public long length() {
+		return (input.length == 0 ? 0 : input[0].length) + (long) tail;
+	}
+	
+	/**
+	 * Returns output.
+	 *
+	 * @return	double[][]	The output signals, or null if the job was not rendered.
+	 */
+	public synchronized double[][] getOutput() {
+		return output;
+	}
+	
+	/**
+	 * Returns node.
+	 *
+	 * @return	String	The address of the worker that rendered the job, or null.
+	 */
+	public synchronized String getNode() {
+		return node;
+	}
+	
+	/**
+	 * Returns error.
+	 *
+	 * @return	String	The message of the last error the job failed with, or null.
+	 */
+	public synchronized String getError() {
+		return error;
+	}
+	
+	/**
+	 * Returns attempts.
+	 *
+	 * @return	int	The number of times the job was sent to a worker.
+	 */
+	public synchronized int getAttempts() {
+		return attempts;
+	}
+	
+	/**
+	 * Counts a new attempt to render the job.
+	 *
+	 * @return	int	The number of attempts, including this one.
+	 */
+	synchronized int attempt() {
+		return ++attempts;
+	}
+	
+	/**
+	 * Records the output of the job.
+	 */
+	synchronized void done(double[][] output, String node) {
+		this.output = output;
+		this.node = node;
+		error = null;
+	}
+	
+	/**
+	 * Records an error.
+	 */
+	synchronized void failed(String error) {
+		this.error = error;
+	}
+}
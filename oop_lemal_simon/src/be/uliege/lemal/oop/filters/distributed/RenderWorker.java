@@ -0,0 +1,322 @@
+package be.uliege.lemal.oop.filters.distributed;
+
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.graph.FilterGraph;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * The RenderWorker class. It renders jobs sent by coordinators (see RenderCoordinator) over TCP
+ * connections, one job at a time per connection and one thread per connection, so that a
+ * coordinator uses several cores of a worker by opening several connections.
+ * Filters are kept in a pool once their job is rendered, by description, and reset before being
+ * used again, so that a batch of jobs with the same filter builds it once per connection.
+ *
+ * The protocol is made of ints, longs, doubles and strings (an int length followed by UTF-8
+ * bytes), as written by DataOutputStream:
+ * - the coordinator sends MAGIC, the worker answers MAGIC and its number of cores;
+ * - for each job, the coordinator sends JOB, the description of the filter, the tail, the number
+ *   of input signals, their length and their samples (signal by signal). The worker answers DONE,
+ *   the time it took to filter (in nanoseconds), the number of output signals, their length and
+ *   their samples, or FAILED and a message;
+ * - the coordinator sends BYE before closing the connection.
+ * Workers listen on the loopback interface unless told otherwise, and do not check who connects,
+ * so they must only be made reachable from trusted networks. Jobs larger than MAX_SIGNALS
+ * signals or MAX_SAMPLES samples (inputs or outputs, tail included), and descriptions longer
+ * than MAX_DESCRIPTION bytes, are refused: the worker answers FAILED and closes the connection,
+ * as what follows cannot be trusted.
+ */
+public class RenderWorker {
+	static final int MAGIC = 0x524a4f42, JOB = 1, BYE = 2, DONE = 3, FAILED = 4;
+	private static final int MAX_POOLED = 64;  // The largest number of filters kept in the pool.
+	public static final int MAX_SIGNALS = 256, MAX_SAMPLES = 1 << 25, MAX_DESCRIPTION = 1 << 24;
+	// The largest job: 2^25 samples are 256 MiB, about 12 minutes at 44.1 kHz for one signal.
+	
+	private final ServerSocket server;
+	private final HashMap<String, Vector<CompositeFilter>> pool =
+			new HashMap<String, Vector<CompositeFilter>>();
+	private int pooled = 0, created = 0;
+	
+	/**
+	 * Creates a worker that listens on the loopback interface, for coordinators of the same
+	 * machine only.
+	 *
+	 * @param	port		The port the worker listens on, 0 for any free port.
+	 * @throws	IOException	Thrown if the port cannot be bound.
+	 */
+	public RenderWorker(int port) throws IOException {
+		this(InetAddress.getLoopbackAddress(), port);
+	}
+	
+	/**
+	 * @param	address		The address of the interface the worker listens on, null for all of
+	 * 						them.
+	 * @param	port		The port the worker listens on, 0 for any free port.
+	 * @throws	IOException	Thrown if the port cannot be bound.
+	 */
+	public RenderWorker(InetAddress address, int port) throws IOException {
+		server = new ServerSocket(port, 0, address);
+	}
+	
+	/**
+	 * Returns the port the worker listens on.
+	 *
+	 * @return	int	The port.
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+	
+	/**
+	 * Returns created.
+	 *
+	 * @return	int	The number of filters built so far, the others were taken from the pool.
+	 */
+	public synchronized int getCreated() {
+		return created;
+	}
+	
+	/**
+	 * Accepts connections until close is called, and serves each one on a new thread.
+	 *
+	 * @throws	IOException	Thrown if accepting a connection fails, except after close.
+	 */
+	public void serve() throws IOException {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			}
+			catch (IOException e) {
+				if (server.isClosed()) return;
+				throw e;
+			}
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						handle(socket);
+					}
+					catch (IOException e) {
+						// The coordinator left: it retries the job elsewhere if needed.
+					}
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Stops accepting connections. Connections already accepted are served until they close.
+	 *
+	 * @throws	IOException	Thrown if the server socket cannot be closed.
+	 */
+	public void close() throws IOException {
+		server.close();
+	}
+	
+	/**
+	 * Serves one connection.
+	 */
+	private void handle(Socket socket) throws IOException {
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					socket.getOutputStream()));
+			if (in.readInt() != MAGIC) return;  // Not a coordinator.
+			out.writeInt(MAGIC);
+			out.writeInt(Runtime.getRuntime().availableProcessors());
+			out.flush();
+			
+			for (int message = in.readInt(); message == JOB; message = in.readInt()) {
+				String description;
+				int tail;
+				double[][] input;
+				try {
+					description = readString(in);
+					tail = in.readInt();
+					input = readSignals(in);
+				}
+				catch (ProtocolException e) {
+					out.writeInt(FAILED);
+					writeString(out, e.getMessage());
+					out.flush();
+					return;
+				} // The rest of the job was not read, so the connection cannot be used anymore.
+				
+				double[][] output;
+				long nanos;
+				try {
+					CompositeFilter f = acquire(description);
+					long start = System.nanoTime();
+					output = apply(f, input, tail);
+					nanos = System.nanoTime() - start;
+					release(description, f);
+				}
+				catch (FilterException e) {
+					out.writeInt(FAILED);
+					writeString(out, e.getMessage());
+					out.flush();
+					continue;
+				}
+				catch (RuntimeException e) {
+					out.writeInt(FAILED);
+					writeString(out, "Unexpected error while rendering: " + e);
+					out.flush();
+					continue;
+				} // So that the coordinator gets the error, rather than a broken connection.
+				out.writeInt(DONE);
+				out.writeLong(nanos);
+				writeSignals(out, output);
+				out.flush();
+			} // Anything but JOB (BYE) ends the connection.
+		}
+		finally {
+			socket.close();
+		}
+	}
+	
+	/**
+	 * Returns a filter described by description, from the pool or new.
+	 */
+	private CompositeFilter acquire(String description) throws FilterException {
+		synchronized (this) {
+			Vector<CompositeFilter> filters = pool.get(description);
+			if (filters != null && !filters.isEmpty()) {
+				pooled--;
+				CompositeFilter f = filters.remove(filters.size() - 1);
+				if (filters.isEmpty()) pool.remove(description);
+				return f;
+			}
+			created++;
+		} // Filters are built outside of the lock, so that connections do not wait.
+		CompositeFilter f = new FilterGraph(description).create();
+		f.check(false);
+		return f;
+	}
+	
+	/**
+	 * Resets f and puts it back in the pool, unless the pool is full.
+	 */
+	private void release(String description, CompositeFilter f) {
+		f.reset();
+		synchronized (this) {
+			if (pooled >= MAX_POOLED) return;
+			Vector<CompositeFilter> filters = pool.get(description);
+			if (filters == null) {
+				filters = new Vector<CompositeFilter>();
+				pool.put(description, filters);
+			}
+			filters.add(f);
+			pooled++;
+		}
+	}
+	
+	/**
+	 * Applies f to input followed by tail samples of silence.
+	 */
+	private static double[][] apply(CompositeFilter f, double[][] input, int tail)
+			throws FilterException {
+		if (input.length != f.nbInputs() || tail < 0) {
+			throw new FilterException("Render job does not match its filter.");
+		}
+		int length = input.length == 0 ? 0 : input[0].length;
+		if (f.nbOutputs() > MAX_SIGNALS
+				|| (long) f.nbOutputs() * ((long) length + tail) > MAX_SAMPLES) {
+			throw new FilterException(String.format("Render job is too large: %d output(s) of " +
+					"%d samples. At most %d signals and %d samples are allowed.", f.nbOutputs(),
+					(long) length + tail, MAX_SIGNALS, MAX_SAMPLES));
+		} // length + tail fits in an int, since MAX_SAMPLES does.
+		double[][] output = new double[f.nbOutputs()][length + tail];
+		double[] in = new double[input.length], out = new double[output.length];
+		for (int j = 0; j < length + tail; j++) {
+			for (int i = 0; i < in.length; i++) {
+				in[i] = j < length ? input[i][j] : 0;
+			}
+			f.computeOneStepTrusted(in, out);
+			for (int o = 0; o < out.length; o++) {
+				output[o][j] = out[o];
+			}
+		}
+		return output;
+	}
+	
+	/**
+	 * Writes s as an int length followed by UTF-8 bytes (DataOutputStream.writeUTF is limited to
+	 * 64 KiB, descriptions of large filters are longer).
+	 */
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Reads a string written by writeString.
+	 *
+	 * @throws	ProtocolException	Thrown if the length is negative or above MAX_DESCRIPTION,
+	 * 								before anything is allocated.
+	 */
+	static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_DESCRIPTION) {
+			throw new ProtocolException(String.format("Render protocol error: string of %d " +
+					"bytes. At most %d bytes are allowed.", length, MAX_DESCRIPTION));
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Writes the number of signals, their length and their samples.
+	 */
+	static void writeSignals(DataOutputStream out, double[][] signals) throws IOException {
+		int length = signals.length == 0 ? 0 : signals[0].length;
+		out.writeInt(signals.length);
+		out.writeInt(length);
+		for (double[] signal : signals) {
+			for (int j = 0; j < length; j++) {
+				out.writeDouble(signal[j]);
+			}
+		}
+	}
+	
+	/**
+	 * Reads signals written by writeSignals.
+	 *
+	 * @throws	ProtocolException	Thrown if the number or the length of the signals is negative
+	 * 								or above MAX_SIGNALS or MAX_SAMPLES, before anything is
+	 * 								allocated.
+	 */
+	static double[][] readSignals(DataInputStream in) throws IOException {
+		int count = in.readInt(), length = in.readInt();
+		if (count < 0 || length < 0 || count > MAX_SIGNALS
+				|| (long) count * length > MAX_SAMPLES) {
+			throw new ProtocolException(String.format("Render protocol error: %d signal(s) of %d " +
+					"samples. At most %d signals and %d samples are allowed.", count, length,
+					MAX_SIGNALS, MAX_SAMPLES));
+		}
+		double[][] signals = new double[count][length];
+		for (double[] signal : signals) {
+			for (int j = 0; j < length; j++) {
+				signal[j] = in.readDouble();
+			}
+		}
+		return signals;
+	}
+}
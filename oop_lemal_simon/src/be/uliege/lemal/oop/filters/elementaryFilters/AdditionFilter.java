@@ -1,12 +1,12 @@
 package be.uliege.lemal.oop.filters.elementaryFilters;
 
-import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.lemal.oop.filters.TrustedFilter;
 import be.uliege.montefiore.oop.audio.FilterException;
 
 /**
  * The AdditionFilter class. It computes the sum of several samples.
  */
-public class AdditionFilter implements Filter {
+public class AdditionFilter implements TrustedFilter {
 	protected final int nbInputs;
 	
 	/**
@@ -67,10 +67,32 @@ public class AdditionFilter implements Filter {
 					"expects exactly %d inputs.", input.length, nbInputs));
 		}
 		
-		double[] output = new double[]{0};
+		return computeOneStepTrusted(input);
+	}
+	
+	/**
+	 * Same as computeOneStep, without validating input.
+	 *
+	 * @param	input		An array containing several samples to sum.
+	 * @return	double[]	An array containing the sum of the several samples.
+	 */
+	public double[] computeOneStepTrusted(double[] input) {
+		double[] output = new double[1];
+		computeOneStepTrusted(input, output);
+		return output;
+	}
+	
+	/**
+	 * Same as computeOneStepTrusted(input), writing the sum in output.
+	 *
+	 * @param	input	An array containing several samples to sum.
+	 * @param	output	An array the sum is written in.
+	 */
+	public void computeOneStepTrusted(double[] input, double[] output) {
+		double sum = 0;
 		for (int i = 0; i < nbInputs; i++) {
-			output[0] += input[i];
+			sum += input[i];
 		}
-		return output;
+		output[0] = sum;
 	}
 }
@@ -1,33 +1,97 @@
 package be.uliege.lemal.oop.filters.elementaryFilters;
 
-import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.lemal.oop.filters.TrustedFilter;
 import be.uliege.montefiore.oop.audio.FilterException;
 
 /**
  * The DelayFilter class. It delays a sequence by queuing the received sample.
  */
-public class DelayFilter implements Filter {
+public class DelayFilter implements TrustedFilter {
 	protected final int delay;
 	protected int read = 0, write = 0;
 	// read corresponds to the first readable index. write to the first writable index.
-	protected final double[] queue;
+	protected final int mask;
+	// The queue has a capacity that is a power of two, so that indices wrap with a mask.
+	protected double[] queue;
+	protected int offset = 0;
+	// The queue occupies queue[offset] to queue[offset + mask]. The array is either owned by this
+	// filter or shared with other delay filters (see relocate).
 	
 	/**
 	 * @param	delay			The number of samples to delay.
-	 * @throws	FilterException	Thrown if delay is nonpositive.
+	 * @throws	FilterException	Thrown if delay is nonpositive or too large.
 	 */
 	public DelayFilter(int delay) throws FilterException {
 		if (delay <= 0) {
 			throw new FilterException("Tried to create delay filter with nonpositive delay.");
 		}
+		if (delay >= 1 << 30) {
+			throw new FilterException("Tried to create delay filter with a delay of 2^30 " +
+					"samples or more.");
+		}
 		
 		this.delay = delay;
-		queue = new double[delay + 1];
-		// The "+1" allows us to write the input before reading
-		// the output without overwritting some value.
+		mask = (Integer.highestOneBit(delay) << 1) - 1;
+		queue = new double[mask + 1];
+		// The capacity is at least delay + 1. The "+1" allows us to write the input before
+		// reading the output without overwritting some value.
 		reset();  // Initialises the queue.
 	}
 	
+	/**
+	 * Returns the capacity of the queue.
+	 *
+	 * @return	int	The number of samples the queue holds (a power of two greater than delay).
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+	
+	/**
+	 * Moves the queue to buffer, starting at index offset. Its content is preserved.
+	 * This allows several delay filters to share one contiguous array.
+	 *
+	 * @param	buffer			The array the queue must be moved to.
+	 * @param	offset			The index of buffer at which the queue must start.
+	 * @throws	FilterException	Thrown if buffer is null or if the queue does not fit in buffer.
+	 */
+	public void relocate(double[] buffer, int offset) throws FilterException {
+		if (buffer == null) {
+			throw new FilterException("Tried to move delay filter queue to null buffer.");
+		}
+		if (offset < 0 || offset > buffer.length - getCapacity()) {
+			throw new FilterException(String.format("Delay filter queue of %d samples does not " +
+					"fit in buffer of %d samples at offset %d.", getCapacity(), buffer.length,
+					offset));
+		}
+		
+		System.arraycopy(queue, this.offset, buffer, offset, getCapacity());
+		queue = buffer;
+		this.offset = offset;
+	}
+	
+	/**
+	 * Returns the largest absolute value in the queue.
+	 *
+	 * @return	double	The peak of the samples the filter holds.
+	 */
+	public double peak() {
+		double peak = 0;
+		for (int i = 0; i <= mask; i++) {
+			peak = Math.max(peak, Math.abs(queue[offset + i]));
+		}
+		return peak;
+	}
+	
+	/**
+	 * Returns delay.
+	 *
+	 * @return	int	The number of samples this filter delays.
+	 */
+	public int getDelay() {
+		return delay;
+	}
+	
 	/**
 	 * Returns the number of inputs/outputs expected by a delay filter.
 	 *
@@ -45,7 +109,7 @@ public class DelayFilter implements Filter {
 	 * Resets the delay filter by clearing the queue.
 	 */
 	public void reset() {
-		for (int i = 0; i <= delay; i++) queue[i] = 0;
+		for (int i = 0; i <= mask; i++) queue[offset + i] = 0;
 		// The queue is filled with 0s.
 		read = 0;  // read is set to zero and write is set to delay (the greatest index).
 		write = delay;
@@ -69,17 +133,36 @@ public class DelayFilter implements Filter {
 					"expects one input.", input.length));
 		}
 		
-		// If an input is given, we put it in the queue, read the first element and return it.
-		double[] output = new double[1];
-		queue[write++] = input[0];
-		output[0] = queue[read++];
-		
-		read %= delay + 1;
-		write %= delay + 1;
-		
+		return computeOneStepTrusted(input);
+	}
+	
+	/**
+	 * Same as computeOneStep, without validating input.
+	 *
+	 * @param	input		An array containing one sample to delay.
+	 * @return	double[]	An array containing the delayed sample.
+	 */
+	public double[] computeOneStepTrusted(double[] input) {
+		double[] output = new double[nbOutputs()];
+		computeOneStepTrusted(input, output);
 		return output;
 	}
 	
+	/**
+	 * Same as computeOneStepTrusted(input), writing the delayed sample in output.
+	 *
+	 * @param	input	An array containing one sample to delay.
+	 * @param	output	An array the delayed sample is written in.
+	 */
+	public void computeOneStepTrusted(double[] input, double[] output) {
+		// If an input is given, we put it in the queue, read the first element and write it in output.
+		queue[offset + write] = input[0];
+		output[0] = queue[offset + read];
+		
+		read = (read + 1) & mask;
+		write = (write + 1) & mask;
+	}
+	
 	/**
 	 * Returns the sample provided delay steps before,
 	 * or 0 if less than delay steps have been conducted.
@@ -88,15 +171,41 @@ public class DelayFilter implements Filter {
 	 * @throws	FilterException	Thrown if queue is empty.
 	 */
 	public double[] computeOneStep() throws FilterException {
-		if (read == write) {
+		if (isEmpty()) {
 			throw new FilterException("Tried to read empty queue from delay filter.");
 		} // If the queue is empty, throws an exception.
 		
-		double[] output = new double[1];
-		output[0] = queue[read++];
-		
-		read %= delay + 1;
-		
+		return readTrusted();
+	}
+	
+	/**
+	 * Returns whether the queue is empty, that is whether computeOneStep() would throw.
+	 *
+	 * @return	boolean	True if no sample can be read without providing an input.
+	 */
+	public boolean isEmpty() {
+		return read == write;
+	}
+	
+	/**
+	 * Same as computeOneStep(), without checking the queue is not empty.
+	 * The caller must check isEmpty() first.
+	 *
+	 * @return	double[]	An array containing the delayed sample.
+	 */
+	public double[] readTrusted() {
+		double[] output = new double[nbOutputs()];
+		readTrusted(output);
 		return output;
 	}
+	
+	/**
+	 * Same as readTrusted(), writing the delayed sample in output.
+	 *
+	 * @param	output	An array the delayed sample is written in.
+	 */
+	public void readTrusted(double[] output) {
+		output[0] = queue[offset + read];
+		read = (read + 1) & mask;
+	}
 }
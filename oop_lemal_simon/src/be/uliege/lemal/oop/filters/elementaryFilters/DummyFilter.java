@@ -22,10 +22,10 @@
 
 package be.uliege.lemal.oop.filters.elementaryFilters;
 
-import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.lemal.oop.filters.TrustedFilter;
 import be.uliege.montefiore.oop.audio.FilterException;
 
-public class DummyFilter implements Filter {
+public class DummyFilter implements TrustedFilter {
 	private int duration, count;
 	private boolean cutting; // True if we are "cutting" the sound (i.e., no sample can pass)
 	
@@ -72,17 +72,30 @@ public class DummyFilter implements Filter {
 					"expects exactly one input.", input.length));
 		}
 		
+		return computeOneStepTrusted(input);
+	}
+	
+	/*
+	 * Same as computeOneStep, without validating input (see the TrustedFilter interface). The
+	 * second version writes the output in a provided array instead of creating one.
+	 */
+	
+	public double[] computeOneStepTrusted(double[] input) {
+		double[] output = new double[1];
+		computeOneStepTrusted(input, output);
+		return output;
+	}
+	
+	public void computeOneStepTrusted(double[] input, double[] output) {
 		count++;
 		if (count == duration) {
 			count = 0;
 			cutting = !cutting;
 		}
 		
-		double[] output = new double[1];
 		output[0] = 0;
 		if (!cutting)
 			output[0] = input[0];
-		return output;
 	}
 	
 	/*
@@ -1,19 +1,58 @@
 package be.uliege.lemal.oop.filters.elementaryFilters;
 
-import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.lemal.oop.filters.SmoothedParameter;
+import be.uliege.lemal.oop.filters.TrustedFilter;
 import be.uliege.montefiore.oop.audio.FilterException;
 
 /**
  * The GainFilter class. It multiplies a whole sequence of samples by a given factor.
  */
-public class GainFilter implements Filter {
-	protected final double factor;
+public class GainFilter implements TrustedFilter {
+	protected final SmoothedParameter factor;
+	// The factor can be changed while filtering. See the SmoothedParameter class.
 	
 	/**
 	 * @param	factor	The factor to multiply samples by.
 	 */
 	public GainFilter(double factor) {
-		this.factor = factor;
+		this.factor = new SmoothedParameter(factor);
+	}
+	
+	/**
+	 * @param	factor	The factor to multiply samples by.
+	 * @param	ramp	The number of samples over which a change of factor is interpolated.
+	 */
+	public GainFilter(double factor, int ramp) {
+		this.factor = new SmoothedParameter(factor, ramp);
+	}
+	
+	/**
+	 * Returns the factor this gain filter is moving to (or is equal to).
+	 *
+	 * @return	double	The factor.
+	 */
+	public double getFactor() {
+		return factor.get();
+	}
+	
+	/**
+	 * Changes the factor samples are multiplied by. The change is not immediate, it is
+	 * interpolated over a few samples. This method can safely be called from another thread
+	 * while the filter is being applied.
+	 *
+	 * @param	factor	The new factor.
+	 */
+	public void setFactor(double factor) {
+		this.factor.set(factor);
+	}
+	
+	/**
+	 * Returns whether the factor is neither being changed nor about to be (see SmoothedParameter).
+	 *
+	 * @return	boolean	True if the factor is steady.
+	 */
+	public boolean isSteady() {
+		return factor.isSteady();
 	}
 	
 	/**
@@ -30,10 +69,12 @@ public class GainFilter implements Filter {
 	}
 	
 	/**
-	 * This method resets the gain filter (does nothing in this case).
+	 * This method resets the gain filter. If the factor was being changed, it jumps to its new
+	 * value.
 	 */
 	public void reset() {
-	} // There is nothing to do.
+		factor.jump();
+	}
 	
 	/**
 	 * Returns the result of the multiplication of the provided sample by factor.
@@ -52,9 +93,28 @@ public class GainFilter implements Filter {
 					"exactly expects one input.", input.length));
 		}
 		
+		return computeOneStepTrusted(input);
+	}
+	
+	/**
+	 * Same as computeOneStep, without validating input.
+	 *
+	 * @param	input		An array containing the sample to multiply.
+	 * @return	double[]	An array containing the multiplied sample.
+	 */
+	public double[] computeOneStepTrusted(double[] input) {
 		double[] output = new double[1];
-		output[0] = factor * input[0];
-		
+		computeOneStepTrusted(input, output);
 		return output;
 	}
+	
+	/**
+	 * Same as computeOneStepTrusted(input), writing the multiplied sample in output.
+	 *
+	 * @param	input	An array containing the sample to multiply.
+	 * @param	output	An array the multiplied sample is written in.
+	 */
+	public void computeOneStepTrusted(double[] input, double[] output) {
+		output[0] = factor.next() * input[0];
+	}
 }
@@ -11,17 +11,16 @@ public class MeanFilter extends AdditionFilter {
 	}
 	
 	/**
-	 * Returns the mean of the provided samples
+	 * Writes the mean of the provided samples in output, without validating input.
+	 * computeOneStep and computeOneStepTrusted(input), inherited from AdditionFilter, end up
+	 * calling this method.
 	 *
-	 * @param	input			An array containing several samples.
-	 * @return	int[]			An array containing the mean of the several samples.
-	 * @throws	FilterException	Thrown if input is null or if the length of input
-	 * 							does not match the expected number of inputs.
+	 * @param	input	An array containing several samples.
+	 * @param	output	An array the mean of the several samples is written in.
 	 */
 	@Override
-	public double[] computeOneStep(double[] input) throws FilterException {
-		double[] output = super.computeOneStep(input);
+	public void computeOneStepTrusted(double[] input, double[] output) {
+		super.computeOneStepTrusted(input, output);
 		output[0] /= nbInputs;
-		return output;
 	}
 }
@@ -0,0 +1,116 @@
+package be.uliege.lemal.oop.filters.elementaryFilters;
+
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The MultiTapDelayFilter class. It delays a sequence by several numbers of samples at once.
+ * It behaves like several delay filters fed by the same input, one per output, but all outputs
+ * read from one queue, sized for the longest delay.
+ */
+public class MultiTapDelayFilter extends DelayFilter {
+	protected final int[] taps;
+	protected final int shortest;
+	// Here, read is the index the next step writes to. Output number i reads taps[i] samples
+	// before it. write is the first writable index, as in DelayFilter. The outputs of a step can
+	// be read before its input is written, as long as the shortest tap was already written.
+	
+	/**
+	 * @param	taps			The number of samples to delay, one per output.
+	 * @throws	FilterException	Thrown if taps is null or empty or if one of them is nonpositive.
+	 */
+	public MultiTapDelayFilter(int[] taps) throws FilterException {
+		super(longest(taps));
+		
+		this.taps = taps.clone();
+		int shortest = taps[0];
+		for (int tap : taps) {
+			if (tap <= 0) {
+				throw new FilterException("Tried to create multi-tap delay filter with nonpositive" +
+						" delay.");
+			}
+			shortest = Math.min(shortest, tap);
+		}
+		this.shortest = shortest;
+	}
+	
+	/**
+	 * Returns the longest of taps.
+	 *
+	 * @param	taps			The number of samples to delay, one per output.
+	 * @return	int				The longest delay.
+	 * @throws	FilterException	Thrown if taps is null or empty.
+	 */
+	private static int longest(int[] taps) throws FilterException {
+		if (taps == null || taps.length == 0) {
+			throw new FilterException("Tried to create multi-tap delay filter with no delay.");
+		}
+		
+		int longest = taps[0];
+		for (int tap : taps) {
+			longest = Math.max(longest, tap);
+		}
+		return longest;
+	}
+	
+	/**
+	 * Returns the delay of output number i.
+	 *
+	 * @param	i				The number of the output.
+	 * @return	int				The number of samples output i delays.
+	 * @throws	FilterException	Thrown if i is out of range.
+	 */
+	public int getDelay(int i) throws FilterException {
+		if (i < 0 || i >= taps.length) {
+			throw new FilterException(String.format("Output number %d is out of range for " +
+					"multi-tap delay filter. Must be between 0 and %d (excluded).", i, taps.length));
+		}
+		
+		return taps[i];
+	}
+	
+	@Override
+	public int nbOutputs() {
+		return taps.length;
+	}
+	
+	/**
+	 * Resets the multi-tap delay filter by clearing the queue.
+	 */
+	@Override
+	public void reset() {
+		for (int i = 0; i <= mask; i++) queue[offset + i] = 0;
+		read = write = 0;
+	}
+	
+	/**
+	 * Same as computeOneStepTrusted(input), writing the delayed samples in output.
+	 *
+	 * @param	input	An array containing one sample to delay.
+	 * @param	output	An array the delayed samples are written in, one per tap.
+	 */
+	@Override
+	public void computeOneStepTrusted(double[] input, double[] output) {
+		queue[offset + write] = input[0];
+		write = (write + 1) & mask;
+		readTrusted(output);
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return ((read - write) & mask) == shortest;
+	}
+	
+	/**
+	 * Same as readTrusted(), writing the delayed samples in output.
+	 * The caller must check isEmpty() first.
+	 *
+	 * @param	output	An array the delayed samples are written in, one per tap.
+	 */
+	@Override
+	public void readTrusted(double[] output) {
+		for (int i = 0; i < taps.length; i++) {
+			output[i] = queue[offset + ((read - taps[i]) & mask)];
+		}
+		read = (read + 1) & mask;
+	}
+}
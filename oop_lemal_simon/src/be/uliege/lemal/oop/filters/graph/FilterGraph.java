@@ -0,0 +1,405 @@
+package be.uliege.lemal.oop.filters.graph;
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.compositeFilters.AllPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CombFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.FDNReverb;
+import be.uliege.lemal.oop.filters.compositeFilters.JCRev;
+import be.uliege.lemal.oop.filters.compositeFilters.LowPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.MultirateFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.Reverb;
+import be.uliege.lemal.oop.filters.elementaryFilters.AdditionFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MeanFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MultiTapDelayFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * The FilterGraph class. It describes composite filters in a small textual format, so that new
+ * filters can be defined without changing the code. A description is a sequence of graphs:
+ *
+ *   # A comment, until the end of the line.
+ *   graph name nbInputs nbOutputs
+ *   block id type parameters...
+ *   connect from to
+ *   silence level
+ *   end
+ *
+ * Each block line adds a new filter to the graph. Its type is one of:
+ * - gain factor [ramp], delay length, taps length..., add [nbInputs], mean nbInputs,
+ * - echo delay decay, comb delay decay, lowpass delay gain, allpass delay gain [nested],
+ * - reverb, jcrev, fdn [nbLines reverbTime damping],
+ * - subrate up down name, the graph name applied at up / down of the sample rate (see
+ *   MultirateFilter), its delays being counted in samples of that rate,
+ * - or the name of a graph defined above, which is nested (so are the nested filter of an
+ *   all-pass filter and the one of a subrate block).
+ * Connections go from an output (in.i for input i of the graph, id.o for output o of a block) to
+ * an input (out.o for output o of the graph, id.i for input i of a block).
+ * The optional silence statement sets the silence threshold of the graph (see
+ * CompositeFilter.setSilenceThreshold).
+ * The last graph is the filter described. Every call to create builds a new one.
+ */
+public class FilterGraph implements FilterFactory {
+	private final HashMap<String, Definition> definitions = new HashMap<String, Definition>();
+	private final Definition main;
+	private final String hash;
+	private boolean silence = false;  // Whether a graph sets its silence threshold.
+	
+	/**
+	 * The Definition class. It is one graph of the description: its header and its statements.
+	 */
+	private static class Definition {
+		private final String name;
+		private final int nbInputs, nbOutputs, line;
+		private final Vector<String[]> statements = new Vector<String[]>();
+		private final Vector<Integer> lines = new Vector<Integer>();
+		// The line each statement was read from, for error messages.
+		
+		private Definition(String name, int nbInputs, int nbOutputs, int line) {
+			this.name = name;
+			this.nbInputs = nbInputs;
+			this.nbOutputs = nbOutputs;
+			this.line = line;
+		}
+	}
+	
+	/**
+	 * Parses description. Filters are only built by create, which reports the errors of their
+	 * parameters and connections.
+	 *
+	 * @param	description		The description, in the format described above.
+	 * @throws	FilterException	Thrown if description is null or is not well formed.
+	 */
+	public FilterGraph(String description) throws FilterException {
+		if (description == null) {
+			throw new FilterException("Tried to parse null filter graph.");
+		}
+		
+		StringBuilder canonical = new StringBuilder();
+		Definition current = null, last = null;
+		String[] text = description.split("\r?\n|\r", -1);
+		for (int l = 0; l < text.length; l++) {
+			String line = text[l].replaceAll("#.*", "").trim();
+			if (line.isEmpty()) continue;
+			String[] tokens = line.split("\\s+");
+			canonical.append(String.join(" ", tokens)).append('\n');
+			// Comments and spacing do not change the hash.
+			
+			if (tokens[0].equals("graph")) {
+				if (current != null) {
+					throw error(l + 1, "Graph " + current.name + " has no end.");
+				}
+				if (tokens.length != 4) {
+					throw error(l + 1, "Expected: graph name nbInputs nbOutputs.");
+				}
+				if (definitions.containsKey(tokens[1])) {
+					throw error(l + 1, "Graph " + tokens[1] + " is defined twice.");
+				}
+				current = new Definition(tokens[1], integer(tokens[2], l + 1),
+						integer(tokens[3], l + 1), l + 1);
+				definitions.put(current.name, current);
+			}
+			else if (tokens[0].equals("end")) {
+				if (current == null || tokens.length != 1) throw error(l + 1, "Unexpected end.");
+				last = current;
+				current = null;
+			}
+			else if (tokens[0].equals("block") || tokens[0].equals("connect")
+					|| tokens[0].equals("silence")) {
+				if (current == null) throw error(l + 1, "Statement outside of a graph.");
+				if (tokens[0].equals("block") ? tokens.length < 3
+						: tokens.length != (tokens[0].equals("connect") ? 3 : 2)) {
+					throw error(l + 1, "Expected: block id type parameters..., connect from to, " +
+							"or silence level.");
+				}
+				current.statements.add(tokens);
+				current.lines.add(l + 1);
+				if (tokens[0].equals("silence")) silence = true;
+			}
+			else throw error(l + 1, "Unknown statement " + tokens[0] + ".");
+		}
+		if (current != null) throw error(text.length, "Graph " + current.name + " has no end.");
+		if (last == null) throw new FilterException("Filter graph defines no graph.");
+		
+		main = last;
+		hash = sha256(canonical.toString());
+	}
+	
+	/**
+	 * Reads and parses the description in file.
+	 *
+	 * @param	file			The file, encoded in UTF-8.
+	 * @return	FilterGraph		The parsed description.
+	 * @throws	IOException		Thrown if file cannot be read.
+	 * @throws	FilterException	Thrown if the description is not well formed.
+	 */
+	public static FilterGraph read(File file) throws IOException, FilterException {
+		StringBuilder description = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				description.append(line).append('\n');
+			}
+		}
+		return new FilterGraph(description.toString());
+	}
+	
+	/**
+	 * Returns the SHA-256 hash of the description, ignoring comments and spacing. Two
+	 * descriptions with the same hash describe the same filter.
+	 *
+	 * @return	String	The hash, in hexadecimal.
+	 */
+	public String hash() {
+		return hash;
+	}
+	
+	/**
+	 * Returns whether a graph of the description sets its silence threshold (see
+	 * CompositeFilter.setSilenceThreshold). Such filters must be applied as composite filters:
+	 * their compiled form (see CompositeFilter.compile) never becomes idle, so it does not cut
+	 * their tails the same way.
+	 *
+	 * @return	boolean	True if the description contains a silence statement.
+	 */
+	public boolean hasSilenceThreshold() {
+		return silence;
+	}
+	
+	/**
+	 * Returns the name of the graph described, the last one.
+	 *
+	 * @return	String	The name.
+	 */
+	public String getName() {
+		return main.name;
+	}
+	
+	public CompositeFilter create() throws FilterException {
+		return build(main);
+	}
+	
+	/**
+	 * Builds the composite filter defined by definition.
+	 *
+	 * @param	definition		The definition.
+	 * @return	CompositeFilter	The new filter.
+	 * @throws	FilterException	Thrown if a block or a connection is not valid. The message gives
+	 * 							the line of the statement.
+	 */
+	private CompositeFilter build(Definition definition) throws FilterException {
+		CompositeFilter graph = new CompositeFilter(definition.nbInputs, definition.nbOutputs);
+		HashMap<String, Filter> blocks = new HashMap<String, Filter>();
+		for (int s = 0; s < definition.statements.size(); s++) {
+			String[] tokens = definition.statements.get(s);
+			int line = definition.lines.get(s);
+			try {
+				if (tokens[0].equals("block")) {
+					if (blocks.containsKey(tokens[1]) || tokens[1].equals("in")
+							|| tokens[1].equals("out")) {
+						throw new FilterException("Block id " + tokens[1] + " is already used.");
+					}
+					Filter block = block(tokens, definition, line);
+					graph.addBlock(block);
+					blocks.put(tokens[1], block);
+				}
+				else if (tokens[0].equals("silence")) {
+					graph.setSilenceThreshold(real(tokens[1], line));
+				}
+				else connect(graph, blocks, tokens[1], tokens[2], line);
+			}
+			catch (FilterException e) {
+				throw error(line, e.getMessage());
+			}
+		}
+		return graph;
+	}
+	
+	/**
+	 * Creates the filter of a block statement.
+	 *
+	 * @param	tokens			The statement.
+	 * @param	definition		The graph the statement is part of.
+	 * @param	line			The line of the statement.
+	 * @return	Filter			The new filter.
+	 * @throws	FilterException	Thrown if the type or the parameters are not valid.
+	 */
+	private Filter block(String[] tokens, Definition definition, int line)
+			throws FilterException {
+		String type = tokens[2];
+		int n = tokens.length - 3;  // The number of parameters.
+		if (type.equals("gain") && (n == 1 || n == 2)) {
+			double factor = real(tokens[3], line);
+			if (n == 1) return new GainFilter(factor);
+			return new GainFilter(factor, integer(tokens[4], line));
+		}
+		if (type.equals("delay") && n == 1) return new DelayFilter(integer(tokens[3], line));
+		if (type.equals("taps") && n >= 1) {
+			int[] taps = new int[n];
+			for (int t = 0; t < n; t++) {
+				taps[t] = integer(tokens[3 + t], line);
+			}
+			return new MultiTapDelayFilter(taps);
+		}
+		if (type.equals("add") && n <= 1) {
+			return n == 0 ? new AdditionFilter() : new AdditionFilter(integer(tokens[3], line));
+		}
+		if (type.equals("mean") && n == 1) return new MeanFilter(integer(tokens[3], line));
+		if (type.equals("echo") && n == 2) {
+			return new EchoFilter(integer(tokens[3], line), real(tokens[4], line));
+		}
+		if (type.equals("comb") && n == 2) {
+			return new CombFilter(integer(tokens[3], line), real(tokens[4], line));
+		}
+		if (type.equals("lowpass") && n == 2) {
+			return new LowPassFilter(integer(tokens[3], line), real(tokens[4], line));
+		}
+		if (type.equals("allpass") && (n == 2 || n == 3)) {
+			int delay = integer(tokens[3], line);
+			double gain = real(tokens[4], line);
+			return n == 2 ? new AllPassFilter(delay, gain)
+					: new AllPassFilter(delay, gain, nested(tokens[5], definition));
+		}
+		if (type.equals("reverb") && n == 0) return new Reverb();
+		if (type.equals("jcrev") && n == 0) return new JCRev();
+		if (type.equals("fdn") && (n == 0 || n == 3)) {
+			return n == 0 ? new FDNReverb() : new FDNReverb(integer(tokens[3], line),
+					real(tokens[4], line), real(tokens[5], line));
+		}
+		if (type.equals("subrate") && n == 3) {
+			return new MultirateFilter(nested(tokens[5], definition), integer(tokens[3], line),
+					integer(tokens[4], line));
+		}
+		if (definitions.containsKey(type) && n == 0) return nested(type, definition);
+		
+		throw new FilterException("Unknown block type " + type + " with " + n + " parameter(s).");
+	}
+	
+	/**
+	 * Builds the graph name, to be nested in definition.
+	 *
+	 * @param	name			The name of the nested graph.
+	 * @param	definition		The graph it is nested in.
+	 * @return	CompositeFilter	The new filter.
+	 * @throws	FilterException	Thrown if the graph is not defined above definition.
+	 */
+	private CompositeFilter nested(String name, Definition definition) throws FilterException {
+		Definition nested = definitions.get(name);
+		if (nested == null || nested.line >= definition.line) {
+			throw new FilterException("Graph " + name + " is not defined above graph " +
+					definition.name + ".");
+		} // Only graphs defined above can be nested, so that graphs cannot nest themselves.
+		return build(nested);
+	}
+	
+	/**
+	 * Makes the connection from an output to an input.
+	 *
+	 * @param	graph			The graph being built.
+	 * @param	blocks			Its blocks, by id.
+	 * @param	from			The output: in.i or id.o.
+	 * @param	to				The input: out.o or id.i.
+	 * @param	line			The line of the statement.
+	 * @throws	FilterException	Thrown if an end is not valid or cannot be connected.
+	 */
+	private static void connect(CompositeFilter graph, HashMap<String, Filter> blocks, String from,
+			String to, int line) throws FilterException {
+		String[] a = end(from, line), b = end(to, line);
+		int o = integer(a[1], line), i = integer(b[1], line);
+		if (a[0].equals("in") && b[0].equals("out")) {
+			throw new FilterException("Inputs of a graph cannot be connected to its outputs " +
+					"directly.");
+		}
+		if (a[0].equals("out") || b[0].equals("in")) {
+			throw new FilterException("Connections go from in or a block to out or a block.");
+		}
+		if (a[0].equals("in")) graph.connectInputToBlock(o, block(blocks, b[0]), i);
+		else if (b[0].equals("out")) graph.connectBlockToOutput(block(blocks, a[0]), o, i);
+		else graph.connectBlockToBlock(block(blocks, a[0]), o, block(blocks, b[0]), i);
+	}
+	
+	/**
+	 * Splits an end of a connection, id.number, in two.
+	 */
+	private static String[] end(String token, int line) throws FilterException {
+		int dot = token.lastIndexOf('.');
+		if (dot <= 0) throw error(line, "Expected id.number, found " + token + ".");
+		return new String[]{token.substring(0, dot), token.substring(dot + 1)};
+	}
+	
+	/**
+	 * Returns the block whose id is id.
+	 */
+	private static Filter block(HashMap<String, Filter> blocks, String id) throws FilterException {
+		Filter block = blocks.get(id);
+		if (block == null) throw new FilterException("Unknown block " + id + ".");
+		return block;
+	}
+	
+	/**
+	 * Parses an integer.
+	 */
+	private static int integer(String token, int line) throws FilterException {
+		try {
+			return Integer.parseInt(token);
+		}
+		catch (NumberFormatException e) {
+			throw error(line, "Expected an integer, found " + token + ".");
+		}
+	}
+	
+	/**
+	 * Parses a real number.
+	 */
+	private static double real(String token, int line) throws FilterException {
+		try {
+			return Double.parseDouble(token);
+		}
+		catch (NumberFormatException e) {
+			throw error(line, "Expected a number, found " + token + ".");
+		}
+	}
+	
+	/**
+	 * Returns an exception whose message gives the line of the error.
+	 */
+	private static FilterException error(int line, String message) {
+		if (message.startsWith("Line ")) return new FilterException(message);
+		return new FilterException(String.format("Line %d of filter graph: %s", line, message));
+	}
+	
+	/**
+	 * Returns the SHA-256 hash of text, in hexadecimal.
+	 */
+	private static String sha256(String text) throws FilterException {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+					text.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new FilterException("Unexpected error: SHA-256 is not available.");
+			// In practice, every Java platform provides it.
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package be.uliege.lemal.oop.filters.graph;
+
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.StateSpaceFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * The GraphCache class. It keeps the compiled form (see StateSpaceFilter) of the filter graphs
+ * it loaded, by hash, in memory and in a directory. Loading a graph that was already compiled,
+ * even by another process, skips building its blocks, checking it and compiling it: the compiled
+ * form is read and copied.
+ * Graphs that cannot be compiled (they contain other filters than gains, additions, means and
+ * delays) are built and checked at every load, and so are graphs that set their silence
+ * threshold, whose compiled form would not become idle and so would not sound the same. The cache only remembers that they cannot be
+ * compiled, so that it does not try again.
+ * Files are named after the hash of the graph and the version of the library (see VERSION), so
+ * that the compiled forms stored by another version are never loaded.
+ */
+public class GraphCache {
+	private static final String COMPILED = ".ssf", COMPOSITE = ".composite";
+	// Extensions of the files of compiled graphs and of graphs that cannot be compiled.
+	private static final int VERSION = 1;
+	// The version of the block types and of the compiled form. A graph describes another filter
+	// if a block type changes meaning, so this must be increased whenever one does, or whenever
+	// the compiled form (see StateSpaceFilter.write) or the way graphs are compiled changes.
+	
+	private final File directory;
+	private final HashMap<String, StateSpaceFilter> kernels;  // Compiled graphs, by hash.
+	private final HashSet<String> composites;  // Graphs that cannot be compiled.
+	private int hits = 0, misses = 0;
+	
+	/**
+	 * @param	directory		The directory the compiled graphs are stored in. It is created if
+	 * 							it does not exist.
+	 * @throws	FilterException	Thrown if directory is null or cannot be created.
+	 */
+	public GraphCache(File directory) throws FilterException {
+		if (directory == null) {
+			throw new FilterException("Tried to create graph cache with null directory.");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new FilterException("Could not create graph cache directory " + directory + ".");
+		}
+		
+		this.directory = directory;
+		kernels = new HashMap<String, StateSpaceFilter>();
+		composites = new HashSet<String>();
+	}
+	
+	/**
+	 * Returns a new filter described by graph: a copy of its compiled form if it can be compiled,
+	 * a checked composite filter otherwise.
+	 *
+	 * @param	graph			The graph.
+	 * @return	Filter			The new filter, with empty delay lines.
+	 * @throws	FilterException	Thrown if graph is null or does not describe a valid filter.
+	 */
+	public synchronized Filter load(FilterGraph graph) throws FilterException {
+		if (graph == null) {
+			throw new FilterException("Tried to load null filter graph.");
+		}
+		String key = graph.hash() + "-v" + VERSION;
+		if (graph.hasSilenceThreshold()) composites.add(key);  // See hasSilenceThreshold.
+		
+		StateSpaceFilter kernel = kernels.get(key);
+		if (kernel == null && !composites.contains(key)) {
+			if (new File(directory, key + COMPOSITE).isFile()) composites.add(key);
+			else kernel = read(new File(directory, key + COMPILED));
+			if (kernel != null) kernels.put(key, kernel);
+		} // Looks in the directory once per graph and per process.
+		if (kernel != null) {
+			hits++;
+			return kernel.copy();
+		}
+		misses++;
+		
+		CompositeFilter f = graph.create();
+		f.check(false);
+		if (composites.contains(key)) return f;
+		try {
+			kernel = f.compile();
+		}
+		catch (FilterException e) {
+			composites.add(key);
+			write(new File(directory, key + COMPOSITE), null);
+			return f;
+		} // f is valid, so it cannot be compiled because of its blocks.
+		kernels.put(key, kernel);
+		write(new File(directory, key + COMPILED), kernel);
+		return kernel.copy();
+	}
+	
+	/**
+	 * Returns the number of loads that found the compiled form of their graph.
+	 *
+	 * @return	int	The number of hits.
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+	
+	/**
+	 * Returns the number of loads that had to build their graph.
+	 *
+	 * @return	int	The number of misses.
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * Reads the compiled graph stored in file.
+	 *
+	 * @param	file				The file.
+	 * @return	StateSpaceFilter	The compiled graph, or null if file does not exist or is not
+	 * 								valid (then, the graph is compiled again and file replaced).
+	 */
+	private static StateSpaceFilter read(File file) {
+		if (!file.isFile()) return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			return StateSpaceFilter.read(in);
+		}
+		catch (IOException e) {
+			return null;
+		}
+		catch (FilterException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Writes kernel (or nothing if it is null) to file. It is written to a temporary file first
+	 * and then renamed, so that other processes never read a partial file.
+	 * The cache is only an optimisation: if file cannot be written, the graph is compiled again
+	 * by the next process, so errors are ignored.
+	 *
+	 * @param	file	The file.
+	 * @param	kernel	The compiled graph, or null.
+	 */
+	private static void write(File file, StateSpaceFilter kernel) {
+		File temporary = null;
+		try {
+			temporary = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temporary)))) {
+				if (kernel != null) kernel.write(out);
+			}
+			if (!temporary.renameTo(file)) temporary.delete();
+		}
+		catch (IOException e) {
+			if (temporary != null) temporary.delete();
+		}
+	}
+}
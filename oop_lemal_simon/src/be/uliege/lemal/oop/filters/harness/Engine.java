@@ -0,0 +1,26 @@
+package be.uliege.lemal.oop.filters.harness;
+
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The Engine interface. An engine turns a filter into another filter that should produce the
+ * same output (e.g. by simplifying or compiling it). The harness compares them sample by sample.
+ */
+public interface Engine {
+	/**
+	 * Returns the name of this engine, as printed by the harness.
+	 *
+	 * @return	String	The name.
+	 */
+	String name();
+	
+	/**
+	 * Returns the filter this engine applies in place of f. It may modify f or return f itself.
+	 *
+	 * @param	f				The filter to apply.
+	 * @return	Filter			The filter this engine actually applies.
+	 * @throws	FilterException	Thrown if this engine cannot handle f.
+	 */
+	Filter prepare(Filter f) throws FilterException;
+}
@@ -0,0 +1,230 @@
+package be.uliege.lemal.oop.filters.harness;
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.io.PrintStream;
+import java.util.Vector;
+
+/**
+ * The Harness class. It applies filters as they are (the reference) and through every engine it
+ * was given, on the same signals, and checks the outputs are equal sample by sample, up to a
+ * tolerance. It also measures the throughput of each of them.
+ */
+public class Harness {
+	private final Vector<Engine> engines;
+	private final Vector<Double> tolerances;  // One per engine.
+	private final double tolerance;
+	private final int length;
+	private final PrintStream out;
+	private int failures = 0;
+	
+	/**
+	 * @param	tolerance		The largest difference allowed between a sample of the reference
+	 * 							and one of an engine. 0 means outputs must be bit-exact.
+	 * @param	length			The number of samples of each test signal.
+	 * @param	out				Where results are printed.
+	 * @throws	FilterException	Thrown if tolerance or length is negative or if out is null.
+	 */
+	public Harness(double tolerance, int length, PrintStream out) throws FilterException {
+		if (tolerance < 0 || length < 0) {
+			throw new FilterException("Tried to create harness with negative tolerance or length.");
+		}
+		if (out == null) {
+			throw new FilterException("Tried to create harness with null output stream.");
+		}
+		
+		engines = new Vector<Engine>();
+		tolerances = new Vector<Double>();
+		this.tolerance = tolerance;
+		this.length = length;
+		this.out = out;
+	}
+	
+	/**
+	 * Adds an engine to compare to the reference, with the tolerance of the harness.
+	 *
+	 * @param	engine			The engine.
+	 * @throws	FilterException	Thrown if engine is null.
+	 */
+	public void addEngine(Engine engine) throws FilterException {
+		addEngine(engine, tolerance);
+	}
+	
+	/**
+	 * Adds an engine to compare to the reference, with its own tolerance. Engines that change the
+	 * order of floating-point operations cannot be bit-exact.
+	 *
+	 * @param	engine			The engine.
+	 * @param	tolerance		The largest difference allowed between a sample of the reference
+	 * 							and one of this engine.
+	 * @throws	FilterException	Thrown if engine is null or if tolerance is negative.
+	 */
+	public void addEngine(Engine engine, double tolerance) throws FilterException {
+		if (engine == null) {
+			throw new FilterException("Tried to add null engine to harness.");
+		}
+		if (tolerance < 0) {
+			throw new FilterException("Tried to add engine to harness with negative tolerance.");
+		}
+		
+		engines.add(engine);
+		tolerances.add(tolerance);
+	}
+	
+	/**
+	 * Returns failures.
+	 *
+	 * @return	int	The number of comparisons that failed so far.
+	 */
+	public int failures() {
+		return failures;
+	}
+	
+	/**
+	 * Counts a failure found outside of the comparisons of this harness, and prints it.
+	 *
+	 * @param	name	The name of what failed, as printed.
+	 * @param	reason	Why it failed.
+	 */
+	public void fail(String name, String reason) {
+		failures++;
+		out.println(String.format("%-4s %-28s %s", "FAIL", name, reason));
+	}
+	
+	/**
+	 * Compares the reference and every engine on the filters returned by factory, with every kind
+	 * of signal, and prints one line per engine and signal.
+	 *
+	 * @param	name			The name of the filter, as printed.
+	 * @param	factory			Creates the filters (one for the reference and one per engine).
+	 * @return	boolean			True if every engine gave the same output as the reference.
+	 * @throws	FilterException	Thrown if a filter cannot be created or applied.
+	 */
+	public boolean compare(String name, FilterFactory factory) throws FilterException {
+		boolean passed = true;
+		for (String kind : Signals.KINDS) {
+			Filter reference = factory.create();
+			if (reference instanceof CompositeFilter) {
+				((CompositeFilter) reference).check(false);
+			} // Checks it without printing warnings.
+			
+			double[][] input = new double[reference.nbInputs()][];
+			for (int i = 0; i < input.length; i++) {
+				input[i] = Signals.generate(kind, length, i);
+			}
+			
+			double[][] expected = new double[reference.nbOutputs()][length];
+			double referenceRate = run(reference, input, expected);
+			
+			for (int e = 0; e < engines.size(); e++) {
+				Engine engine = engines.get(e);
+				Filter f = engine.prepare(factory.create());
+				double[][] actual = new double[f.nbOutputs()][length];
+				double rate = run(f, input, actual);
+				passed &= report(name, kind, engine.name(), expected, actual, tolerances.get(e),
+						referenceRate, rate);
+			}
+		}
+		return passed;
+	}
+	
+	/**
+	 * Checks the filters returned by factory and by other are the same filter, i.e. give the same
+	 * output (up to the tolerance of the harness) with every kind of signal, and prints one line
+	 * per signal. No engine is used: it checks two ways of building a filter agree.
+	 *
+	 * @param	name			The name of the comparison, as printed.
+	 * @param	factory			Creates the reference filters.
+	 * @param	other			Creates the filters compared to them.
+	 * @return	boolean			True if every output was the same as the reference.
+	 * @throws	FilterException	Thrown if a filter cannot be created or applied.
+	 */
+	public boolean compare(String name, FilterFactory factory, FilterFactory other)
+			throws FilterException {
+		boolean passed = true;
+		for (String kind : Signals.KINDS) {
+			Filter reference = factory.create(), f = other.create();
+			for (Filter g : new Filter[]{reference, f}) {
+				if (g instanceof CompositeFilter) ((CompositeFilter) g).check(false);
+			}
+			if (reference.nbInputs() != f.nbInputs() || reference.nbOutputs() != f.nbOutputs()) {
+				fail(name, "has different numbers of inputs or outputs");
+				return false;
+			}
+			
+			double[][] input = new double[reference.nbInputs()][];
+			for (int i = 0; i < input.length; i++) {
+				input[i] = Signals.generate(kind, length, i);
+			}
+			
+			double[][] expected = new double[reference.nbOutputs()][length];
+			double[][] actual = new double[f.nbOutputs()][length];
+			double referenceRate = run(reference, input, expected), rate = run(f, input, actual);
+			passed &= report(name, kind, "same", expected, actual, tolerance, referenceRate, rate);
+		}
+		return passed;
+	}
+	
+	/**
+	 * Compares actual to expected, counts a failure if they differ by more than tolerance, and
+	 * prints one line.
+	 *
+	 * @param	name			The name of the filter, as printed.
+	 * @param	kind			The kind of signal.
+	 * @param	engine			The name of the engine, as printed.
+	 * @param	expected		The output of the reference.
+	 * @param	actual			The output compared to it.
+	 * @param	tolerance		The largest difference allowed between two samples.
+	 * @param	referenceRate	The throughput of the reference, in samples per second.
+	 * @param	rate			The throughput of the filter compared, in samples per second.
+	 * @return	boolean			True if the outputs are equal up to tolerance.
+	 */
+	private boolean report(String name, String kind, String engine, double[][] expected,
+			double[][] actual, double tolerance, double referenceRate, double rate) {
+		double error = 0;
+		for (int i = 0; i < expected.length; i++) {
+			for (int j = 0; j < length; j++) {
+				if (Double.doubleToLongBits(expected[i][j]) != Double.doubleToLongBits(
+						actual[i][j])) {
+					error = Math.max(error, Math.abs(expected[i][j] - actual[i][j]));
+					if (Double.isNaN(error)) error = Double.POSITIVE_INFINITY;
+				}
+			}
+		} // Bit-identical samples (including NaNs) are equal.
+		
+		boolean ok = error <= tolerance;
+		if (!ok) failures++;
+		out.println(String.format("%-4s %-28s %-8s %-12s max error %-10.3g reference " +
+						"%8.0f samples/s, engine %8.0f samples/s (x%.2f)", ok ? "OK" : "FAIL",
+				name, kind, engine, error, referenceRate, rate, rate / referenceRate));
+		return ok;
+	}
+	
+	/**
+	 * Applies f to input and writes the outputs in output.
+	 *
+	 * @param	f				The filter.
+	 * @param	input			The input signals, one per input of f.
+	 * @param	output			Where the output signals are written, one per output of f.
+	 * @return	double			The throughput, in samples per second.
+	 * @throws	FilterException	Thrown if f throws an exception.
+	 */
+	private double run(Filter f, double[][] input, double[][] output) throws FilterException {
+		double[] in = new double[input.length];
+		long start = System.nanoTime();
+		for (int j = 0; j < length; j++) {
+			for (int i = 0; i < in.length; i++) {
+				in[i] = input[i][j];
+			}
+			double[] result = f.computeOneStep(in);
+			for (int i = 0; i < output.length; i++) {
+				output[i][j] = result[i];
+			}
+		}
+		long elapsed = Math.max(System.nanoTime() - start, 1);
+		return length * 1e9 / elapsed;
+	}
+}
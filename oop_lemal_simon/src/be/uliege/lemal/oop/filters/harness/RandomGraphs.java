@@ -0,0 +1,125 @@
+package be.uliege.lemal.oop.filters.harness;
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.compositeFilters.AllPassFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CombFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.EchoFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.LowPassFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.AdditionFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.MeanFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * The RandomGraphs class. It builds random, valid composite filters. The same seed always gives
+ * the same filter, so it can be used as a FilterFactory.
+ */
+public class RandomGraphs implements FilterFactory {
+	private final long seed;
+	private final int size, depth;
+	
+	/**
+	 * @param	seed	The seed of the random graph.
+	 * @param	size	The number of blocks of the graph (nested filters count as one).
+	 * @param	depth	How many levels of random composite filters can be nested.
+	 */
+	public RandomGraphs(long seed, int size, int depth) {
+		this.seed = seed;
+		this.size = size;
+		this.depth = depth;
+	}
+	
+	public Filter create() throws FilterException {
+		return build(new Random(seed), size, depth);
+	}
+	
+	/**
+	 * Builds a random composite filter with one input and one output.
+	 * Blocks read from the input or from previous blocks, so the graph has no loop without delay.
+	 * Some delay filters then read from themselves, through a small gain and an addition with a
+	 * block placed before them, which makes feedback loops that stay stable.
+	 *
+	 * @param	random			The random number generator.
+	 * @param	size			The number of blocks.
+	 * @param	depth			How many levels of random composite filters can be nested.
+	 * @return	CompositeFilter	The random filter.
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	private static CompositeFilter build(Random random, int size, int depth)
+			throws FilterException {
+		CompositeFilter c = new CompositeFilter();
+		Vector<Filter> blocks = new Vector<Filter>();
+		Vector<Filter> delays = new Vector<Filter>();
+		
+		for (int i = 0; i < size; i++) {
+			Filter f = randomFilter(random, depth);
+			c.addBlock(f);
+			
+			for (int j = 0; j < f.nbInputs(); j++) {
+				int from = random.nextInt(blocks.size() + 1) - 1;
+				if (from < 0) c.connectInputToBlock(0, f, j);
+				else c.connectBlockToBlock(blocks.get(from), 0, f, j);
+			} // Each input reads from the input of the composite filter or from a previous block.
+			
+			blocks.add(f);
+			if (f instanceof DelayFilter) delays.add(f);
+		}
+		
+		for (Filter delay : delays) {
+			if (random.nextInt(3) == 0) {
+				Filter gain = new GainFilter(random.nextDouble() * 0.6 - 0.3);
+				Filter add = new AdditionFilter();
+				c.addBlock(gain);
+				c.addBlock(add);
+				int from = random.nextInt(blocks.indexOf(delay) + 1) - 1;
+				if (from < 0) c.connectInputToBlock(0, add, 0);
+				else c.connectBlockToBlock(blocks.get(from), 0, add, 0);
+				c.connectBlockToBlock(delay, 0, gain, 0);
+				c.connectBlockToBlock(gain, 0, add, 1);
+				c.connectBlockToBlock(add, 0, delay, 0);
+				// The delay now reads from itself through gain, like in EchoFilter.
+			}
+		}
+		
+		c.connectBlockToOutput(blocks.lastElement(), 0, 0);
+		return c;
+	}
+	
+	/**
+	 * Returns a random filter with one output.
+	 *
+	 * @param	random			The random number generator.
+	 * @param	depth			How many levels of random composite filters can be nested.
+	 * @return	Filter			The random filter.
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	private static Filter randomFilter(Random random, int depth) throws FilterException {
+		switch (random.nextInt(depth > 0 ? 10 : 9)) {
+			case 0:
+			case 1:
+				return new GainFilter(random.nextDouble() * 1.6 - 0.8);
+			case 2:
+				return new AdditionFilter(1 + random.nextInt(3));
+			case 3:
+				return new MeanFilter(1 + random.nextInt(3));
+			case 4:
+			case 5:
+				return new DelayFilter(1 + random.nextInt(200));
+			case 6:
+				return new EchoFilter(1 + random.nextInt(200), 0.3 + random.nextDouble() * 0.6);
+			case 7:
+				return random.nextBoolean() ? new CombFilter(1 + random.nextInt(200), 0.5)
+						: new LowPassFilter(1 + random.nextInt(10), 0.2 + random.nextDouble() * 0.6);
+			case 8:
+				return new AllPassFilter(1 + random.nextInt(200), 0.1 + random.nextDouble() * 0.8);
+			default:
+				return build(random, 2 + random.nextInt(5), depth - 1);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package be.uliege.lemal.oop.filters.harness;
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.TrustedFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The RealTimeSimulator class. It applies filters as an audio device would, without one: a
+ * simulated clock calls back every bufferSize / sampleRate seconds, and every callback must
+ * filter one buffer for each instance of the filter before the next one is due. It measures the
+ * time each callback took, how late it started (jitter), how many callbacks missed their
+ * deadline and how many were interrupted by the garbage collector.
+ * Callbacks run on the calling thread, one after the other, as they would on the audio thread.
+ */
+public class RealTimeSimulator {
+	private final FilterFactory factory;
+	private final int sampleRate, bufferSize;
+	private final long period;  // The time between two callbacks, in nanoseconds.
+	
+	/**
+	 * The Report class. It holds the measures of one simulation.
+	 */
+	public static class Report {
+		public final int instances, callbacks, misses, collected;
+		// collected is the number of callbacks during which the garbage collector ran.
+		public final long period, median, p99, p999, worst, jitter;
+		// Compute times of the callbacks (percentiles), and 99th percentile of their lateness.
+		
+		private Report(int instances, long period, long[] times, long[] lateness, int misses,
+				int collected) {
+			this.instances = instances;
+			this.period = period;
+			callbacks = times.length;
+			this.misses = misses;
+			this.collected = collected;
+			Arrays.sort(times);
+			Arrays.sort(lateness);
+			median = percentile(times, 0.5);
+			p99 = percentile(times, 0.99);
+			p999 = percentile(times, 0.999);
+			worst = percentile(times, 1);
+			jitter = percentile(lateness, 0.99);
+		}
+		
+		/**
+		 * Returns the share of the period the callbacks take, at the 99th percentile.
+		 *
+		 * @return	double	The load, 1 when callbacks take the whole period.
+		 */
+		public double load() {
+			return (double) p99 / period;
+		}
+		
+		/**
+		 * Returns how many instances one core can run without missing deadlines, estimated from
+		 * the 99th percentile of the compute time per instance.
+		 *
+		 * @return	int	The number of instances.
+		 */
+		public int sustainable() {
+			return p99 == 0 ? Integer.MAX_VALUE : (int) (period * instances / p99);
+		}
+		
+		public String toString() {
+			return String.format("%4d instance(s)  p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us  " +
+					"max %8.1f us  jitter %7.1f us  load %5.1f%%  missed %d/%d  GC %d", instances,
+					median / 1e3, p99 / 1e3, p999 / 1e3, worst / 1e3, jitter / 1e3, 100 * load(),
+					misses, callbacks, collected);
+		}
+	}
+	
+	/**
+	 * @param	factory			Creates the instances of the filter. They must have one input.
+	 * @param	sampleRate		The number of samples per second.
+	 * @param	bufferSize		The number of samples filtered per callback.
+	 * @throws	FilterException	Thrown if factory is null or if sampleRate or bufferSize is
+	 * 							nonpositive.
+	 */
+	public RealTimeSimulator(FilterFactory factory, int sampleRate, int bufferSize)
+			throws FilterException {
+		if (factory == null) {
+			throw new FilterException("Tried to create real-time simulator with null factory.");
+		}
+		if (sampleRate <= 0 || bufferSize <= 0) {
+			throw new FilterException("Tried to create real-time simulator with nonpositive " +
+					"sample rate or buffer size.");
+		}
+		
+		this.factory = factory;
+		this.sampleRate = sampleRate;
+		this.bufferSize = bufferSize;
+		period = 1000000000L * bufferSize / sampleRate;
+	}
+	
+	/**
+	 * Runs instances instances of the filter for the given time, in real time, after one second
+	 * of warm-up (not measured) that lets the JIT compiler optimise them.
+	 *
+	 * @param	instances		The number of instances each callback filters a buffer for.
+	 * @param	seconds			How long the simulation lasts.
+	 * @return	Report			The measures.
+	 * @throws	FilterException	Thrown if instances is nonpositive, if seconds is negative or if
+	 * 							a filter throws an exception.
+	 */
+	public Report run(int instances, double seconds) throws FilterException {
+		if (instances <= 0 || seconds < 0) {
+			throw new FilterException("Tried to run real-time simulation with nonpositive " +
+					"number of instances or negative time.");
+		}
+		Filter[] filters = new Filter[instances];
+		for (int k = 0; k < instances; k++) {
+			filters[k] = factory.create();
+			if (filters[k].nbInputs() != 1) {
+				throw new FilterException("Real-time simulation expects filters with one input.");
+			}
+		}
+		double[] buffer = new double[bufferSize];
+		Random random = new Random(42);
+		for (int j = 0; j < bufferSize; j++) {
+			buffer[j] = random.nextDouble() * 2 - 1;
+		} // Every callback filters the same noise.
+		double[] in = new double[1], out = new double[filters[0].nbOutputs()];
+		
+		for (int warm = 0; warm < sampleRate / bufferSize; warm++) {
+			callback(filters, buffer, in, out);
+		}
+		
+		int nbCallbacks = (int) Math.max(1, seconds * sampleRate / bufferSize);
+		long[] times = new long[nbCallbacks], lateness = new long[nbCallbacks];
+		int misses = 0, collected = 0;
+		List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		long start = System.nanoTime() + period;
+		for (int c = 0; c < nbCallbacks; c++) {
+			long due = start + c * period;
+			waitUntil(due);
+			long collections = collections(collectors);
+			long begin = System.nanoTime();
+			callback(filters, buffer, in, out);
+			long end = System.nanoTime();
+			times[c] = end - begin;
+			lateness[c] = begin - due;
+			if (end > due + period) misses++;
+			if (collections(collectors) != collections) collected++;
+		} // Callbacks are due at fixed times: after a late one, the next ones start late until
+		// the filters catch up.
+		return new Report(instances, period, times, lateness, misses, collected);
+	}
+	
+	/**
+	 * Filters one buffer for each filter.
+	 */
+	private void callback(Filter[] filters, double[] buffer, double[] in, double[] out)
+			throws FilterException {
+		for (Filter f : filters) {
+			for (int j = 0; j < bufferSize; j++) {
+				in[0] = buffer[j];
+				if (f instanceof TrustedFilter) ((TrustedFilter) f).computeOneStep(in, out);
+				else f.computeOneStep(in);
+			}
+		}
+	}
+	
+	/**
+	 * Waits until System.nanoTime() reaches time: parks while it is far away, then spins so that
+	 * the callback starts on time.
+	 */
+	private static void waitUntil(long time) {
+		for (long left = time - System.nanoTime(); left > 0; left = time - System.nanoTime()) {
+			if (left > 200000) LockSupport.parkNanos(left - 100000);
+			else Thread.yield();
+		}
+	}
+	
+	/**
+	 * Returns the number of collections all garbage collectors made so far.
+	 */
+	private static long collections(List<GarbageCollectorMXBean> collectors) {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : collectors) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the element of sorted at rank p (between 0 and 1).
+	 */
+	private static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0) return 0;
+		int rank = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+	}
+}
@@ -0,0 +1,56 @@
+package be.uliege.lemal.oop.filters.harness;
+
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.util.Random;
+
+/**
+ * The Signals class. It generates deterministic test signals, so that no audio file is needed.
+ */
+public class Signals {
+	public static final String[] KINDS = new String[]{"impulse", "noise", "sweep"};
+	public static final int SAMPLE_RATE = 44100;
+	
+	private Signals() {
+	} // This class only has static methods.
+	
+	/**
+	 * Returns a signal of the given kind.
+	 *
+	 * @param	kind			"impulse" (a single 1 followed by zeros), "noise" (uniform white
+	 * 							noise in [-1, 1)) or "sweep" (a sine whose frequency rises from
+	 * 							20 Hz to 20 kHz).
+	 * @param	length			The number of samples.
+	 * @param	seed			Makes the noise different from one channel to another.
+	 * @return	double[]		The signal.
+	 * @throws	FilterException	Thrown if kind is unknown or length is negative.
+	 */
+	public static double[] generate(String kind, int length, long seed) throws FilterException {
+		if (length < 0) {
+			throw new FilterException("Tried to generate signal with negative length.");
+		}
+		
+		double[] signal = new double[length];
+		if ("impulse".equals(kind)) {
+			if (length > 0) signal[0] = 1;
+		}
+		else if ("noise".equals(kind)) {
+			Random random = new Random(seed);
+			for (int i = 0; i < length; i++) {
+				signal[i] = random.nextDouble() * 2 - 1;
+			}
+		}
+		else if ("sweep".equals(kind)) {
+			double f0 = 20, f1 = 20000, duration = (double) length / SAMPLE_RATE;
+			double k = Math.log(f1 / f0) / duration;
+			for (int i = 0; i < length; i++) {
+				double t = (double) i / SAMPLE_RATE;
+				signal[i] = 0.5 * Math.sin(2 * Math.PI * f0 * (Math.exp(k * t) - 1) / k);
+			} // Exponential sweep: the frequency at time t is f0 * exp(k * t).
+		}
+		else {
+			throw new FilterException("Unknown signal kind: " + kind + ".");
+		}
+		return signal;
+	}
+}
@@ -0,0 +1,311 @@
+package be.uliege.lemal.oop.filters.metering;
+
+import be.uliege.lemal.oop.filters.Denormals;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+/**
+ * The Meter class. It measures a signal sample by sample, as it is produced: its peak, its RMS
+ * level, the number of samples at or above full scale (1.0), and its loudness as defined by
+ * ITU-R BS.1770 and EBU R128, for one channel. Loudness is measured on the signal weighted by the
+ * K-filter (a high-shelf and a high-pass biquad), over blocks of 400 ms starting every 100 ms:
+ * the momentary loudness is the one of the last block, and the integrated loudness the one of all
+ * blocks above -70 LUFS and above 10 LU below their mean. Blocks are kept as a histogram, so
+ * measuring allocates nothing, however long the signal.
+ * A meter is attached to an output or to an edge of a composite filter (see
+ * CompositeFilter.meterOutput and meterBlock), or fed directly with add.
+ * Readings can be taken by any thread: the thread that measures publishes them every 100 ms,
+ * and once it is done (see publish). Measuring itself takes no lock.
+ */
+public class Meter {
+	public static final double FULL_SCALE = 1.0;
+	public static final double ABSOLUTE_GATE = -70;  // LUFS.
+	public static final double RELATIVE_GATE = -10;  // LU, relative to the absolutely gated mean.
+	private static final double OFFSET = -0.691;  // Loudness of a mean square of 1, in LUFS.
+	private static final double BIN = 0.1;  // Width of the bins of the histogram, in LU.
+	private static final int BINS = 800;  // From -70 to +10 LUFS. Louder blocks go in the last.
+	
+	private final int sampleRate, step;  // step is the number of samples in 100 ms.
+	private final double b0, b1, b2, a1, a2;  // The high-shelf stage of the K-filter.
+	private final double c1, c2;  // The high-pass stage, whose numerator is 1, -2, 1.
+	private double s1, s2, h1, h2;  // The states of both stages (transposed direct form II).
+	
+	private long samples = 0, clipped = 0;
+	private double peak = 0, squares = 0;
+	private final double[] quarters = new double[4];  // Weighted energy of the last 100 ms steps.
+	private int quarter = 0, filled = 0, position = 0;
+	private double momentary = Double.NEGATIVE_INFINITY;
+	private final long[] counts = new long[BINS];
+	private final double[] energies = new double[BINS];  // Sum of the mean squares of each bin.
+	private long gated = 0;
+	private double gatedEnergy = 0;  // Sum of the mean squares of the blocks above -70 LUFS.
+	// These are only accessed by the thread that measures.
+	
+	private volatile long publishedSamples = 0, publishedClipped = 0;
+	private volatile double publishedPeak = 0, publishedSquares = 0;
+	private volatile double publishedMomentary = Double.NEGATIVE_INFINITY;
+	private volatile double publishedIntegrated = Double.NEGATIVE_INFINITY;
+	// Writing a volatile double is atomic, so readers never have to lock anything.
+	
+	/**
+	 * @param	sampleRate		The sample rate of the signal, in Hz.
+	 * @throws	FilterException	Thrown if sampleRate is lower than 10 Hz.
+	 */
+	public Meter(int sampleRate) throws FilterException {
+		if (sampleRate < 10) {
+			throw new FilterException("Tried to create meter with sample rate below 10 Hz.");
+		}
+		this.sampleRate = sampleRate;
+		step = sampleRate / 10;
+		
+		double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate), q = 0.7071752369554196;
+		double vh = Math.pow(10, 3.999843853973347 / 20), vb = Math.pow(vh, 0.4996667741545416);
+		double a0 = 1 + k / q + k * k;
+		b0 = (vh + vb * k / q + k * k) / a0;
+		b1 = 2 * (k * k - vh) / a0;
+		b2 = (vh - vb * k / q + k * k) / a0;
+		a1 = 2 * (k * k - 1) / a0;
+		a2 = (1 - k / q + k * k) / a0;
+		k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+		q = 0.5003270373238773;
+		a0 = 1 + k / q + k * k;
+		c1 = 2 * (k * k - 1) / a0;
+		c2 = (1 - k / q + k * k) / a0;
+		// The K-filter of BS.1770, given at 48 kHz, derived from its analog prototype for any rate.
+	}
+	
+	/**
+	 * Returns sampleRate.
+	 *
+	 * @return	int	The sample rate of the signal, in Hz.
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * Measures one more sample. Only one thread may call this.
+	 *
+	 * @param	sample	The sample.
+	 */
+	public void add(double sample) {
+		double magnitude = Math.abs(sample);
+		if (magnitude > peak) peak = magnitude;
+		if (magnitude >= FULL_SCALE) clipped++;
+		squares += sample * sample;
+		samples++;
+		
+		double shelf = b0 * sample + s1;
+		s1 = b1 * sample - a1 * shelf + s2;
+		s2 = b2 * sample - a2 * shelf;
+		double weighted = shelf + h1;
+		h1 = -2 * shelf - c1 * weighted + h2;
+		h2 = shelf - c2 * weighted;
+		quarters[quarter] += weighted * weighted;
+		
+		if (++position == step) endStep();
+	}
+	
+	/**
+	 * Ends a step of 100 ms: measures the block of the last four steps and publishes readings.
+	 */
+	private void endStep() {
+		position = 0;
+		s1 = Denormals.flush(s1);
+		s2 = Denormals.flush(s2);
+		h1 = Denormals.flush(h1);
+		h2 = Denormals.flush(h2);
+		// Once the signal is silent, the K-filter decays, but not below the flushing threshold.
+		
+		quarter = (quarter + 1) & 3;
+		if (filled < 4) filled++;
+		if (filled == 4) {
+			double energy = (quarters[0] + quarters[1] + quarters[2] + quarters[3]) / (4 * step);
+			momentary = loudness(energy);
+			if (momentary >= ABSOLUTE_GATE) {
+				int bin = Math.min(BINS - 1, (int) ((momentary - ABSOLUTE_GATE) / BIN));
+				counts[bin]++;
+				energies[bin] += energy;
+				gated++;
+				gatedEnergy += energy;
+			}
+		}
+		quarters[quarter] = 0;  // The oldest step is replaced by the next one.
+		publish();
+	}
+	
+	/**
+	 * Publishes the readings of the samples measured so far, so that other threads can read
+	 * them. This is done every 100 ms of signal; the thread that measures calls this once it is
+	 * done, so that readings include the last samples.
+	 */
+	public void publish() {
+		double integrated = Double.NEGATIVE_INFINITY;
+		if (gated > 0) {
+			double threshold = loudness(gatedEnergy / gated) + RELATIVE_GATE;
+			int first = Math.max(0, (int) Math.floor((threshold - ABSOLUTE_GATE) / BIN));
+			long count = 0;
+			double energy = 0;
+			for (int bin = first; bin < BINS; bin++) {
+				count += counts[bin];
+				energy += energies[bin];
+			} // Blocks are gated by bin, i.e. to BIN LU.
+			if (count > 0) integrated = loudness(energy / count);
+		}
+		
+		publishedSamples = samples;
+		publishedClipped = clipped;
+		publishedPeak = peak;
+		publishedSquares = squares;
+		publishedMomentary = momentary;
+		publishedIntegrated = integrated;
+	}
+	
+	/**
+	 * Forgets the samples measured so far. Only the thread that measures may call this.
+	 */
+	public void reset() {
+		s1 = s2 = h1 = h2 = 0;
+		samples = clipped = 0;
+		peak = squares = 0;
+		for (int k = 0; k < 4; k++) {
+			quarters[k] = 0;
+		}
+		quarter = filled = position = 0;
+		momentary = Double.NEGATIVE_INFINITY;
+		for (int bin = 0; bin < BINS; bin++) {
+			counts[bin] = 0;
+			energies[bin] = 0;
+		}
+		gated = 0;
+		gatedEnergy = 0;
+		publish();
+	}
+	
+	/**
+	 * Returns the readings published so far, as one line that restore reads back exactly.
+	 *
+	 * @return	String	The numbers of samples and of clipped samples, the peak, the sum of the
+	 * 					squares of the samples and both loudness readings, separated by spaces.
+	 */
+	public String save() {
+		return String.format("%d %d %s %s %s %s", publishedSamples, publishedClipped,
+				Double.toString(publishedPeak), Double.toString(publishedSquares),
+				Double.toString(publishedMomentary), Double.toString(publishedIntegrated));
+	}
+	
+	/**
+	 * Replaces the published readings with ones returned by save(), e.g. those of a signal read
+	 * from a cache instead of being measured again. Only the readings are replaced: samples
+	 * measured afterwards are measured as if the restored ones had not been, and their readings
+	 * replace the restored ones once published. It must not be called while samples are measured.
+	 *
+	 * @param	readings		The readings.
+	 * @throws	FilterException	Thrown if readings were not returned by save().
+	 */
+	public void restore(String readings) throws FilterException {
+		String[] tokens = readings.trim().split(" ");
+		if (tokens.length != 6) {
+			throw new FilterException("Tried to restore malformed meter readings.");
+		}
+		try {
+			long samples = Long.parseLong(tokens[0]), clipped = Long.parseLong(tokens[1]);
+			double peak = Double.parseDouble(tokens[2]), squares = Double.parseDouble(tokens[3]);
+			double momentary = Double.parseDouble(tokens[4]);
+			double integrated = Double.parseDouble(tokens[5]);
+			publishedSamples = samples;
+			publishedClipped = clipped;
+			publishedPeak = peak;
+			publishedSquares = squares;
+			publishedMomentary = momentary;
+			publishedIntegrated = integrated;
+		}
+		catch (NumberFormatException e) {
+			throw new FilterException("Tried to restore malformed meter readings.");
+		}
+	}
+	
+	/**
+	 * Returns the number of samples measured.
+	 *
+	 * @return	long	The number of samples.
+	 */
+	public long getSamples() {
+		return publishedSamples;
+	}
+	
+	/**
+	 * Returns the number of samples at or above full scale, in absolute value. Written as
+	 * integers, they would have been clipped.
+	 *
+	 * @return	long	The number of samples.
+	 */
+	public long getClipped() {
+		return publishedClipped;
+	}
+	
+	/**
+	 * Returns the largest absolute value of the samples.
+	 *
+	 * @return	double	The peak, 1.0 being full scale.
+	 */
+	public double getPeak() {
+		return publishedPeak;
+	}
+	
+	/**
+	 * Returns the root mean square of the samples.
+	 *
+	 * @return	double	The RMS level, 1.0 being full scale, or 0 if nothing was measured.
+	 */
+	public double getRms() {
+		long n = publishedSamples;
+		return n == 0 ? 0 : Math.sqrt(publishedSquares / n);
+	}
+	
+	/**
+	 * Returns the loudness of the last 400 ms.
+	 *
+	 * @return	double	The momentary loudness, in LUFS, or -infinity before the first 400 ms.
+	 */
+	public double getMomentaryLoudness() {
+		return publishedMomentary;
+	}
+	
+	/**
+	 * Returns the gated loudness of the whole signal.
+	 *
+	 * @return	double	The integrated loudness, in LUFS, or -infinity if no block was above
+	 * 					-70 LUFS.
+	 */
+	public double getIntegratedLoudness() {
+		return publishedIntegrated;
+	}
+	
+	/**
+	 * Returns the readings on one line: peak and RMS in dBFS, clipped samples and loudness.
+	 *
+	 * @return	String	The readings.
+	 */
+	public String toString() {
+		return String.format("peak %6.1f dBFS  RMS %6.1f dBFS  %d clipped  %6.1f LUFS " +
+				"integrated  %6.1f LUFS momentary", decibels(getPeak()), decibels(getRms()),
+				getClipped(), getIntegratedLoudness(), getMomentaryLoudness());
+	}
+	
+	/**
+	 * Returns level in decibels relative to full scale.
+	 *
+	 * @param	level	The level, 1.0 being full scale.
+	 * @return	double	20 log10(level), -infinity for 0.
+	 */
+	public static double decibels(double level) {
+		return 20 * Math.log10(level);
+	}
+	
+	/**
+	 * Returns the loudness of a block of mean square energy.
+	 */
+	private static double loudness(double energy) {
+		return OFFSET + 10 * Math.log10(energy);
+	}
+}
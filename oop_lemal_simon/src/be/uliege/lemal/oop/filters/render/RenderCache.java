@@ -0,0 +1,330 @@
+package be.uliege.lemal.oop.filters.render;
+
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.metering.Meter;
+import be.uliege.montefiore.oop.audio.FilterException;
+import be.uliege.montefiore.oop.audio.TestAudioFilter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The RenderCache class. It keeps filtered audio files in a directory, by the hash of their
+ * source file and of the description of their filter (see CompositeFilter.describe). Filtering
+ * a file that was already filtered with the same filter, even by another process, copies the
+ * stored output instead of computing it again. Copies are made by the operating system (see
+ * FileChannel.transferTo), without going through the Java heap.
+ * The readings of the meters attached to the outputs of the filter (see
+ * CompositeFilter.meterOutput) are stored next to the output, and restored in the meters when it
+ * is copied, so that copied outputs need not be measured again.
+ * Filters that cannot be described (e.g. FDN reverberators, or gains that are changing) are
+ * applied without the cache.
+ * The directory is bounded: once its files are larger than a given size, the least recently
+ * used ones are deleted. Recency is the modification date of the files, so it is shared by all
+ * processes using the same directory. Files are named after their hash and the version of the
+ * library (see VERSION), so that outputs stored by another version are never copied.
+ */
+public class RenderCache {
+	private static final String EXTENSION = ".wav";
+	private static final String READINGS = ".meters";  // The readings of the meters, if any.
+	private static final int VERSION = 1;
+	// The version of the filters and of the stored files. Outputs stored for a description are
+	// wrong if a filter changes its output, so this must be increased whenever one does, or
+	// whenever the format of the outputs or of the readings changes.
+	
+	private final File directory;
+	private final long maxBytes;
+	private int hits = 0, misses = 0;
+	
+	/**
+	 * @param	directory		The directory the filtered files are stored in. It is created if
+	 * 							it does not exist.
+	 * @param	maxBytes		The largest total size of the stored files, in bytes.
+	 * @throws	FilterException	Thrown if directory is null or cannot be created, or if maxBytes
+	 * 							is negative.
+	 */
+	public RenderCache(File directory, long maxBytes) throws FilterException {
+		if (directory == null) {
+			throw new FilterException("Tried to create render cache with null directory.");
+		}
+		if (maxBytes < 0) {
+			throw new FilterException("Tried to create render cache with negative size.");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new FilterException("Could not create render cache directory " + directory + ".");
+		}
+		
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Applies f to source and writes the output in destination, or copies the output stored for
+	 * the same source and filter. f must not have been applied yet: its description is taken
+	 * before filtering, and only stands for a filter with empty delay lines.
+	 * Either way, the meters attached to the outputs of f hold the readings of the output once
+	 * this returns. An output stored without readings is filtered again if f has meters.
+	 * If f cannot be described (see CompositeFilter.describe), it is applied and its output is
+	 * not stored.
+	 *
+	 * @param	f				The filter.
+	 * @param	source			The source file.
+	 * @param	destination		The filtered file.
+	 * @return	boolean			True if the output was copied from the cache.
+	 * @throws	FilterException	Thrown if filtering fails.
+	 * @throws	IOException		Thrown if source cannot be read or destination written.
+	 */
+	public boolean render(CompositeFilter f, File source, File destination)
+			throws FilterException, IOException {
+		String key = key(f, source);
+		if (key == null) {
+			synchronized (this) {
+				misses++;
+			}
+			apply(f, source, destination);
+			return false;
+		}
+		File stored = new File(directory, key + EXTENSION), readings = new File(directory,
+				key + READINGS);
+		Meter[] meters = new Meter[f.nbOutputs()];
+		boolean metered = false;
+		for (int o = 0; o < meters.length; o++) {
+			meters[o] = f.getOutputMeter(o);
+			if (meters[o] != null) metered = true;
+		}
+		
+		synchronized (this) {
+			if (stored.isFile() && (!metered || readings.isFile())) {
+				try {
+					if (metered) restore(meters, readings);
+					copy(stored, destination);
+					stored.setLastModified(System.currentTimeMillis());
+					hits++;
+					return true;
+				}
+				catch (IOException e) {
+					stored.delete();
+					readings.delete();
+				} // Another process may have evicted it meanwhile: it is filtered again.
+			}
+			misses++;
+		}
+		
+		apply(f, source, destination);
+		File temporary = null;
+		try {
+			if (metered) {
+				temporary = File.createTempFile(readings.getName(), ".tmp", directory);
+				save(meters, temporary);
+				if (!temporary.renameTo(readings)) temporary.delete();
+			} // Readings are stored first, so that a stored output always has them.
+			temporary = File.createTempFile(stored.getName(), ".tmp", directory);
+			copy(destination, temporary);
+			if (!temporary.renameTo(stored)) temporary.delete();
+		}
+		catch (IOException e) {
+			if (temporary != null) temporary.delete();
+		} // The cache is only an optimisation: if the output cannot be stored, it is not.
+		evict();
+		return false;
+	}
+	
+	/**
+	 * Applies f to source, writes the output in destination and publishes the readings of the
+	 * meters attached to the outputs of f.
+	 *
+	 * @param	f				The filter.
+	 * @param	source			The source file.
+	 * @param	destination		The filtered file.
+	 * @throws	FilterException	Thrown if filtering fails.
+	 * @throws	IOException		Thrown if source cannot be read or destination written.
+	 */
+	private static void apply(CompositeFilter f, File source, File destination)
+			throws FilterException, IOException {
+		try {
+			TestAudioFilter.applyFilter(f, source.getPath(), destination.getPath());
+		}
+		catch (Exception e) {
+			if (e instanceof FilterException) throw (FilterException) e;
+			if (e instanceof IOException) throw (IOException) e;
+			throw new FilterException("An exception was thrown while filtering " + source +
+					". Message reads:\n" + e.getMessage());
+		}
+		
+		for (int o = 0; o < f.nbOutputs(); o++) {
+			Meter meter = f.getOutputMeter(o);
+			if (meter != null) meter.publish();
+		} // Their readings include the last samples.
+	}
+	
+	/**
+	 * Returns the number of renders whose output was copied from the cache.
+	 *
+	 * @return	int	The number of hits.
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+	
+	/**
+	 * Returns the number of renders that had to filter their source.
+	 *
+	 * @return	int	The number of misses.
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * Deletes the least recently used files of the directory until their total size is at
+	 * most maxBytes.
+	 */
+	private synchronized void evict() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File directory, String name) {
+				return name.endsWith(EXTENSION);
+			}
+		}); // Temporary files being written by other processes are left alone.
+		if (files == null) return;
+		long size = 0;
+		for (File file : files) {
+			size += file.length();
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (int i = 0; i < files.length && size > maxBytes; i++) {
+			long length = files[i].length();
+			if (files[i].delete()) size -= length;
+			String name = files[i].getName();
+			new File(directory, name.substring(0, name.length() - EXTENSION.length()) + READINGS)
+					.delete();
+		} // Readings are a few bytes, so they are not counted.
+	}
+	
+	/**
+	 * Returns the key of the output of f applied to source: the SHA-256 hash of the content of
+	 * source and of the description of f, followed by the version.
+	 *
+	 * @param	f				The filter.
+	 * @param	source			The source file.
+	 * @return	String			The key, or null if f cannot be described.
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 * @throws	IOException		Thrown if source cannot be read.
+	 */
+	private static String key(CompositeFilter f, File source) throws FilterException, IOException {
+		String description;
+		try {
+			description = f.describe();
+		}
+		catch (FilterException e) {
+			return null;
+		} // f is not made of filters whose parameters describe the output.
+		
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new FilterException("Unexpected error: SHA-256 is not available.");
+			// In practice, every Java platform provides it.
+		}
+		
+		byte[] buffer = new byte[1 << 16];
+		try (InputStream in = new FileInputStream(source)) {
+			for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		digest.update((byte) 0);  // Separates the source from the description.
+		digest.update(description.getBytes(StandardCharsets.UTF_8));
+		
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex + "-v" + VERSION;
+	}
+	
+	/**
+	 * Writes the readings of meters in file, one line per output that has a meter.
+	 *
+	 * @param	meters			The meters of the outputs, null for outputs without one.
+	 * @param	file			The file.
+	 * @throws	IOException		Thrown if file cannot be written.
+	 */
+	private static void save(Meter[] meters, File file) throws IOException {
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(file),
+				StandardCharsets.UTF_8)) {
+			for (int o = 0; o < meters.length; o++) {
+				if (meters[o] != null) out.write(o + " " + meters[o].save() + "\n");
+			}
+		}
+	}
+	
+	/**
+	 * Restores the readings of file (see save) in meters.
+	 *
+	 * @param	meters			The meters of the outputs, null for outputs without one.
+	 * @param	file			The file.
+	 * @throws	IOException		Thrown if file cannot be read, or does not hold the readings of
+	 * 							every meter.
+	 */
+	private static void restore(Meter[] meters, File file) throws IOException {
+		String[] readings = new String[meters.length];
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), StandardCharsets.UTF_8))) {
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				int space = line.indexOf(' ');
+				int o = space < 0 ? -1 : Integer.parseInt(line.substring(0, space));
+				if (o >= 0 && o < readings.length) readings[o] = line.substring(space + 1);
+			}
+			for (int o = 0; o < meters.length; o++) {
+				if (meters[o] == null) continue;
+				if (readings[o] == null) {
+					throw new IOException("No readings stored for output " + o + ".");
+				}
+				meters[o].restore(readings[o]);
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Malformed readings in " + file + ".");
+		}
+		catch (FilterException e) {
+			throw new IOException("Malformed readings in " + file + ".");
+		}
+	}
+	
+	/**
+	 * Copies from to to, with FileChannel.transferTo.
+	 *
+	 * @param	from			The file to copy.
+	 * @param	to				The copy.
+	 * @throws	IOException		Thrown if from cannot be read or to written.
+	 */
+	private static void copy(File from, File to) throws IOException {
+		try (FileChannel in = new FileInputStream(from).getChannel();
+				FileChannel out = new FileOutputStream(to).getChannel()) {
+			long size = in.size();
+			for (long position = 0; position < size; ) {
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+	}
+}
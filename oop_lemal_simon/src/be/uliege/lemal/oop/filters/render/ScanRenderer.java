@@ -0,0 +1,242 @@
+package be.uliege.lemal.oop.filters.render;
+
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.ImpulseResponse;
+import be.uliege.lemal.oop.filters.compositeFilters.StateSpaceFilter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The ScanRenderer class. It applies a linear composite filter (see StateSpaceFilter) to a long
+ * signal on several cores, even if the filter has feedback loops, by splitting the signal into
+ * chunks:
+ * - first, each chunk is filtered in parallel from empty delay lines;
+ * - then, the state each chunk's filter ended with is carried into the next chunk: the filter is
+ *   applied to zeros from that state, and its output is added to the next chunk's output.
+ * As the filter is linear, the sum is what a single filter would have output. Chunks are long
+ * enough for a carried output to be over by the end of the next chunk, so that both steps are
+ * parallel:
+ * - with a threshold, only the part of the carried output above it is computed, and the output
+ *   is exact up to the threshold;
+ * - in exact mode, filters without feedback are carried for their memory (see
+ *   CompositeFilter.memory), after which their output is exactly 0. The output of a filter with
+ *   feedback never ends: carrying it exactly would take as long as filtering the whole signal on
+ *   one core, so such filters are applied to the whole signal at once.
+ */
+public class ScanRenderer {
+	private final StateSpaceFilter kernel;
+	private final ForkJoinPool pool;
+	private final double threshold;
+	private final long memory;  // The memory of the filter, -1 if it has feedback.
+	
+	/**
+	 * @param	f				The filter. It is compiled, and not modified.
+	 * @param	pool			The pool chunks are filtered on.
+	 * @param	threshold		The level (in dB, relative to the peak of the impulse response)
+	 * 							below which the carried output is neglected, or
+	 * 							Double.NEGATIVE_INFINITY for exact mode.
+	 * @throws	FilterException	Thrown if f or pool is null, if threshold is nonnegative or if f
+	 * 							cannot be compiled.
+	 */
+	public ScanRenderer(CompositeFilter f, ForkJoinPool pool, double threshold)
+			throws FilterException {
+		if (f == null) {
+			throw new FilterException("Tried to create scan renderer with null filter.");
+		}
+		if (pool == null) {
+			throw new FilterException("Tried to create scan renderer with null pool.");
+		}
+		if (!(threshold < 0)) {
+			throw new FilterException("Tried to create scan renderer with nonnegative threshold.");
+		}
+		
+		kernel = f.compile();
+		this.pool = pool;
+		this.threshold = threshold;
+		memory = f.memory();
+	}
+	
+	/**
+	 * Creates a new scan renderer in exact mode, on the common pool.
+	 *
+	 * @param	f				The filter. It is compiled, and not modified.
+	 * @throws	FilterException	Thrown if f is null or cannot be compiled.
+	 */
+	public ScanRenderer(CompositeFilter f) throws FilterException {
+		this(f, ForkJoinPool.commonPool(), Double.NEGATIVE_INFINITY);
+	}
+	
+	/**
+	 * Returns whether the output is exact (up to rounding errors).
+	 *
+	 * @return	boolean	True in exact mode.
+	 */
+	public boolean isExact() {
+		return threshold == Double.NEGATIVE_INFINITY;
+	}
+	
+	/**
+	 * Returns whether signals are split into chunks.
+	 *
+	 * @return	boolean	False in exact mode, if the filter has feedback.
+	 */
+	public boolean isParallel() {
+		return !isExact() || memory >= 0;
+	}
+	
+	/**
+	 * Applies the filter to input followed by tail samples of silence, so that the output also
+	 * holds the tail of the filter (see CompositeFilter.tailLength). Output signals are allocated
+	 * once, with their final length.
+	 *
+	 * @param	input			The input signals, one per input of the filter, of equal lengths.
+	 * @param	tail			The number of samples of silence after input.
+	 * @return	double[][]		The output signals, one per output of the filter, tail samples
+	 * 							longer than input.
+	 * @throws	FilterException	Thrown if input does not match the filter or if tail is negative.
+	 */
+	public double[][] render(double[][] input, int tail) throws FilterException {
+		return render(SegmentRenderer.withSilence(input, tail));
+	}
+	
+	/**
+	 * Applies the filter to input.
+	 *
+	 * @param	input			The input signals, one per input of the filter, of equal lengths.
+	 * @return	double[][]		The output signals, one per output of the filter.
+	 * @throws	FilterException	Thrown if input does not match the filter.
+	 */
+	public double[][] render(final double[][] input) throws FilterException {
+		if (input == null || input.length != kernel.nbInputs()) {
+			throw new FilterException("Provided input to scan renderer that does not match the " +
+					"number of inputs of the filter.");
+		}
+		final int length = input.length == 0 ? 0 : input[0].length;
+		for (double[] channel : input) {
+			if (channel == null || channel.length != length) {
+				throw new FilterException("Provided input channels of different lengths to scan " +
+						"renderer.");
+			}
+		}
+		final double[][] output = new double[kernel.nbOutputs()][length];
+		
+		final int carry = !isParallel() ? -1 : isExact() ? (int) Math.min(memory, length)
+				: ImpulseResponse.length(kernel.copy(), threshold, length);
+		// How long the output carried from a state is computed, -1 if it never ends.
+		int chunks = Math.max(1, Math.min(pool.getParallelism(), length));
+		chunks = carry < 0 ? 1 : Math.max(1, Math.min(chunks, length / Math.max(carry, 1)));
+		// A carried output must be over at the end of the next chunk, so chunks are longer than
+		// carry. If it never ends within the whole signal, there is only one chunk.
+		final int size = (length + chunks - 1) / chunks;
+		
+		final StateSpaceFilter[] filters = new StateSpaceFilter[chunks];
+		Vector<Callable<Void>> tasks = new Vector<Callable<Void>>();
+		for (int k = 0; k < chunks; k++) {
+			final int start = Math.min(length, k * size), end = Math.min(length, start + size);
+			final StateSpaceFilter filter = filters[k] = kernel.copy();
+			filter.setPosition(start);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					apply(filter, input, output, start, end);
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);  // Each chunk from empty delay lines.
+		
+		tasks.clear();
+		for (int k = 1; k < chunks; k++) {
+			final int start = Math.min(length, k * size), end = Math.min(length, start + size);
+			final StateSpaceFilter from = filters[k - 1];
+			tasks.add(new Callable<Void>() {
+				public Void call() throws FilterException {
+					carry(from, output, start, end, carry);
+					return null;
+				}
+			});
+		} // The output carried into chunk k - 1 is over before chunk k, so chunks are independent.
+		invokeAll(tasks);
+		return output;
+	}
+	
+	/**
+	 * Applies filter to input from start to end, and writes its outputs in output.
+	 *
+	 * @param	filter		The filter.
+	 * @param	input		The input signals.
+	 * @param	output		The output signals.
+	 * @param	start		Where the chunk starts.
+	 * @param	end			Where the chunk ends (excluded).
+	 */
+	private static void apply(StateSpaceFilter filter, double[][] input, double[][] output,
+			int start, int end) {
+		double[] in = new double[input.length], out = new double[output.length];
+		for (int j = start; j < end; j++) {
+			for (int i = 0; i < in.length; i++) {
+				in[i] = input[i][j];
+			}
+			filter.computeOneStepTrusted(in, out);
+			for (int i = 0; i < out.length; i++) {
+				output[i][j] = out[i];
+			}
+		}
+	}
+	
+	/**
+	 * Applies a copy of from, from its state, to zeros from start to at most end, and adds its
+	 * outputs to output.
+	 *
+	 * @param	from			The filter of the previous chunk, in the state it ended with.
+	 * @param	output			The output signals.
+	 * @param	start			Where the chunk starts.
+	 * @param	end				Where the chunk ends (excluded).
+	 * @param	length			The largest number of samples computed.
+	 * @throws	FilterException	In practice, this should never be thrown.
+	 */
+	private static void carry(StateSpaceFilter from, double[][] output, int start, int end,
+			int length) throws FilterException {
+		StateSpaceFilter filter = from.copy();
+		filter.setState(from);
+		double[] zeros = new double[filter.nbInputs()], out = new double[output.length];
+		long check = Math.max(filter.stateSize(), 1);
+		
+		int stop = (int) Math.min(end, (long) start + length);
+		for (int j = start; j < stop; j++) {
+			if ((j - start) % check == 0 && filter.isSilent()) return;
+			// Checking costs one sample per sample of state, so it is done once in a while.
+			
+			filter.computeOneStepTrusted(zeros, out);
+			for (int i = 0; i < out.length; i++) {
+				output[i][j] += out[i];
+			}
+		}
+	}
+	
+	/**
+	 * Runs tasks on pool and waits for all of them.
+	 *
+	 * @param	tasks			The tasks.
+	 * @throws	FilterException	Thrown if a task throws an exception or if the thread is
+	 * 							interrupted.
+	 */
+	private void invokeAll(Vector<Callable<Void>> tasks) throws FilterException {
+		try {
+			for (Future<Void> result : pool.invokeAll(tasks)) {
+				result.get();
+			}
+		}
+		catch (ExecutionException e) {
+			throw new FilterException("An exception was thrown while rendering a chunk. " +
+					"Message reads:\n" + e.getCause().getMessage());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FilterException("Scan rendering was interrupted.");
+		}
+	}
+}
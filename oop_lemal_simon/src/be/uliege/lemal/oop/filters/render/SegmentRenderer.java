@@ -0,0 +1,287 @@
+package be.uliege.lemal.oop.filters.render;
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.FDNReverb;
+import be.uliege.lemal.oop.filters.compositeFilters.ImpulseResponse;
+import be.uliege.lemal.oop.filters.compositeFilters.StateSpaceFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.AdditionFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.DelayFilter;
+import be.uliege.lemal.oop.filters.elementaryFilters.GainFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The SegmentRenderer class. It applies a filter to a long signal on several cores, by splitting
+ * the signal into segments that are filtered in parallel, each by its own filter.
+ * Before filtering its segment, each filter is warmed up on the samples that precede it, so that
+ * it reaches the state it would have reached by filtering the signal from the start:
+ * - for filters without feedback, the warm-up is their memory, and the output is exact;
+ * - for filters with feedback, the warm-up is the time it takes for their impulse response to
+ *   fall below a threshold, and the output is exact up to that threshold.
+ * Filters that are not time-invariant (see CompositeFilter.isTimeInvariant), and filters whose
+ * warm-up would be longer than the largest one allowed, are applied to the whole signal at once.
+ * Their output is exact.
+ */
+public class SegmentRenderer {
+	private final FilterFactory factory;
+	private final int threads, warmUp;
+	private final boolean exact, segmented;
+	
+	/**
+	 * @param	factory			Creates the filters, one per segment.
+	 * @param	threads			The number of segments filtered at the same time.
+	 * @param	threshold		For filters with feedback, the level (in dB, relative to the peak
+	 * 							of the impulse response) below which the tail is neglected.
+	 * @param	maxWarmUp		The largest warm-up allowed, in samples.
+	 * @throws	FilterException	Thrown if factory is null, if threads is nonpositive, if threshold
+	 * 							is nonnegative or if the filter cannot be created.
+	 */
+	public SegmentRenderer(FilterFactory factory, int threads, double threshold, int maxWarmUp)
+			throws FilterException {
+		if (factory == null) {
+			throw new FilterException("Tried to create segment renderer with null factory.");
+		}
+		if (threads <= 0) {
+			throw new FilterException("Tried to create segment renderer with nonpositive number " +
+					"of threads.");
+		}
+		if (threshold >= 0) {
+			throw new FilterException("Tried to create segment renderer with nonnegative " +
+					"threshold.");
+		}
+		
+		this.factory = factory;
+		this.threads = threads;
+		
+		Filter f = create();
+		long memory = memory(f);
+		int response = -1;
+		if (memory >= 0 && memory <= maxWarmUp) {
+			warmUp = (int) memory;
+			exact = true;
+			segmented = true;
+		} // Without feedback, the warm-up is exact.
+		else if (timeInvariant(f) && (response = ImpulseResponse.length(f, threshold,
+				maxWarmUp)) >= 0) {
+			warmUp = response;
+			exact = false;
+			segmented = true;
+		} // With feedback, the warm-up lasts until the impulse response is below the threshold.
+		else {
+			warmUp = 0;
+			exact = true;
+			segmented = false;
+		} // Otherwise, we cannot split the signal, or the response lasts longer than maxWarmUp.
+	}
+	
+	/**
+	 * Creates a new segment renderer with one thread per core, a threshold of -120 dB and a
+	 * warm-up of at most one minute at 44.1 kHz.
+	 *
+	 * @param	factory			Creates the filters, one per segment.
+	 * @throws	FilterException	Thrown if factory is null or if the filter cannot be created.
+	 */
+	public SegmentRenderer(FilterFactory factory) throws FilterException {
+		this(factory, Runtime.getRuntime().availableProcessors(), -120, 60 * 44100);
+	}
+	
+	/**
+	 * Returns warmUp.
+	 *
+	 * @return	int	The number of samples each segment's filter is warmed up on.
+	 */
+	public int warmUp() {
+		return warmUp;
+	}
+	
+	/**
+	 * Returns whether the output is exactly the one of a single filter applied from the start.
+	 *
+	 * @return	boolean	True if the output is exact, false if it is exact up to the threshold.
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+	
+	/**
+	 * Returns whether signals are split into segments.
+	 *
+	 * @return	boolean	False if the filter is not time-invariant or if its warm-up would be longer
+	 * 					than the largest one allowed.
+	 */
+	public boolean isSegmented() {
+		return segmented;
+	}
+	
+	/**
+	 * Applies the filter to input followed by tail samples of silence, so that the output also
+	 * holds the tail of the filter (see CompositeFilter.tailLength). Output signals are allocated
+	 * once, with their final length.
+	 *
+	 * @param	input			The input signals, one per input of the filter, of equal lengths.
+	 * @param	tail			The number of samples of silence after input.
+	 * @return	double[][]		The output signals, one per output of the filter, tail samples
+	 * 							longer than input.
+	 * @throws	FilterException	Thrown if input does not match the filter, if tail is negative or
+	 * 							if a filter throws an exception.
+	 */
+	public double[][] render(double[][] input, int tail) throws FilterException {
+		return render(withSilence(input, tail));
+	}
+	
+	/**
+	 * Applies the filter to input.
+	 *
+	 * @param	input			The input signals, one per input of the filter, of equal lengths.
+	 * @return	double[][]		The output signals, one per output of the filter.
+	 * @throws	FilterException	Thrown if input does not match the filter or if a filter throws an
+	 * 							exception.
+	 */
+	public double[][] render(final double[][] input) throws FilterException {
+		Filter f = create();
+		if (input == null || input.length != f.nbInputs()) {
+			throw new FilterException("Provided input to segment renderer that does not match " +
+					"the number of inputs of the filter.");
+		}
+		final int length = input.length == 0 ? 0 : input[0].length;
+		for (double[] channel : input) {
+			if (channel == null || channel.length != length) {
+				throw new FilterException("Provided input channels of different lengths to segment" +
+						" renderer.");
+			}
+		}
+		final double[][] output = new double[f.nbOutputs()][length];
+		
+		int segments = segmented ? threads : 1;
+		if (warmUp > 0) segments = Math.min(segments, Math.max(1, length / warmUp));
+		// A segment shorter than the warm-up would cost more than it saves.
+		final int size = (length + segments - 1) / Math.max(segments, 1);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(segments);
+		try {
+			Vector<Future<Void>> results = new Vector<Future<Void>>();
+			for (int k = 0; k < segments; k++) {
+				final int start = k * size, end = Math.min(length, start + size);
+				final Filter filter = k == 0 ? f : create();
+				results.add(executor.submit(new Callable<Void>() {
+					public Void call() throws FilterException {
+						apply(filter, input, output, Math.max(0, start - warmUp), start, end);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		}
+		catch (ExecutionException e) {
+			throw new FilterException("An exception was thrown while rendering a segment. " +
+					"Message reads:\n" + e.getCause().getMessage());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FilterException("Segment rendering was interrupted.");
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return output;
+	}
+	
+	/**
+	 * Returns a new filter from factory. Composite filters are checked without printing warnings,
+	 * as every segment would print them again.
+	 *
+	 * @return	Filter			The filter.
+	 * @throws	FilterException	Thrown if the filter cannot be created or is not valid.
+	 */
+	private Filter create() throws FilterException {
+		Filter f = factory.create();
+		if (f instanceof CompositeFilter) ((CompositeFilter) f).check(false);
+		return f;
+	}
+	
+	/**
+	 * Returns input followed by tail samples of silence.
+	 *
+	 * @param	input			The input signals.
+	 * @param	tail			The number of samples of silence.
+	 * @return	double[][]		The longer input signals, or input itself if a channel is null.
+	 * @throws	FilterException	Thrown if tail is negative.
+	 */
+	static double[][] withSilence(double[][] input, int tail) throws FilterException {
+		if (tail < 0) {
+			throw new FilterException("Tried to render negative number of samples of silence.");
+		}
+		if (input == null) return null;
+		
+		double[][] longer = new double[input.length][];
+		for (int i = 0; i < input.length; i++) {
+			if (input[i] == null) return input;  // render rejects it.
+			longer[i] = Arrays.copyOf(input[i], input[i].length + tail);
+		}
+		return longer;
+	}
+	
+	/**
+	 * Applies f to input from warm to end, and writes its outputs from start to end in output.
+	 *
+	 * @param	f				The filter.
+	 * @param	input			The input signals.
+	 * @param	output			The output signals.
+	 * @param	warm			Where the warm-up starts.
+	 * @param	start			Where the segment starts.
+	 * @param	end				Where the segment ends (excluded).
+	 * @throws	FilterException	Thrown if f throws an exception.
+	 */
+	private static void apply(Filter f, double[][] input, double[][] output, int warm, int start,
+			int end) throws FilterException {
+		double[] in = new double[input.length];
+		for (int j = warm; j < end; j++) {
+			for (int i = 0; i < in.length; i++) {
+				in[i] = input[i][j];
+			}
+			double[] out = f.computeOneStep(in);
+			if (j >= start) {
+				for (int i = 0; i < out.length; i++) {
+					output[i][j] = out[i];
+				}
+			} // Outputs of the warm-up are thrown away.
+		}
+	}
+	
+	/**
+	 * Returns the memory of f (see CompositeFilter.memory).
+	 *
+	 * @param	f				The filter.
+	 * @return	long			The memory, or -1 if it is not bounded or not known.
+	 * @throws	FilterException	Thrown if f is not valid.
+	 */
+	private static long memory(Filter f) throws FilterException {
+		if (f instanceof CompositeFilter) return ((CompositeFilter) f).memory();
+		if (f instanceof DelayFilter) return ((DelayFilter) f).getDelay();
+		if (f instanceof GainFilter || f instanceof AdditionFilter) return 0;
+		return -1;
+	}
+	
+	/**
+	 * Returns whether f is time-invariant (see CompositeFilter.isTimeInvariant).
+	 *
+	 * @param	f		The filter.
+	 * @return	boolean	True if f is time-invariant.
+	 */
+	private static boolean timeInvariant(Filter f) {
+		if (f instanceof CompositeFilter) return ((CompositeFilter) f).isTimeInvariant();
+		return f instanceof FDNReverb || f instanceof StateSpaceFilter || f instanceof GainFilter
+				|| f instanceof AdditionFilter || f instanceof DelayFilter;
+	}
+}
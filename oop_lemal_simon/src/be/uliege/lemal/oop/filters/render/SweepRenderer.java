@@ -0,0 +1,296 @@
+package be.uliege.lemal.oop.filters.render;
+
+import be.uliege.lemal.oop.filters.FilterFactory;
+import be.uliege.lemal.oop.filters.TrustedFilter;
+import be.uliege.lemal.oop.filters.compositeFilters.CompositeFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The SweepRenderer class. It applies many variants of a filter (e.g. a grid of parameters) to
+ * the same WAV file, in parallel. The file is decoded once, into a read-only buffer all variants
+ * read from, so that memory holds a single copy of the input however many variants there are.
+ * The buffer is on the heap or, optionally, in a memory-mapped temporary file, which the
+ * operating system can page out. Samples are stored as floats, which represent 16-bit samples
+ * exactly. Each variant streams its output to its own WAV file, block by block.
+ */
+public class SweepRenderer {
+	public static final int BLOCK = 4096;  // The number of frames a variant writes at once.
+	
+	private final FloatBuffer samples;  // Interleaved: sample c of frame j is at j * channels + c.
+	private final int nbChannels, length;
+	private final float sampleRate;
+	private final boolean mapped;
+	
+	/**
+	 * Decodes source.
+	 *
+	 * @param	source			The WAV file (or any file javax.sound.sampled can decode to
+	 * 							16-bit PCM).
+	 * @param	mapped			Whether the samples are kept in a memory-mapped temporary file
+	 * 							rather than on the heap.
+	 * @throws	IOException		Thrown if source cannot be read or decoded, or if it is too
+	 * 							long.
+	 */
+	public SweepRenderer(File source, boolean mapped) throws IOException {
+		AudioInputStream stream;
+		try {
+			stream = AudioSystem.getAudioInputStream(source);
+		}
+		catch (UnsupportedAudioFileException e) {
+			throw new IOException("Could not decode " + source + ". Message reads:\n" +
+					e.getMessage());
+		}
+		try {
+			AudioFormat format = stream.getFormat();
+			AudioFormat pcm = new AudioFormat(format.getSampleRate(), 16, format.getChannels(),
+					true, false);
+			if (!format.matches(pcm)) stream = AudioSystem.getAudioInputStream(pcm, stream);
+			
+			nbChannels = format.getChannels();
+			sampleRate = format.getSampleRate();
+			long frames = stream.getFrameLength();
+			if (frames == AudioSystem.NOT_SPECIFIED
+					|| frames * nbChannels * 4 > Integer.MAX_VALUE) {
+				throw new IOException("Length of " + source + " is unknown or too large.");
+			}
+			length = (int) frames;
+			
+			FloatBuffer buffer = mapped ? map(length * nbChannels) :
+					FloatBuffer.allocate(length * nbChannels);
+			byte[] bytes = new byte[BLOCK * 2 * nbChannels];
+			int n, left = 0;  // left is the number of bytes of an incomplete sample.
+			while ((n = stream.read(bytes, left, bytes.length - left)) > 0) {
+				n += left;
+				int whole = n & ~1;
+				for (int b = 0; b < whole && buffer.hasRemaining(); b += 2) {
+					buffer.put((short) ((bytes[b] & 0xff) | (bytes[b + 1] << 8)) / 32768f);
+				}
+				left = n - whole;
+				if (left > 0) bytes[0] = bytes[whole];
+			} // Samples are read block by block, so that no second copy of the input is made.
+			samples = buffer.asReadOnlyBuffer();
+			this.mapped = mapped;
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException("Could not convert " + source + " to 16-bit PCM.");
+		}
+		finally {
+			stream.close();
+		}
+	}
+	
+	/**
+	 * Returns a buffer of size floats, memory-mapped from a temporary file. The file is deleted
+	 * right away where the system allows it (the mapping stays valid), or when the program ends.
+	 *
+	 * @param	size			The number of floats.
+	 * @return	FloatBuffer		The buffer.
+	 * @throws	IOException		Thrown if the file cannot be created or mapped.
+	 */
+	private static FloatBuffer map(int size) throws IOException {
+		File file = File.createTempFile("sweep", ".f32");
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FloatBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					4L * size).order(ByteOrder.nativeOrder()).asFloatBuffer();
+			file.delete();
+			return buffer;
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Returns nbChannels.
+	 *
+	 * @return	int	The number of channels of the source, which filters must have as inputs.
+	 */
+	public int nbChannels() {
+		return nbChannels;
+	}
+	
+	/**
+	 * Returns length.
+	 *
+	 * @return	int	The number of frames of the source.
+	 */
+	public int length() {
+		return length;
+	}
+	
+	/**
+	 * Returns sampleRate.
+	 *
+	 * @return	float	The sample rate of the source, which the outputs also have.
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * Returns mapped.
+	 *
+	 * @return	boolean	Whether the samples are kept in a memory-mapped file.
+	 */
+	public boolean isMapped() {
+		return mapped;
+	}
+	
+	/**
+	 * Applies each variant to the source followed by tail samples of silence, and writes its
+	 * output in a 16-bit WAV file (samples are scaled back by 32768, as they were decoded, and
+	 * clipped between -32768 and 32767). Variants are rendered on threads threads, each by a new
+	 * filter.
+	 *
+	 * @param	variants		The files the outputs are written to, and the filters whose
+	 * 							outputs are written there.
+	 * @param	tail			The number of samples of silence after the source.
+	 * @param	threads			The number of variants rendered at the same time.
+	 * @throws	FilterException	Thrown if variants is null, if tail is negative, if threads is
+	 * 							nonpositive, if a filter does not have one input per channel, or
+	 * 							if a filter throws an exception.
+	 * @throws	IOException		Thrown if an output cannot be written.
+	 */
+	public void render(Map<File, FilterFactory> variants, final int tail, int threads)
+			throws FilterException, IOException {
+		if (variants == null) {
+			throw new FilterException("Provided null variants to sweep renderer.");
+		}
+		if (tail < 0 || threads <= 0) {
+			throw new FilterException("Tried to render sweep with negative tail or nonpositive " +
+					"number of threads.");
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			Vector<Future<Void>> results = new Vector<Future<Void>>();
+			for (final Map.Entry<File, FilterFactory> variant : variants.entrySet()) {
+				results.add(executor.submit(new Callable<Void>() {
+					public Void call() throws FilterException, IOException {
+						render(variant.getValue().create(), variant.getKey(), tail);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new FilterException("An exception was thrown while rendering a variant. " +
+					"Message reads:\n" + e.getCause().getMessage());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FilterException("Sweep rendering was interrupted.");
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Applies f to the source followed by tail samples of silence, and writes its output in
+	 * destination.
+	 *
+	 * @param	f				The filter.
+	 * @param	destination		The WAV file written.
+	 * @param	tail			The number of samples of silence after the source.
+	 * @throws	FilterException	Thrown if f does not have one input per channel or if it throws
+	 * 							an exception.
+	 * @throws	IOException		Thrown if destination cannot be written.
+	 */
+	private void render(Filter f, File destination, int tail) throws FilterException, IOException {
+		if (f.nbInputs() != nbChannels) {
+			throw new FilterException(String.format("Filter of %s has %d input(s). Source has %d " +
+					"channel(s).", destination.getName(), f.nbInputs(), nbChannels));
+		}
+		if (f instanceof CompositeFilter) ((CompositeFilter) f).check(false);
+		f.reset();  // Parameters changed after creating the filter jump to their values.
+		
+		int nbOutputs = f.nbOutputs();
+		long frames = (long) length + tail;
+		double[] in = new double[nbChannels], out = new double[nbOutputs];
+		ByteBuffer block = ByteBuffer.allocate(BLOCK * 2 * Math.max(nbOutputs, 1))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		
+		FileChannel channel = new FileOutputStream(destination).getChannel();
+		try {
+			header(block, nbOutputs, frames);
+			for (long j = 0; j < frames; j++) {
+				for (int c = 0; c < nbChannels; c++) {
+					in[c] = j < length ? samples.get((int) j * nbChannels + c) : 0;
+				} // Absolute gets do not move the shared buffer, so variants read it concurrently.
+				if (f instanceof TrustedFilter) ((TrustedFilter) f).computeOneStepTrusted(in, out);
+				else out = f.computeOneStep(in);
+				
+				if (block.remaining() < 2 * nbOutputs) write(channel, block);
+				for (int o = 0; o < nbOutputs; o++) {
+					block.putShort((short) Math.max(-32768, Math.min(32767,
+							Math.round(out[o] * 32768))));
+				} // The inverse of the decoding, so that an identity filter copies its source.
+			}
+			write(channel, block);
+		}
+		finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Puts the header of a 16-bit PCM WAV file in block.
+	 *
+	 * @param	block			The buffer.
+	 * @param	nbOutputs		The number of channels of the file.
+	 * @param	frames			The number of frames of the file.
+	 * @throws	IOException		Thrown if the file would be too large for the WAV format.
+	 */
+	private void header(ByteBuffer block, int nbOutputs, long frames) throws IOException {
+		long data = frames * 2 * nbOutputs;
+		if (data > 0xffffffffL - 36) {
+			throw new IOException("Output is too large for the WAV format.");
+		}
+		int rate = Math.round(sampleRate);
+		block.put(new byte[]{'R', 'I', 'F', 'F'}).putInt((int) (36 + data));
+		block.put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '}).putInt(16);
+		block.putShort((short) 1).putShort((short) nbOutputs).putInt(rate)
+				.putInt(rate * 2 * nbOutputs).putShort((short) (2 * nbOutputs))
+				.putShort((short) 16);
+		block.put(new byte[]{'d', 'a', 't', 'a'}).putInt((int) data);
+	}
+	
+	/**
+	 * Writes the content of block to channel and clears block.
+	 */
+	private static void write(FileChannel channel, ByteBuffer block) throws IOException {
+		block.flip();
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+		block.clear();
+	}
+}
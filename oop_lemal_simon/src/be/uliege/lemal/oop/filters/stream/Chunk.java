@@ -0,0 +1,83 @@
+package be.uliege.lemal.oop.filters.stream;
+
+/**
+ * The Chunk class. It is a buffer of consecutive samples of several channels, the item
+ * processors of this package receive and send. Chunks are allocated by a pool (see ChunkPool)
+ * with a fixed capacity, and may hold fewer samples (see getLength).
+ * Whoever is done with a chunk releases it, so that the pool gives it out again instead of
+ * allocating a new one. A chunk must not be used after it was released.
+ */
+public class Chunk {
+	private final double[][] samples;  // samples[c][j] is sample j of channel c.
+	private final ChunkPool pool;
+	private int length = 0;
+	
+	/**
+	 * @param	pool		The pool the chunk is released to.
+	 * @param	nbChannels	The number of channels.
+	 * @param	capacity	The largest number of samples per channel.
+	 */
+	Chunk(ChunkPool pool, int nbChannels, int capacity) {
+		this.pool = pool;
+		samples = new double[nbChannels][capacity];
+	}
+	
+	/**
+	 * Returns the samples of a channel. Only the first getLength() ones are meaningful.
+	 *
+	 * @param	c			The number of the channel.
+	 * @return	double[]	The samples, which can be written.
+	 */
+	public double[] getChannel(int c) {
+		return samples[c];
+	}
+	
+	/**
+	 * Returns the number of channels.
+	 *
+	 * @return	int	The number of channels.
+	 */
+	public int nbChannels() {
+		return samples.length;
+	}
+	
+	/**
+	 * Returns the largest number of samples per channel.
+	 *
+	 * @return	int	The capacity.
+	 */
+	public int getCapacity() {
+		return samples.length == 0 ? pool.getCapacity() : samples[0].length;
+	}
+	
+	/**
+	 * Returns the number of samples per channel the chunk holds.
+	 *
+	 * @return	int	The length.
+	 */
+	public int getLength() {
+		return length;
+	}
+	
+	/**
+	 * Changes the number of samples per channel the chunk holds.
+	 *
+	 * @param	length						The length, between 0 and the capacity.
+	 * @throws	IllegalArgumentException	Thrown if length is out of range.
+	 */
+	public void setLength(int length) {
+		if (length < 0 || length > getCapacity()) {
+			throw new IllegalArgumentException(String.format("Chunk length %d is out of range. " +
+					"Must be between 0 and %d.", length, getCapacity()));
+		}
+		this.length = length;
+	}
+	
+	/**
+	 * Gives the chunk back to its pool.
+	 */
+	public void release() {
+		length = 0;
+		pool.release(this);
+	}
+}
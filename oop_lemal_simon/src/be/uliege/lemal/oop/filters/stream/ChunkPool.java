@@ -0,0 +1,78 @@
+package be.uliege.lemal.oop.filters.stream;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ChunkPool class. It gives out chunks of the same shape, and takes them back once they are
+ * released, so that a stream allocates as many chunks as are in use at the same time rather than
+ * one per item. It can be used by several threads.
+ */
+public class ChunkPool {
+	private final int nbChannels, capacity;
+	private final ConcurrentLinkedQueue<Chunk> free = new ConcurrentLinkedQueue<Chunk>();
+	private final AtomicInteger allocated = new AtomicInteger();
+	
+	/**
+	 * @param	nbChannels					The number of channels of the chunks.
+	 * @param	capacity					The largest number of samples per channel.
+	 * @throws	IllegalArgumentException	Thrown if nbChannels is negative or capacity is
+	 * 										nonpositive.
+	 */
+	public ChunkPool(int nbChannels, int capacity) {
+		if (nbChannels < 0 || capacity <= 0) {
+			throw new IllegalArgumentException("Tried to create chunk pool with negative number " +
+					"of channels or nonpositive capacity.");
+		}
+		this.nbChannels = nbChannels;
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Returns a chunk, empty, that was released before or a new one.
+	 *
+	 * @return	Chunk	The chunk.
+	 */
+	public Chunk acquire() {
+		Chunk chunk = free.poll();
+		if (chunk != null) return chunk;
+		allocated.incrementAndGet();
+		return new Chunk(this, nbChannels, capacity);
+	}
+	
+	/**
+	 * Takes chunk back. See Chunk.release.
+	 *
+	 * @param	chunk	The chunk.
+	 */
+	void release(Chunk chunk) {
+		free.add(chunk);
+	}
+	
+	/**
+	 * Returns the number of chunks this pool allocated.
+	 *
+	 * @return	int	The number of chunks.
+	 */
+	public int allocated() {
+		return allocated.get();
+	}
+	
+	/**
+	 * Returns the number of channels of the chunks.
+	 *
+	 * @return	int	The number of channels.
+	 */
+	public int nbChannels() {
+		return nbChannels;
+	}
+	
+	/**
+	 * Returns the largest number of samples per channel.
+	 *
+	 * @return	int	The capacity.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,239 @@
+package be.uliege.lemal.oop.filters.stream;
+
+import be.uliege.lemal.oop.filters.TrustedFilter;
+import be.uliege.montefiore.oop.audio.Filter;
+import be.uliege.montefiore.oop.audio.FilterException;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The FilterProcessor class. It applies a filter to a stream of chunks (one channel per input of
+ * the filter) and sends a chunk of the same length (one channel per output) for each of them.
+ * Demand goes upstream as it is: every chunk the subscriber requests is requested from the
+ * publisher, so a slow subscriber slows the publisher down instead of letting chunks pile up.
+ * Chunks are filtered on an executor, one at a time and in order. The processor releases the
+ * chunks it receives once they are filtered, and sends chunks from its own pool: the subscriber
+ * releases them once it is done, so that they are reused.
+ */
+public class FilterProcessor implements Flow.Processor<Chunk, Chunk> {
+	private final Filter filter;
+	private final Executor executor;
+	private final ChunkPool pool;
+	private final double[] in, out;
+	
+	private Flow.Subscription upstream = null;
+	private Flow.Subscriber<? super Chunk> downstream = null;
+	private long pending = 0;  // Demand received before the publisher subscribed.
+	private boolean cancelled = false;
+	// These are only accessed while synchronized on this processor.
+	
+	private final ConcurrentLinkedQueue<Chunk> queue = new ConcurrentLinkedQueue<Chunk>();
+	private final AtomicInteger work = new AtomicInteger();  // Drains requested but not done.
+	private volatile boolean done = false;  // Whether the publisher completed or failed.
+	private volatile Throwable error = null;
+	private boolean terminated = false;  // Only accessed by the thread that drains.
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+	
+	/**
+	 * @param	filter			The filter. It must not be applied by anything else meanwhile.
+	 * @param	executor		The executor chunks are filtered on.
+	 * @param	capacity		The largest number of samples per chunk.
+	 * @throws	FilterException	Thrown if filter or executor is null or if capacity is
+	 * 							nonpositive.
+	 */
+	public FilterProcessor(Filter filter, Executor executor, int capacity) throws FilterException {
+		if (filter == null || executor == null) {
+			throw new FilterException("Tried to create filter processor with null filter or " +
+					"executor.");
+		}
+		if (capacity <= 0) {
+			throw new FilterException("Tried to create filter processor with nonpositive chunk " +
+					"capacity.");
+		}
+		
+		this.filter = filter;
+		this.executor = executor;
+		pool = new ChunkPool(filter.nbOutputs(), capacity);
+		in = new double[filter.nbInputs()];
+		out = new double[filter.nbOutputs()];
+	}
+	
+	/**
+	 * Returns the pool the chunks this processor sends come from.
+	 *
+	 * @return	ChunkPool	The pool.
+	 */
+	public ChunkPool getPool() {
+		return pool;
+	}
+	
+	public synchronized void subscribe(Flow.Subscriber<? super Chunk> subscriber) {
+		if (subscriber == null) throw new NullPointerException("Null subscriber.");
+		if (downstream != null) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+				
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("Filter processor already has a " +
+					"subscriber."));
+			return;
+		} // A filter has one state, so it cannot be applied to several streams.
+		
+		downstream = subscriber;
+		subscriber.onSubscribe(new Flow.Subscription() {
+			public void request(long n) {
+				FilterProcessor.this.request(n);
+			}
+			
+			public void cancel() {
+				FilterProcessor.this.cancel();
+			}
+		});
+	}
+	
+	public synchronized void onSubscribe(Flow.Subscription subscription) {
+		if (upstream != null || cancelled) {
+			subscription.cancel();
+			return;
+		}
+		upstream = subscription;
+		if (pending > 0) subscription.request(pending);
+		pending = 0;
+	}
+	
+	public void onNext(Chunk chunk) {
+		queue.add(chunk);
+		schedule();
+	}
+	
+	public void onError(Throwable throwable) {
+		error = throwable;
+		done = true;
+		schedule();
+	}
+	
+	public void onComplete() {
+		done = true;
+		schedule();
+	}
+	
+	/**
+	 * Requests n more chunks from the publisher, or remembers them until it subscribes.
+	 *
+	 * @param	n	The number of chunks.
+	 */
+	private synchronized void request(long n) {
+		if (cancelled) return;
+		if (n <= 0) {
+			if (upstream != null) upstream.cancel();
+			upstream = new Flow.Subscription() {
+				public void request(long n) {
+				}
+				
+				public void cancel() {
+				}
+			}; // The publisher is stopped, and will not subscribe again.
+			onError(new IllegalArgumentException("Requested a nonpositive number of chunks."));
+			return;
+		} // The subscriber gets an error, as if the publisher had failed.
+		if (upstream != null) upstream.request(n);
+		else pending = pending + n < 0 ? Long.MAX_VALUE : pending + n;
+	}
+	
+	/**
+	 * Stops the stream: the publisher is cancelled and chunks received afterwards are dropped.
+	 */
+	private synchronized void cancel() {
+		if (cancelled) return;
+		cancelled = true;
+		if (upstream != null) upstream.cancel();
+		schedule();
+	}
+	
+	private synchronized boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Makes sure the queue is drained on the executor after this call. Only one thread drains
+	 * at a time, so chunks are filtered in order.
+	 */
+	private void schedule() {
+		if (work.getAndIncrement() == 0) executor.execute(drain);
+	}
+	
+	/**
+	 * Filters the received chunks and sends them, then ends the stream if the publisher did.
+	 * Whether it did is read before polling: chunks it sent before completing are then already
+	 * in the queue, and are sent before the stream ends.
+	 */
+	private void drain() {
+		int missed = 1;
+		do {
+			boolean finished = done;
+			Chunk chunk;
+			while ((chunk = queue.poll()) != null) {
+				if (terminated || isCancelled()) chunk.release();
+				else send(chunk);
+			}
+			if (!terminated && (finished && queue.isEmpty() || isCancelled())) {
+				terminated = true;
+				if (!isCancelled()) {
+					if (error == null) downstream.onComplete();
+					else downstream.onError(error);
+				}
+			}
+			missed = work.addAndGet(-missed);
+		} while (missed != 0);
+	}
+	
+	/**
+	 * Filters chunk, releases it and sends the filtered chunk. If filtering fails, the stream is
+	 * cancelled and the subscriber gets the exception.
+	 *
+	 * @param	chunk	The chunk.
+	 */
+	private void send(Chunk chunk) {
+		Chunk result = pool.acquire();
+		try {
+			if (chunk.nbChannels() != in.length || chunk.getLength() > pool.getCapacity()) {
+				throw new FilterException(String.format("Provided chunk of %d channel(s) and %d " +
+						"sample(s) to filter processor. It expects %d channel(s) and at most %d " +
+						"sample(s).", chunk.nbChannels(), chunk.getLength(), in.length,
+						pool.getCapacity()));
+			}
+			for (int j = 0; j < chunk.getLength(); j++) {
+				for (int i = 0; i < in.length; i++) {
+					in[i] = chunk.getChannel(i)[j];
+				}
+				if (filter instanceof TrustedFilter) {
+					((TrustedFilter) filter).computeOneStep(in, out);
+				}
+				else System.arraycopy(filter.computeOneStep(in), 0, out, 0, out.length);
+				for (int o = 0; o < out.length; o++) {
+					result.getChannel(o)[j] = out[o];
+				}
+			}
+			result.setLength(chunk.getLength());
+		}
+		catch (FilterException e) {
+			result.release();
+			chunk.release();
+			cancel();
+			terminated = true;
+			downstream.onError(e);
+			return;
+		}
+		chunk.release();
+		downstream.onNext(result);
+	}
+}
@@ -0,0 +1,88 @@
+package be.uliege.lemal.oop.filters.stream;
+
+/**
+ * The Flow class. It holds the interfaces of reactive streams: publishers that send items to
+ * subscribers only as fast as the subscribers request them. They are the same as the ones of
+ * java.util.concurrent.Flow, which appeared in Java 9: this project is compiled for Java 8.
+ * Implementations only depend on the names below, so that they can use java.util.concurrent.Flow
+ * instead by changing their imports.
+ */
+public final class Flow {
+	private Flow() {
+	} // This class only holds interfaces.
+	
+	/**
+	 * A producer of items, received by subscribers.
+	 *
+	 * @param	<T>	The type of the items.
+	 */
+	public interface Publisher<T> {
+		/**
+		 * Adds subscriber. Its onSubscribe method is called with a new subscription, or its
+		 * onError method if it cannot subscribe.
+		 *
+		 * @param	subscriber	The subscriber.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+	
+	/**
+	 * A receiver of items. Its methods are called in sequence: onSubscribe, then onNext at most
+	 * as many times as requested, then onComplete or onError.
+	 *
+	 * @param	<T>	The type of the items.
+	 */
+	public interface Subscriber<T> {
+		/**
+		 * Called before any other method, with the subscription items are requested through.
+		 *
+		 * @param	subscription	The subscription.
+		 */
+		void onSubscribe(Subscription subscription);
+		
+		/**
+		 * Called with the next item.
+		 *
+		 * @param	item	The item.
+		 */
+		void onNext(T item);
+		
+		/**
+		 * Called when the publisher failed. No other method is called afterwards.
+		 *
+		 * @param	throwable	The error.
+		 */
+		void onError(Throwable throwable);
+		
+		/**
+		 * Called when the publisher has sent all its items. No other method is called afterwards.
+		 */
+		void onComplete();
+	}
+	
+	/**
+	 * The link between a publisher and a subscriber.
+	 */
+	public interface Subscription {
+		/**
+		 * Allows the publisher to send n more items. Requests add up.
+		 *
+		 * @param	n	The number of items, positive.
+		 */
+		void request(long n);
+		
+		/**
+		 * Asks the publisher to stop sending items. Some may still be sent.
+		 */
+		void cancel();
+	}
+	
+	/**
+	 * Both a subscriber and a publisher: it transforms the items it receives.
+	 *
+	 * @param	<T>	The type of the items received.
+	 * @param	<R>	The type of the items sent.
+	 */
+	public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+	}
+}